@@ -7,12 +7,22 @@ repositories {
     mavenCentral()
 }
 
+// JMH ベンチマーク（src/jmh/java）。本体のクラスと依存ライブラリを参照する
+val jmh by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output
+    runtimeClasspath += sourceSets.main.get().output
+}
+configurations[jmh.implementationConfigurationName].extendsFrom(configurations.implementation.get())
+configurations[jmh.runtimeOnlyConfigurationName].extendsFrom(configurations.runtimeOnly.get())
+
 dependencies {
     implementation("org.xerial:sqlite-jdbc:3.46.0.0")
     implementation("ch.qos.logback:logback-classic:1.5.6")
     implementation("com.fasterxml.jackson.core:jackson-databind:2.16.1")
     implementation("com.fasterxml.jackson.datatype:jackson-datatype-jsr310:2.16.1")
     testImplementation("org.junit.jupiter:junit-jupiter:5.10.2")
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:1.37")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.37")
 }
 
 javafx {
@@ -22,6 +32,8 @@ javafx {
 
 application {
     mainClass.set("com.example.diskanalyzer.MainApp")
+    // LinuxDirectoryReader は Java 21 ではプレビューの Foreign Function & Memory API を使う
+    applicationDefaultJvmArgs = listOf("--enable-preview", "--enable-native-access=ALL-UNNAMED")
 }
 
 java {
@@ -30,6 +42,76 @@ java {
     }
 }
 
+tasks.withType<JavaCompile>().configureEach {
+    options.compilerArgs.add("--enable-preview")
+}
+
 tasks.test {
     useJUnitPlatform()
+    jvmArgs("--enable-preview", "--enable-native-access=ALL-UNNAMED")
+}
+
+// JavaFX を読み込まないコマンドライン版（lumidisk-cli）の起動スクリプト
+// 読み込んだクラスを CDS アーカイブ（lib/lumidisk-cli.jsa）に保存し、2回目以降の起動を速くする。
+// アーカイブは JDK やクラスパスが変わると自動的に作り直される
+val cliStartScripts by tasks.registering(CreateStartScripts::class) {
+    mainClass.set("com.example.diskanalyzer.cli.CommandLineApp")
+    applicationName = "lumidisk-cli"
+    outputDir = layout.buildDirectory.dir("cli-scripts").get().asFile
+    classpath = tasks.startScripts.get().classpath
+    defaultJvmOpts = listOf(
+        "--enable-preview",
+        "--enable-native-access=ALL-UNNAMED",
+        "-XX:+AutoCreateSharedArchive",
+        "-XX:SharedArchiveFile=__APP_HOME__/lib/lumidisk-cli.jsa",
+    )
+    doLast {
+        // DEFAULT_JVM_OPTS から APP_HOME を参照できるよう、起動スクリプトを書き換える
+        val unixScript = File(outputDir, "lumidisk-cli")
+        unixScript.writeText(unixScript.readText().replace("__APP_HOME__", "'\"\$APP_HOME\"'"))
+        val windowsScript = File(outputDir, "lumidisk-cli.bat")
+        windowsScript.writeText(windowsScript.readText().replace("__APP_HOME__", "%APP_HOME%"))
+    }
+}
+
+distributions {
+    main {
+        contents {
+            from(cliStartScripts) {
+                into("bin")
+            }
+        }
+    }
+}
+
+// インストールしたコマンドライン版でソースツリーを1回スキャンし、CDS アーカイブを作成しておく
+val cliCdsArchive by tasks.registering(Exec::class) {
+    group = "distribution"
+    description = "Creates the class-data-sharing archive for lumidisk-cli by a training run."
+    dependsOn(tasks.installDist)
+    val installDir = tasks.installDist.get().destinationDir
+    commandLine(File(installDir, "bin/lumidisk-cli").absolutePath, "scan", "--top", "1", "--bytes",
+        layout.projectDirectory.dir("src").asFile.absolutePath)
+    standardOutput = java.io.OutputStream.nullOutputStream()
+    outputs.file(File(installDir, "lib/lumidisk-cli.jsa"))
+}
+
+// ベンチマークを実行し、結果を build/reports/jmh/results.json に保存する
+// 例: ./gradlew jmh -Pjmh.args="ScanBenchmark -p entries=1000000" -Pjmh.dir=/mnt/tmpfs
+tasks.register<JavaExec>("jmh") {
+    group = "verification"
+    description = "Runs the JMH benchmarks and writes the results as JSON."
+    classpath = jmh.runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    val resultsFile = layout.buildDirectory.file("reports/jmh/results.json").get().asFile
+    jvmArgs("--enable-preview", "--enable-native-access=ALL-UNNAMED")
+    providers.gradleProperty("jmh.dir").orNull?.let { jvmArgs("-Dlumidisk.bench.dir=$it") }
+    args("-rf", "json", "-rff", resultsFile.absolutePath)
+    providers.gradleProperty("jmh.args").orNull?.let { extra ->
+        args(extra.split(" ").filter { it.isNotBlank() })
+    }
+    outputs.upToDateWhen { false }
+    doFirst {
+        resultsFile.parentFile.mkdirs()
+    }
 }
@@ -0,0 +1,79 @@
+package com.example.diskanalyzer.bench;
+
+import com.example.diskanalyzer.model.ScanResult;
+import com.example.diskanalyzer.service.ExecutionRuntime;
+import com.example.diskanalyzer.service.IncrementalScanService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 増分スキャンのベンチマーク
+ * 各反復の前にフルスキャンでスナップショットを保存してから、ファイルの changeRate の割合を変更し、
+ * 変更の検出・再スキャン・スナップショットの保存までの1回の時間を計測する
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"--enable-preview", "--enable-native-access=ALL-UNNAMED",
+    "-Dlumidisk.metrics.summary=false"})
+public class IncrementalScanBenchmark {
+  @Param({"WIDE", "SKEWED"})
+  public SyntheticTreeGenerator.Shape shape;
+
+  @Param({"100000"})
+  public int entries;
+
+  @Param({"0.0", "0.001", "0.01", "0.1"})
+  public double changeRate;
+
+  private Path root;
+  private SyntheticTreeGenerator generator;
+  private ExecutionRuntime runtime;
+  private IncrementalScanService service;
+  private long mutationSeed = 1;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    Path benchmarkDirectory = SyntheticTreeGenerator.benchmarkDirectory();
+    // スナップショットを利用者の ~/.lumidisk/cache に保存しない
+    System.setProperty("user.home", benchmarkDirectory.resolve("home").toString());
+    generator = new SyntheticTreeGenerator(shape, entries, 42);
+    root = generator.generate(benchmarkDirectory.resolve("incremental-" + generator.directoryName()));
+    runtime = new ExecutionRuntime(Runtime.getRuntime().availableProcessors());
+    service = new IncrementalScanService(runtime);
+  }
+
+  @Setup(Level.Iteration)
+  public void prepareChanges() throws IOException {
+    // 前の反復の変更を取り込んだスナップショットを基準にする（変更の追加と削除は同数程度なので規模は保たれる）
+    service.performFullScan(root);
+    generator.mutate(root, changeRate, mutationSeed++);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    runtime.shutdown();
+  }
+
+  @Benchmark
+  public ScanResult incrementalScan() throws IOException {
+    return service.incrementalScan(root);
+  }
+}
@@ -0,0 +1,77 @@
+package com.example.diskanalyzer.bench;
+
+import com.example.diskanalyzer.model.ScanOptions;
+import com.example.diskanalyzer.model.ScanResult;
+import com.example.diskanalyzer.service.ExecutionRuntime;
+import com.example.diskanalyzer.service.FileScanner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * フルスキャンのベンチマーク
+ * 形状・エントリ数・属性の取得方法（NIO / getdents64+statx）・保持形式ごとに1回のスキャン時間を計測する。
+ * ツリーはページキャッシュに載った状態で計測される（キャッシュなしの計測は事前に drop_caches を行うこと）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"--enable-preview", "--enable-native-access=ALL-UNNAMED",
+    "-Dlumidisk.metrics.summary=false"})
+public class ScanBenchmark {
+  @Param({"WIDE", "DEEP", "SKEWED"})
+  public SyntheticTreeGenerator.Shape shape;
+
+  @Param({"100000"})
+  public int entries;
+
+  @Param({"nio", "native"})
+  public String reader;
+
+  @Param({"COLUMNAR"})
+  public ScanOptions.StorageMode storage;
+
+  @Param({"0"})
+  public int parallelism; // 0 の場合は CPU 数
+
+  private Path root;
+  private ExecutionRuntime runtime;
+  private FileScanner scanner;
+  private ScanOptions options;
+
+  @Setup
+  public void setUp() throws IOException {
+    SyntheticTreeGenerator generator = new SyntheticTreeGenerator(shape, entries, 42);
+    root = generator.generate(SyntheticTreeGenerator.benchmarkDirectory().resolve(generator.directoryName()));
+    runtime = new ExecutionRuntime(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+    scanner = new FileScanner(runtime);
+    options = new ScanOptions();
+    options.setStorageMode(storage);
+    options.setNativeReaderEnabled("native".equals(reader));
+  }
+
+  @TearDown
+  public void tearDown() {
+    runtime.shutdown();
+  }
+
+  @Benchmark
+  public ScanResult fullScan() throws IOException {
+    return scanner.scan(root, options, null);
+  }
+}
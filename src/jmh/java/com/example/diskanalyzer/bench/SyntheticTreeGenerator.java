@@ -0,0 +1,297 @@
+package com.example.diskanalyzer.bench;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+
+/**
+ * ベンチマーク用のディレクトリツリーを生成する
+ * 同じ形状・エントリ数・シードからは常に同じ名前・サイズ・更新日時のツリーを作る。
+ * ファイルは先頭の数バイトだけを書き込んだ疎ファイルとするため、数百万エントリでもディスクをほとんど使わない。
+ * 生成したツリーには仕様を記録したマーカーファイルを置き、同じ仕様であれば次回は作り直さずに再利用する
+ */
+public class SyntheticTreeGenerator {
+  static final String MARKER_FILE = ".lumidisk-bench";
+  private static final int MARKER_VERSION = 1;
+  private static final long BASE_EPOCH_SECONDS = 1_600_000_000L; // 更新日時の基準（2020-09-13）
+  private static final long MODIFIED_RANGE_SECONDS = 3L * 365 * 24 * 3600;
+  private static final int DEEP_LEVELS = 64;
+  private static final String[] EXTENSIONS = {"txt", "log", "jpg", "png", "mp4", "java", "class", "json", "pdf", "bin"};
+
+  /**
+   * ツリーの形状
+   */
+  public enum Shape {
+    /** 1ディレクトリあたり約1000ファイルの浅いツリー */
+    WIDE(1000),
+    /** 64階層の連なりに少数のファイルを置いた深いツリー */
+    DEEP(8),
+    /** ディレクトリの親をランダムに選び、ファイル数をZipf分布で偏らせたツリー（少数のディレクトリに大半のファイルが集まる） */
+    SKEWED(32);
+
+    private final int filesPerDirectory;
+
+    Shape(int filesPerDirectory) {
+      this.filesPerDirectory = filesPerDirectory;
+    }
+  }
+
+  private final Shape shape;
+  private final int entryCount;
+  private final long seed;
+  private int maxFileSize = 64 * 1024;
+
+  /**
+   * @param entryCount 生成するエントリ（ファイルとディレクトリ）のおおよその総数
+   */
+  public SyntheticTreeGenerator(Shape shape, int entryCount, long seed) {
+    if (entryCount < 1) {
+      throw new IllegalArgumentException("entryCount must be positive: " + entryCount);
+    }
+    this.shape = shape;
+    this.entryCount = entryCount;
+    this.seed = seed;
+  }
+
+  public Shape getShape() {
+    return shape;
+  }
+
+  public int getEntryCount() {
+    return entryCount;
+  }
+
+  /**
+   * ファイルサイズの上限（サイズは 0 以上この値以下で対数的に分布する）
+   */
+  public void setMaxFileSize(int maxFileSize) {
+    this.maxFileSize = maxFileSize;
+  }
+
+  /**
+   * 仕様ごとに異なるディレクトリ名（同じベースディレクトリに複数のツリーを置く場合に使う）
+   */
+  public String directoryName() {
+    return shape.name().toLowerCase(Locale.ROOT) + "-" + entryCount + "-" + seed;
+  }
+
+  /**
+   * ツリーを生成する
+   * 同じ仕様で生成済みであれば何もしない。生成済みの別のツリーは削除して作り直す
+   *
+   * @throws IllegalArgumentException root が生成したツリーではない空でないディレクトリの場合
+   */
+  public Path generate(Path root) throws IOException {
+    String spec = specification();
+    Path marker = root.resolve(MARKER_FILE);
+    if (Files.isRegularFile(marker)) {
+      if (Files.readString(marker).equals(spec)) {
+        return root;
+      }
+      deleteTree(root);
+    } else if (Files.isDirectory(root) && !isEmpty(root)) {
+      // 利用者のファイルを誤って削除しないよう、マーカーのないディレクトリには生成しない
+      throw new IllegalArgumentException("生成先が空ではありません: " + root);
+    }
+
+    Files.createDirectories(root);
+    SplittableRandom random = new SplittableRandom(seed);
+    List<Path> directories = createDirectories(root, random);
+    createFiles(directories, entryCount - (directories.size() - 1), random);
+    Files.writeString(marker, spec);
+    return root;
+  }
+
+  /**
+   * 増分スキャン用にツリーの一部を変更する
+   * 各ファイルを changeRate の確率で選び、半分は内容とサイズを変更し、1/4 は削除し、1/4 は隣に新しいファイルを作る。
+   * 変更後は再利用できないようマーカーを書き換える
+   *
+   * @return 変更したファイル数
+   */
+  public int mutate(Path root, double changeRate, long mutationSeed) throws IOException {
+    Files.writeString(root.resolve(MARKER_FILE), specification() + " mutated");
+    if (changeRate <= 0) {
+      return 0;
+    }
+    List<Path> files = new ArrayList<>();
+    try (Stream<Path> stream = Files.walk(root)) {
+      stream.filter(path -> Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS))
+          .filter(path -> !path.getFileName().toString().equals(MARKER_FILE))
+          .forEach(files::add);
+    }
+    files.sort(null); // 走査順に依存せず同じファイルを選ぶ
+
+    SplittableRandom random = new SplittableRandom(mutationSeed);
+    FileTime now = FileTime.fromMillis(System.currentTimeMillis());
+    int changed = 0;
+    for (Path file : files) {
+      if (random.nextDouble() >= changeRate) {
+        continue;
+      }
+      int action = random.nextInt(4);
+      if (action < 2) {
+        writeFile(file, nextSize(random) + 1, random.nextLong());
+        Files.setLastModifiedTime(file, now);
+      } else if (action == 2) {
+        Files.delete(file);
+      } else {
+        Path added = file.resolveSibling("m" + mutationSeed + "-" + file.getFileName());
+        writeFile(added, nextSize(random), random.nextLong());
+      }
+      changed++;
+    }
+    return changed;
+  }
+
+  private String specification() {
+    return "version=" + MARKER_VERSION + " shape=" + shape + " entries=" + entryCount + " seed=" + seed
+        + " maxFileSize=" + maxFileSize;
+  }
+
+  /**
+   * 形状に応じてディレクトリを作成する（戻り値の先頭はルート）
+   */
+  private List<Path> createDirectories(Path root, SplittableRandom random) throws IOException {
+    int directoryCount = Math.max(1, entryCount / (shape.filesPerDirectory + 1));
+    List<Path> directories = new ArrayList<>(directoryCount + 1);
+    directories.add(root);
+    for (int i = 0; i < directoryCount - 1; i++) {
+      Path parent;
+      switch (shape) {
+        case WIDE:
+          parent = root;
+          break;
+        case DEEP:
+          // 64階層ごとにルートから新しい連なりを始める
+          parent = i % DEEP_LEVELS == 0 ? root : directories.get(directories.size() - 1);
+          break;
+        default:
+          parent = directories.get(random.nextInt(directories.size()));
+      }
+      Path directory = parent.resolve(String.format("d%06d", i));
+      Files.createDirectory(directory);
+      directories.add(directory);
+    }
+    return directories;
+  }
+
+  /**
+   * ファイルをディレクトリに割り当てて作成する
+   * SKEWED では前に作ったディレクトリほど多くのファイルを持つ（重み 1/(i+1)）
+   */
+  private void createFiles(List<Path> directories, int fileCount, SplittableRandom random) throws IOException {
+    double[] cumulative = null;
+    if (shape == Shape.SKEWED) {
+      cumulative = new double[directories.size()];
+      double total = 0;
+      for (int i = 0; i < cumulative.length; i++) {
+        total += 1.0 / (i + 1);
+        cumulative[i] = total;
+      }
+    }
+
+    for (int i = 0; i < fileCount; i++) {
+      Path directory;
+      if (cumulative != null) {
+        int index = Arrays.binarySearch(cumulative, random.nextDouble() * cumulative[cumulative.length - 1]);
+        directory = directories.get(index >= 0 ? index : Math.min(-index - 1, cumulative.length - 1));
+      } else {
+        directory = directories.get(i % directories.size());
+      }
+      String extension = EXTENSIONS[random.nextInt(EXTENSIONS.length)];
+      Path file = directory.resolve(String.format("f%07d.%s", i, extension));
+      writeFile(file, nextSize(random), random.nextLong());
+      Files.setLastModifiedTime(file,
+          FileTime.fromMillis((BASE_EPOCH_SECONDS + random.nextLong(MODIFIED_RANGE_SECONDS)) * 1000));
+    }
+  }
+
+  /**
+   * 0 から maxFileSize まで対数的に分布するサイズ（小さいファイルほど多い）
+   */
+  private int nextSize(SplittableRandom random) {
+    double logMax = Math.log(maxFileSize + 1.0);
+    return (int) Math.min(maxFileSize, Math.exp(random.nextDouble() * logMax) - 1);
+  }
+
+  /**
+   * 先頭に内容を識別する値を書き、残りは疎な領域としてサイズを合わせる
+   */
+  private static void writeFile(Path file, int size, long content) throws IOException {
+    try (RandomAccessFile output = new RandomAccessFile(file.toFile(), "rw")) {
+      byte[] header = Long.toHexString(content).getBytes(StandardCharsets.US_ASCII);
+      output.write(header, 0, Math.min(header.length, size));
+      output.setLength(size);
+    }
+  }
+
+  private static boolean isEmpty(Path directory) throws IOException {
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+      return !stream.iterator().hasNext();
+    }
+  }
+
+  private static void deleteTree(Path root) throws IOException {
+    Files.walkFileTree(root, new SimpleFileVisitor<>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Files.delete(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+        if (exc != null) {
+          throw exc;
+        }
+        if (!dir.equals(root)) {
+          Files.delete(dir);
+        }
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  /**
+   * ベンチマークの外でツリーを用意する
+   * 使い方: {@code SyntheticTreeGenerator <wide|deep|skewed> <エントリ数> <シード> <生成先>}
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length != 4) {
+      System.err.println("使い方: SyntheticTreeGenerator <wide|deep|skewed> <エントリ数> <シード> <生成先>");
+      System.exit(2);
+    }
+    SyntheticTreeGenerator generator = new SyntheticTreeGenerator(
+        Shape.valueOf(args[0].toUpperCase(Locale.ROOT)), Integer.parseInt(args[1]), Long.parseLong(args[2]));
+    long start = System.nanoTime();
+    Path root = generator.generate(Paths.get(args[3]));
+    System.out.printf("%s (%d ms)%n", root, (System.nanoTime() - start) / 1_000_000);
+  }
+
+  /**
+   * ベンチマークがツリーを置くディレクトリ（システムプロパティ lumidisk.bench.dir。既定は一時ディレクトリ配下）
+   * tmpfs を指定すると、ディスクの速度に左右されずにスキャン処理自体を比較できる
+   */
+  public static Path benchmarkDirectory() {
+    String configured = System.getProperty("lumidisk.bench.dir");
+    return configured != null
+        ? Paths.get(configured)
+        : Paths.get(System.getProperty("java.io.tmpdir"), "lumidisk-bench");
+  }
+}
@@ -0,0 +1,100 @@
+package com.example.diskanalyzer.service;
+
+import com.example.diskanalyzer.bench.SyntheticTreeGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * ディレクトリの一覧と属性の取得方法を比較するベンチマーク
+ * スキャナーの並列化やスケジューリングの影響を除くため、1スレッドで全ディレクトリを順に読み込む。
+ * BASIC / UNIX は DirectoryStream＋{@link EntryAttributes#read}、NATIVE は getdents64＋statx（Linux のみ）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"--enable-preview", "--enable-native-access=ALL-UNNAMED"})
+public class AttributeFetchBenchmark {
+  @Param({"WIDE", "SKEWED"})
+  public SyntheticTreeGenerator.Shape shape;
+
+  @Param({"100000"})
+  public int entries;
+
+  @Param({"BASIC", "UNIX", "NATIVE"})
+  public String strategy;
+
+  private List<Path> directories;
+  private NativeDirectoryReader nativeReader;
+
+  @Setup
+  public void setUp() throws IOException {
+    SyntheticTreeGenerator generator = new SyntheticTreeGenerator(shape, entries, 42);
+    Path root = generator.generate(SyntheticTreeGenerator.benchmarkDirectory().resolve(generator.directoryName()));
+    try (Stream<Path> stream = Files.walk(root)) {
+      directories = stream.filter(path -> Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS))
+          .collect(Collectors.toList());
+    }
+    if ("NATIVE".equals(strategy)) {
+      nativeReader = NativeDirectoryReader.load();
+      if (nativeReader == null) {
+        throw new IllegalStateException("getdents64/statx による読み込みはこの環境では使用できません");
+      }
+    }
+  }
+
+  @Benchmark
+  public void listAndStat(Blackhole blackhole) throws IOException {
+    if (nativeReader != null) {
+      for (Path directory : directories) {
+        nativeReader.readDirectory(directory, false, new NativeDirectoryReader.EntryVisitor() {
+          @Override
+          public boolean accept(String name, int type) {
+            return true;
+          }
+
+          @Override
+          public void visit(String name, EntryAttributes attrs) {
+            blackhole.consume(attrs);
+          }
+
+          @Override
+          public void failed(String name, IOException e) {
+            blackhole.consume(e);
+          }
+        });
+      }
+      return;
+    }
+
+    EntryAttributes.Source source = EntryAttributes.Source.valueOf(strategy);
+    for (Path directory : directories) {
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+        for (Path entry : stream) {
+          blackhole.consume(EntryAttributes.read(entry, false, source));
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,247 @@
+package com.example.diskanalyzer.cli;
+
+import com.example.diskanalyzer.model.DuplicateGroup;
+import com.example.diskanalyzer.model.ExclusionRules;
+import com.example.diskanalyzer.model.FileNode;
+import com.example.diskanalyzer.model.ScanOptions;
+import com.example.diskanalyzer.model.ScanResult;
+import com.example.diskanalyzer.service.CancellationToken;
+import com.example.diskanalyzer.service.DigestAlgorithm;
+import com.example.diskanalyzer.service.DuplicateDetectionService;
+import com.example.diskanalyzer.service.ExecutionRuntime;
+import com.example.diskanalyzer.service.ExportService;
+import com.example.diskanalyzer.service.FileScanner;
+import com.example.diskanalyzer.service.IncrementalScanService;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JavaFX を使わずにスキャン・増分スキャン・重複検出・エクスポートを行うコマンドラインのエントリポイント
+ * cron や SSH 経由での実行を想定し、結果は標準出力（--csv / --json 指定時はファイル）へ、ログは標準エラー出力へ書き出す。
+ * Ctrl-C で中断した場合はそれまでの集計を未完了として出力する
+ */
+public class CommandLineApp {
+  private static final int EXIT_OK = 0;
+  private static final int EXIT_ERROR = 1;
+  private static final int EXIT_USAGE = 2;
+  private static final int EXIT_INCOMPLETE = 130; // SIGINT で終了した場合の慣例に合わせる
+  private static final long SHUTDOWN_GRACE_SECONDS = 10; // 中断時に部分結果の出力を待つ時間
+
+  private final CommandLineOptions options;
+  private final PrintStream out;
+  private final PrintStream err;
+  private final CancellationToken cancellation = new CancellationToken();
+
+  CommandLineApp(CommandLineOptions options, PrintStream out, PrintStream err) {
+    this.options = options;
+    this.out = out;
+    this.err = err;
+  }
+
+  public static void main(String[] args) {
+    CommandLineOptions options;
+    try {
+      options = CommandLineOptions.parse(args);
+    } catch (IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      System.err.println(CommandLineOptions.USAGE);
+      System.exit(EXIT_USAGE);
+      return;
+    }
+    if (options.isHelp()) {
+      System.out.println(CommandLineOptions.USAGE);
+      return;
+    }
+
+    // ロガーを初期化する前に、ログの出力先を標準エラー出力に切り替える
+    if (System.getProperty("logback.configurationFile") == null) {
+      System.setProperty("logback.configurationFile", "logback-cli.xml");
+    }
+    if (options.isVerbose()) {
+      System.setProperty("lumidisk.cli.logLevel", "INFO");
+    }
+
+    CommandLineApp app = new CommandLineApp(options, System.out, System.err);
+    System.exit(app.runUntilInterrupted());
+  }
+
+  /**
+   * 実行する。Ctrl-C などで終了を要求された場合は中止を伝え、部分結果を出力し終えるまで終了を待たせる
+   */
+  int runUntilInterrupted() {
+    CountDownLatch finished = new CountDownLatch(1);
+    Thread shutdownHook = new Thread(() -> {
+      cancellation.cancel();
+      try {
+        finished.await(SHUTDOWN_GRACE_SECONDS, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }, "lumidisk-cli-shutdown");
+    Runtime.getRuntime().addShutdownHook(shutdownHook);
+
+    try {
+      return run();
+    } finally {
+      out.flush();
+      finished.countDown();
+    }
+  }
+
+  int run() {
+    ExecutionRuntime runtime = options.getParallelism() > 0
+        ? new ExecutionRuntime(options.getParallelism())
+        : ExecutionRuntime.getDefault();
+    try {
+      ScanResult result;
+      switch (options.getCommand()) {
+        case INCREMENTAL:
+          result = new IncrementalScanService(runtime).incrementalScan(options.getPath(), cancellation);
+          printUsage(result);
+          break;
+        case DUPLICATES:
+          result = new FileScanner(runtime).scan(options.getPath(), createScanOptions(), null, cancellation);
+          if (result.isComplete()) {
+            List<DuplicateGroup> duplicates = createDuplicateService(runtime)
+                .findDuplicates(result.getFiles(), cancellation);
+            printDuplicates(duplicates);
+          }
+          break;
+        case STAMP:
+          result = new FileScanner(runtime).scan(options.getPath(), createScanOptions(), null, cancellation);
+          if (result.isComplete()) {
+            int stamped = createDuplicateService(runtime).stampHashes(result.getFiles(), cancellation);
+            out.printf("%d ファイルのハッシュ値を拡張属性に書き込みました%n", stamped);
+          }
+          break;
+        default:
+          result = new FileScanner(runtime).scan(options.getPath(), createScanOptions(), null, cancellation);
+          printUsage(result);
+      }
+
+      if (!result.isComplete() || cancellation.isCancelled()) {
+        // 中断された場合はファイルへの出力は行わない
+        err.println("中断されました。表示した値は途中までの集計です");
+        return EXIT_INCOMPLETE;
+      }
+      export(result, runtime);
+      return EXIT_OK;
+    } catch (CancellationException e) {
+      err.println("中断されました。出力ファイルは作成していません");
+      return EXIT_INCOMPLETE;
+    } catch (IOException | RuntimeException e) {
+      LoggerFactory.getLogger(CommandLineApp.class).error("コマンドの実行に失敗", e);
+      err.println("エラー: " + e.getMessage());
+      return EXIT_ERROR;
+    } finally {
+      if (runtime != ExecutionRuntime.getDefault()) {
+        runtime.shutdown();
+      }
+    }
+  }
+
+  private ScanOptions createScanOptions() throws IOException {
+    ScanOptions scanOptions = options.toScanOptions();
+    if (options.getExclusionFile() != null) {
+      scanOptions.setExclusionRules(ExclusionRules.load(options.getExclusionFile()));
+    }
+    return scanOptions;
+  }
+
+  /**
+   * ルート直下のエントリをサイズ順に表示し、最後に合計を表示する（du と同様の形式）
+   */
+  private void printUsage(ScanResult result) {
+    FileNode rootNode = result.getRootNode();
+    if (rootNode != null) {
+      List<FileNode> children = new ArrayList<>(result.getChildren(rootNode));
+      children.sort((a, b) -> Long.compare(b.getSize(), a.getSize()));
+      int limit = options.getTop() > 0 ? Math.min(options.getTop(), children.size()) : children.size();
+      for (int i = 0; i < limit; i++) {
+        FileNode child = children.get(i);
+        out.println(formatSize(child.getSize()) + "\t" + child.getPath());
+      }
+    }
+    out.println(formatSize(result.getTotalSize()) + "\t" + options.getPath());
+    out.println(String.format("%s%d ファイル, %d ディレクトリ, 所要時間: %s",
+        result.isComplete() ? "" : "【未完了】",
+        result.getTotalFiles(),
+        result.getTotalDirectories(),
+        result.getFormattedScanDuration()));
+  }
+
+  /**
+   * 重複グループを無駄な容量の大きい順に表示する
+   */
+  private DuplicateDetectionService createDuplicateService(ExecutionRuntime runtime) {
+    DuplicateDetectionService duplicateService = new DuplicateDetectionService(runtime);
+    duplicateService.setDigestAlgorithm(options.getDigestAlgorithm());
+    duplicateService.setReadBackend(options.getReadBackend());
+    duplicateService.setExtendedAttributesEnabled(options.isExtendedAttributesEnabled());
+    if (!options.isHashCacheEnabled()) {
+      duplicateService.setHashCache(null);
+    }
+    if (options.isVerifyDuplicates()) {
+      duplicateService.setConfirmationAlgorithm(DigestAlgorithm.SHA256);
+    }
+    return duplicateService;
+  }
+
+  private void printDuplicates(List<DuplicateGroup> duplicates) {
+    int limit = options.getTop() > 0 ? Math.min(options.getTop(), duplicates.size()) : duplicates.size();
+    long wastedTotal = 0;
+    for (DuplicateGroup group : duplicates) {
+      wastedTotal += group.getWastedSpace();
+    }
+    for (int i = 0; i < limit; i++) {
+      DuplicateGroup group = duplicates.get(i);
+      out.println(String.format("%s\t%d x %s\t%s",
+          formatSize(group.getWastedSpace()),
+          group.getDuplicateCount(),
+          formatSize(group.getFileSize()),
+          group.getHash()));
+      for (FileNode file : group.getFiles()) {
+        out.println("  " + file.getPath());
+      }
+    }
+    out.println(String.format("%s重複グループ: %d, 削減できる容量: %s",
+        cancellation.isCancelled() ? "【未完了】" : "",
+        duplicates.size(),
+        formatSize(wastedTotal)));
+  }
+
+  private void export(ScanResult result, ExecutionRuntime runtime) throws IOException {
+    if (options.getCsvOutput() == null && options.getJsonOutput() == null) {
+      return;
+    }
+    ExportService exportService = new ExportService(runtime);
+    if (options.getCsvOutput() != null) {
+      exportService.exportToCsv(result, options.getCsvOutput(), cancellation);
+    }
+    if (options.getJsonOutput() != null) {
+      exportService.exportToJson(result, options.getJsonOutput(), cancellation);
+    }
+  }
+
+  private String formatSize(long bytes) {
+    if (options.isRawBytes()) {
+      return Long.toString(bytes);
+    }
+    if (bytes < 1024) {
+      return bytes + " B";
+    } else if (bytes < 1024 * 1024) {
+      return String.format("%.1f KB", bytes / 1024.0);
+    } else if (bytes < 1024 * 1024 * 1024) {
+      return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+    } else {
+      return String.format("%.1f GB", bytes / (1024.0 * 1024.0 * 1024.0));
+    }
+  }
+}
@@ -0,0 +1,312 @@
+package com.example.diskanalyzer.cli;
+
+import com.example.diskanalyzer.model.ScanOptions;
+import com.example.diskanalyzer.service.DigestAlgorithm;
+import com.example.diskanalyzer.service.ReadBackend;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+
+/**
+ * コマンドライン引数の解析結果
+ * 書式: {@code lumidisk-cli <scan|incremental|duplicates|stamp> [オプション] <パス>}
+ */
+class CommandLineOptions {
+  static final String USAGE = String.join("\n",
+      "使い方: lumidisk-cli <コマンド> [オプション] <パス>",
+      "",
+      "コマンド:",
+      "  scan          パス配下をスキャンし、直下のエントリをサイズ順に表示する",
+      "  incremental   前回のスナップショットとの差分だけを再スキャンする",
+      "  duplicates    スキャンした後、重複ファイルを検出して表示する",
+      "  stamp         スキャンした後、全ファイルのハッシュ値を拡張属性に書き込む",
+      "",
+      "オプション:",
+      "  --top <N>              表示する件数（既定 20、0 で全件）",
+      "  --bytes                サイズをバイト数で表示する",
+      "  --depth <N>            走査する最大の深さ（ルートが 0）",
+      "  --exclude-from <file>  .gitignore 形式の除外ルールを読み込む",
+      "  --mounts <same|cross|skip-pseudo>",
+      "                         マウントポイントの扱い（既定 skip-pseudo）",
+      "  --follow-links         シンボリックリンクを辿る",
+      "  --checkpoint           中断しても続きから再開できるよう途中経過を保存する",
+      "  --no-native            getdents64/statx による読み込みを使わない",
+      "  --parallelism <N>      並列度（既定は CPU 数）",
+      "  --hash <xxh64|sha256>  重複検出のハッシュ関数（既定 xxh64）",
+      "  --verify               重複と判定したファイルを SHA-256 で読み直して確認する",
+      "  --read <auto|channel|mmap|async>",
+      "                         重複検出でファイルを読み込む方法（既定 auto）",
+      "  --no-hash-cache        ハッシュキャッシュ（~/.lumidisk/hashes.db）を使わない",
+      "  --xattr                ハッシュ値を拡張属性（user.lumidisk.*）からも読み込み、書き込む",
+      "  --csv <file>           結果を CSV 形式でファイルに出力する",
+      "  --json <file>          結果を JSON 形式でファイルに出力する",
+      "  --verbose              ログを標準エラー出力に表示する",
+      "  --help                 この説明を表示する");
+
+  /**
+   * 実行するコマンド
+   */
+  enum Command {
+    SCAN,
+    INCREMENTAL,
+    DUPLICATES,
+    STAMP
+  }
+
+  private Command command;
+  private Path path;
+  private int top = 20;
+  private boolean rawBytes;
+  private int maxDepth = Integer.MAX_VALUE;
+  private Path exclusionFile;
+  private ScanOptions.MountPolicy mountPolicy = ScanOptions.MountPolicy.SKIP_PSEUDO;
+  private boolean followLinks;
+  private boolean checkpointEnabled;
+  private boolean nativeReaderEnabled = true;
+  private int parallelism; // 0 の場合は共有ランタイムを使う
+  private DigestAlgorithm digestAlgorithm = DigestAlgorithm.XXH64;
+  private boolean verifyDuplicates;
+  private ReadBackend readBackend = ReadBackend.AUTO;
+  private boolean hashCacheEnabled = true;
+  private boolean extendedAttributesEnabled;
+  private Path csvOutput;
+  private Path jsonOutput;
+  private boolean verbose;
+  private boolean help;
+
+  /**
+   * 引数を解析する
+   *
+   * @throws IllegalArgumentException 引数が不正な場合
+   */
+  static CommandLineOptions parse(String[] args) {
+    CommandLineOptions options = new CommandLineOptions();
+    for (int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      switch (arg) {
+        case "--help":
+        case "-h":
+          options.help = true;
+          return options;
+        case "--top":
+          options.top = parseCount(arg, valueOf(args, ++i, arg));
+          break;
+        case "--bytes":
+          options.rawBytes = true;
+          break;
+        case "--depth":
+          options.maxDepth = parseCount(arg, valueOf(args, ++i, arg));
+          break;
+        case "--exclude-from":
+          options.exclusionFile = Paths.get(valueOf(args, ++i, arg));
+          break;
+        case "--mounts":
+          options.mountPolicy = parseMountPolicy(valueOf(args, ++i, arg));
+          break;
+        case "--follow-links":
+          options.followLinks = true;
+          break;
+        case "--checkpoint":
+          options.checkpointEnabled = true;
+          break;
+        case "--no-native":
+          options.nativeReaderEnabled = false;
+          break;
+        case "--parallelism":
+          options.parallelism = parseCount(arg, valueOf(args, ++i, arg));
+          break;
+        case "--hash":
+          options.digestAlgorithm = parseDigestAlgorithm(valueOf(args, ++i, arg));
+          break;
+        case "--verify":
+          options.verifyDuplicates = true;
+          break;
+        case "--read":
+          options.readBackend = parseReadBackend(valueOf(args, ++i, arg));
+          break;
+        case "--no-hash-cache":
+          options.hashCacheEnabled = false;
+          break;
+        case "--xattr":
+          options.extendedAttributesEnabled = true;
+          break;
+        case "--csv":
+          options.csvOutput = Paths.get(valueOf(args, ++i, arg));
+          break;
+        case "--json":
+          options.jsonOutput = Paths.get(valueOf(args, ++i, arg));
+          break;
+        case "--verbose":
+        case "-v":
+          options.verbose = true;
+          break;
+        default:
+          if (arg.startsWith("-")) {
+            throw new IllegalArgumentException("不明なオプション: " + arg);
+          }
+          if (options.command == null) {
+            options.command = parseCommand(arg);
+          } else if (options.path == null) {
+            options.path = Paths.get(arg);
+          } else {
+            throw new IllegalArgumentException("パスは1つだけ指定してください: " + arg);
+          }
+      }
+    }
+
+    if (options.command == null) {
+      throw new IllegalArgumentException("コマンドを指定してください");
+    }
+    if (options.path == null) {
+      throw new IllegalArgumentException("スキャンするパスを指定してください");
+    }
+    return options;
+  }
+
+  private static String valueOf(String[] args, int index, String option) {
+    if (index >= args.length) {
+      throw new IllegalArgumentException(option + " には値が必要です");
+    }
+    return args[index];
+  }
+
+  private static int parseCount(String option, String value) {
+    try {
+      int count = Integer.parseInt(value);
+      if (count < 0) {
+        throw new IllegalArgumentException(option + " には0以上の数を指定してください: " + value);
+      }
+      return count;
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(option + " には数を指定してください: " + value);
+    }
+  }
+
+  private static Command parseCommand(String value) {
+    switch (value) {
+      case "scan":
+        return Command.SCAN;
+      case "incremental":
+        return Command.INCREMENTAL;
+      case "duplicates":
+        return Command.DUPLICATES;
+      case "stamp":
+        return Command.STAMP;
+      default:
+        throw new IllegalArgumentException("不明なコマンド: " + value);
+    }
+  }
+
+  private static ScanOptions.MountPolicy parseMountPolicy(String value) {
+    switch (value.toLowerCase(Locale.ROOT)) {
+      case "same":
+        return ScanOptions.MountPolicy.SAME_FILESYSTEM;
+      case "cross":
+        return ScanOptions.MountPolicy.CROSS;
+      case "skip-pseudo":
+        return ScanOptions.MountPolicy.SKIP_PSEUDO;
+      default:
+        throw new IllegalArgumentException("--mounts には same / cross / skip-pseudo を指定してください: " + value);
+    }
+  }
+
+  private static DigestAlgorithm parseDigestAlgorithm(String value) {
+    switch (value.toLowerCase(Locale.ROOT)) {
+      case "xxh64":
+        return DigestAlgorithm.XXH64;
+      case "sha256":
+        return DigestAlgorithm.SHA256;
+      default:
+        throw new IllegalArgumentException("--hash には xxh64 / sha256 を指定してください: " + value);
+    }
+  }
+
+  private static ReadBackend parseReadBackend(String value) {
+    switch (value.toLowerCase(Locale.ROOT)) {
+      case "auto":
+        return ReadBackend.AUTO;
+      case "channel":
+        return ReadBackend.CHANNEL;
+      case "mmap":
+        return ReadBackend.MAPPED;
+      case "async":
+        return ReadBackend.ASYNC;
+      default:
+        throw new IllegalArgumentException("--read には auto / channel / mmap / async を指定してください: " + value);
+    }
+  }
+
+  /**
+   * スキャンのオプションに変換する
+   */
+  ScanOptions toScanOptions() {
+    ScanOptions scanOptions = new ScanOptions();
+    scanOptions.setMaxDepth(maxDepth);
+    scanOptions.setMountPolicy(mountPolicy);
+    scanOptions.setFollowLinks(followLinks);
+    scanOptions.setCheckpointEnabled(checkpointEnabled);
+    scanOptions.setNativeReaderEnabled(nativeReaderEnabled);
+    return scanOptions;
+  }
+
+  Command getCommand() {
+    return command;
+  }
+
+  Path getPath() {
+    return path;
+  }
+
+  int getTop() {
+    return top;
+  }
+
+  boolean isRawBytes() {
+    return rawBytes;
+  }
+
+  Path getExclusionFile() {
+    return exclusionFile;
+  }
+
+  int getParallelism() {
+    return parallelism;
+  }
+
+  DigestAlgorithm getDigestAlgorithm() {
+    return digestAlgorithm;
+  }
+
+  boolean isVerifyDuplicates() {
+    return verifyDuplicates;
+  }
+
+  ReadBackend getReadBackend() {
+    return readBackend;
+  }
+
+  boolean isHashCacheEnabled() {
+    return hashCacheEnabled;
+  }
+
+  boolean isExtendedAttributesEnabled() {
+    return extendedAttributesEnabled;
+  }
+
+  Path getCsvOutput() {
+    return csvOutput;
+  }
+
+  Path getJsonOutput() {
+    return jsonOutput;
+  }
+
+  boolean isVerbose() {
+    return verbose;
+  }
+
+  boolean isHelp() {
+    return help;
+  }
+}
@@ -4,6 +4,7 @@ import com.example.diskanalyzer.model.FileNode;
 import com.example.diskanalyzer.model.ScanResult;
 import com.example.diskanalyzer.model.DuplicateGroup;
 import com.example.diskanalyzer.model.TreeNode;
+import com.example.diskanalyzer.service.CancellationToken;
 import com.example.diskanalyzer.service.ExportService;
 import com.example.diskanalyzer.service.FileDeleteService;
 import com.example.diskanalyzer.service.FileManagerService;
@@ -46,6 +47,8 @@ public class MainController implements Initializable {
   @FXML
   private Button scanButton;
   @FXML
+  private Button cancelButton;
+  @FXML
   private Button showInFinderButton;
   @FXML
   private Button deleteButton;
@@ -93,6 +96,7 @@ public class MainController implements Initializable {
   private final IncrementalScanService incrementalService = new IncrementalScanService();
   private final VisualizationService visualizationService = new VisualizationService();
   private VirtualizedTableController virtualizedTableController;
+  private Task<?> runningTask; // キャンセルボタンで中止するバックグラウンド処理
 
   @Override
   public void initialize(URL location, ResourceBundle resources) {
@@ -138,6 +142,7 @@ public class MainController implements Initializable {
 
     // 初期状態の設定
     scanButton.setDisable(true);
+    cancelButton.setDisable(true);
     exportCsvButton.setDisable(true);
     exportJsonButton.setDisable(true);
     findDuplicatesButton.setDisable(true);
@@ -189,19 +194,78 @@ public class MainController implements Initializable {
     scanTask.setOnSucceeded(this::handleScanSucceeded);
     scanTask.setOnFailed(this::handleScanFailed);
     scanTask.setOnCancelled(this::handleScanCancelled);
+    scanTask.incompleteResultProperty().addListener((obs, oldResult, result) -> {
+      if (result != null) {
+        showIncompleteScanResult(result);
+      }
+    });
 
     progressBar.progressProperty().bind(scanTask.progressProperty());
     statusLabel.textProperty().bind(scanTask.messageProperty());
 
+    // スキャン中は途中結果をそのままテーブルに表示し、完了後に仮想化テーブルへ切り替える
+    fileTable.setItems(scanTask.getPartialResults());
+    virtualizedTableController = null;
+
+    startCancellable(scanTask);
     Thread scanThread = new Thread(scanTask);
     scanThread.setDaemon(true);
     scanThread.start();
   }
 
+  /**
+   * 実行中のスキャン・増分スキャン・重複検出を中止する
+   * 各処理は途中までの結果を返して終了する
+   */
+  @FXML
+  private void handleCancel(ActionEvent event) {
+    if (runningTask != null && runningTask.isRunning()) {
+      logger.info("処理の中止を要求");
+      runningTask.cancel();
+    }
+    cancelButton.setDisable(true);
+  }
+
+  private void startCancellable(Task<?> task) {
+    runningTask = task;
+    cancelButton.setDisable(false);
+  }
+
+  private void finishCancellable(Task<?> task) {
+    if (runningTask == task) {
+      runningTask = null;
+      cancelButton.setDisable(true);
+    }
+  }
+
+  /**
+   * 中止したスキャンの途中までの結果を表示する
+   */
+  private void showIncompleteScanResult(ScanResult result) {
+    currentScanResult = result;
+    updateUI();
+
+    exportCsvButton.setDisable(false);
+    exportJsonButton.setDisable(false);
+    findDuplicatesButton.setDisable(false);
+    treeMapButton.setDisable(false);
+    extensionStatsButton.setDisable(false);
+
+    statusLabel.textProperty().unbind();
+    statusLabel.setText("スキャンを中断しました（途中までの結果を表示しています）");
+    scanInfoLabel.setText(String.format(
+        "【未完了】ファイル: %d件, ディレクトリ: %d件, 総サイズ: %s, 所要時間: %s",
+        result.getTotalFiles(),
+        result.getTotalDirectories(),
+        result.getFormattedTotalSize(),
+        result.getFormattedScanDuration()));
+  }
+
   private void handleScanSucceeded(WorkerStateEvent event) {
     logger.info("スキャン成功");
 
     Platform.runLater(() -> {
+      finishCancellable((Task<?>) event.getSource());
       currentScanResult = (ScanResult) event.getSource().getValue();
       updateUI();
 
@@ -217,10 +281,13 @@ public class MainController implements Initializable {
       statusLabel.textProperty().unbind();
       statusLabel.setText("スキャン完了");
       scanInfoLabel.setText(String.format(
-          "ファイル: %d件, ディレクトリ: %d件, 総サイズ: %s, 所要時間: %s",
+          "ファイル: %d件, ディレクトリ: %d件, 総サイズ: %s%s, 所要時間: %s",
           currentScanResult.getTotalFiles(),
           currentScanResult.getTotalDirectories(),
           currentScanResult.getFormattedTotalSize(),
+          currentScanResult.getApparentSize() != currentScanResult.getTotalSize()
+              ? "（ハードリンク重複込み: " + currentScanResult.getFormattedApparentSize() + "）"
+              : "",
           currentScanResult.getFormattedScanDuration()));
     });
   }
@@ -229,6 +296,7 @@ public class MainController implements Initializable {
     logger.error("スキャン失敗", event.getSource().getException());
 
     Platform.runLater(() -> {
+      finishCancellable((Task<?>) event.getSource());
       scanButton.setDisable(false);
       progressBar.setVisible(false);
       statusLabel.textProperty().unbind();
@@ -240,6 +308,7 @@ public class MainController implements Initializable {
     logger.info("スキャンキャンセル");
 
     Platform.runLater(() -> {
+      finishCancellable((Task<?>) event.getSource());
       scanButton.setDisable(false);
       progressBar.setVisible(false);
       statusLabel.textProperty().unbind();
@@ -268,13 +337,17 @@ public class MainController implements Initializable {
       return;
     }
 
-    List<FileNode> files = currentScanResult.getFiles();
     ObservableList<PieChart.Data> pieChartData = FXCollections.observableArrayList();
 
     // 表示件数を取得
     int displayCount = getDisplayCount();
 
-    // ファイルとディレクトリの両方を対象に、サイズ順でソート
+    // ルート直下のファイルとディレクトリを対象に、サイズ順でソート
+    // ディレクトリのサイズは配下の合計なので、深い階層まで含めると二重に数えてしまう
+    FileNode rootNode = currentScanResult.getRootNode();
+    List<FileNode> files = rootNode != null
+        ? currentScanResult.getChildren(rootNode)
+        : currentScanResult.getFiles().stream().filter(file -> !file.isDirectory()).toList();
     var sortedFiles = files.stream()
         .filter(file -> file.getSize() > 0) // サイズが0より大きいもののみ
         .sorted((a, b) -> Long.compare(b.getSize(), a.getSize()))
@@ -545,17 +618,38 @@ public class MainController implements Initializable {
     findDuplicatesButton.setDisable(true);
 
     // バックグラウンドで重複検出を実行
+    CancellationToken cancellation = new CancellationToken();
     Task<List<DuplicateGroup>> duplicateTask = new Task<List<DuplicateGroup>>() {
       @Override
       protected List<DuplicateGroup> call() throws Exception {
         updateMessage("重複ファイルを検出中...");
-        return duplicateService.findDuplicates(currentScanResult.getFiles());
+        List<DuplicateGroup> duplicates = duplicateService.findDuplicates(currentScanResult.getFiles(),
+            cancellation);
+        if (cancellation.isCancelled()) {
+          // キャンセル後は結果が通知されないため、ハッシュ計算済みの分をここで表示する
+          Platform.runLater(() -> {
+            statusLabel.setText("重複ファイル検出を中断しました: " + duplicates.size() + " グループ（途中まで）");
+            showDuplicateDialog(duplicates);
+          });
+        }
+        return duplicates;
+      }
+
+      /**
+       * 中止は CancellationToken で伝え、スレッドには割り込まない
+       * 割り込むと読み込み中の FileChannel が閉じられ、ファイルごとの読み込みエラーとして記録される
+       */
+      @Override
+      public boolean cancel(boolean mayInterruptIfRunning) {
+        cancellation.cancel();
+        return super.cancel(false);
       }
     };
 
     duplicateTask.setOnSucceeded(e -> {
       List<DuplicateGroup> duplicates = duplicateTask.getValue();
       Platform.runLater(() -> {
+        finishCancellable(duplicateTask);
         findDuplicatesButton.setDisable(false);
         statusLabel.setText("重複ファイル検出完了: " + duplicates.size() + " グループ");
 
@@ -566,12 +660,19 @@ public class MainController implements Initializable {
 
     duplicateTask.setOnFailed(e -> {
       Platform.runLater(() -> {
+        finishCancellable(duplicateTask);
         findDuplicatesButton.setDisable(false);
         statusLabel.setText("重複ファイル検出エラー: " + duplicateTask.getException().getMessage());
         logger.error("重複ファイル検出エラー", duplicateTask.getException());
       });
     });
 
+    duplicateTask.setOnCancelled(e -> {
+      finishCancellable(duplicateTask);
+      findDuplicatesButton.setDisable(false);
+    });
+
+    startCancellable(duplicateTask);
     Thread duplicateThread = new Thread(duplicateTask);
     duplicateThread.setDaemon(true);
     duplicateThread.start();
@@ -590,17 +691,30 @@ public class MainController implements Initializable {
     statusLabel.setText("増分スキャン中...");
     incrementalScanButton.setDisable(true);
 
+    CancellationToken cancellation = new CancellationToken();
     Task<ScanResult> incrementalTask = new Task<ScanResult>() {
       @Override
       protected ScanResult call() throws Exception {
         updateMessage("増分スキャン中...");
-        return incrementalService.incrementalScan(selectedPath);
+        ScanResult result = incrementalService.incrementalScan(selectedPath, cancellation);
+        if (!result.isComplete()) {
+          Platform.runLater(() -> showIncompleteScanResult(result));
+        }
+        return result;
+      }
+
+      // 中止は CancellationToken で伝え、スレッドには割り込まない（重複検出と同じ）
+      @Override
+      public boolean cancel(boolean mayInterruptIfRunning) {
+        cancellation.cancel();
+        return super.cancel(false);
       }
     };
 
     incrementalTask.setOnSucceeded(e -> {
       ScanResult result = incrementalTask.getValue();
       Platform.runLater(() -> {
+        finishCancellable(incrementalTask);
         currentScanResult = result;
         updateUI();
         incrementalScanButton.setDisable(false);
@@ -616,12 +730,19 @@ public class MainController implements Initializable {
 
     incrementalTask.setOnFailed(e -> {
       Platform.runLater(() -> {
+        finishCancellable(incrementalTask);
         incrementalScanButton.setDisable(false);
         statusLabel.setText("増分スキャンエラー: " + incrementalTask.getException().getMessage());
         logger.error("増分スキャンエラー", incrementalTask.getException());
       });
     });
 
+    incrementalTask.setOnCancelled(e -> {
+      finishCancellable(incrementalTask);
+      incrementalScanButton.setDisable(false);
+    });
+
+    startCancellable(incrementalTask);
     Thread incrementalThread = new Thread(incrementalTask);
     incrementalThread.setDaemon(true);
     incrementalThread.start();
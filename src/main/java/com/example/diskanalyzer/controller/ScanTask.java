@@ -1,36 +1,89 @@
 package com.example.diskanalyzer.controller;
 
+import com.example.diskanalyzer.model.ExclusionRules;
+import com.example.diskanalyzer.model.FileNode;
+import com.example.diskanalyzer.model.ScanOptions;
+import com.example.diskanalyzer.model.ScanProgress;
 import com.example.diskanalyzer.model.ScanResult;
+import com.example.diskanalyzer.service.CancellationToken;
 import com.example.diskanalyzer.service.FileScanner;
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyObjectProperty;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
 import javafx.concurrent.Task;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * バックグラウンドでファイルスキャンを実行するJavaFX Task
+ * スキャン途中のエントリを部分結果として逐次公開する。
+ * キャンセルされた場合はスキャナーに中止を伝え、それまでの集計値を持つ未完了の結果を
+ * {@link #incompleteResultProperty()} で公開する
  */
 public class ScanTask extends Task<ScanResult> {
   private static final Logger logger = LoggerFactory.getLogger(ScanTask.class);
+  private static final int PARTIAL_RESULT_LIMIT = 10000; // 途中経過として表示する最大件数
+  private static final String EXCLUSIONS_FILE = "exclusions";
 
   private final Path rootPath;
   private final FileScanner fileScanner;
+  private final ObservableList<FileNode> partialResults = FXCollections.observableArrayList();
+  private final ConcurrentLinkedQueue<List<FileNode>> pendingBatches = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+  private final CancellationToken cancellation = new CancellationToken();
+  private final ReadOnlyObjectWrapper<ScanResult> incompleteResult = new ReadOnlyObjectWrapper<>(this,
+      "incompleteResult");
 
   public ScanTask(Path rootPath) {
     this.rootPath = rootPath;
     this.fileScanner = new FileScanner();
   }
 
+  /**
+   * スキャン途中で見つかったエントリの一覧を取得する（FXスレッドで更新される）
+   */
+  public ObservableList<FileNode> getPartialResults() {
+    return partialResults;
+  }
+
+  /**
+   * キャンセルにより途中で打ち切ったスキャンの結果（FXスレッドで設定される。完了した場合はnullのまま）
+   */
+  public ReadOnlyObjectProperty<ScanResult> incompleteResultProperty() {
+    return incompleteResult.getReadOnlyProperty();
+  }
+
   @Override
   protected ScanResult call() throws Exception {
     logger.info("スキャンタスク開始: {}", rootPath);
 
     try {
       updateMessage("スキャン中...");
-      updateProgress(0, 1);
+      updateProgress(-1, 1);
 
-      ScanResult result = fileScanner.scan(rootPath);
+      // 大規模ボリュームの長時間スキャンに備え、中断されても続きから再開できるようにする
+      ScanOptions options = new ScanOptions();
+      options.setCheckpointEnabled(true);
+      options.setExclusionRules(loadExclusionRules());
+      options.setNativeReaderEnabled(true);
+      ScanResult result = fileScanner.scan(rootPath, options, this::handleBatch, cancellation);
+      if (!result.isComplete()) {
+        logger.info("スキャンを中断しました: {} ファイル, {} ディレクトリまで走査済み",
+            result.getTotalFiles(), result.getTotalDirectories());
+        Platform.runLater(() -> incompleteResult.set(result));
+        return result;
+      }
 
       updateMessage("スキャン完了");
       updateProgress(1, 1);
@@ -47,6 +100,54 @@ public class ScanTask extends Task<ScanResult> {
     }
   }
 
+  /**
+   * ~/.lumidisk/exclusions（.gitignore 形式）があれば除外ルールとして読み込む
+   */
+  private ExclusionRules loadExclusionRules() {
+    Path file = Paths.get(System.getProperty("user.home"), ".lumidisk", EXCLUSIONS_FILE);
+    if (!Files.exists(file)) {
+      return ExclusionRules.none();
+    }
+    try {
+      return ExclusionRules.load(file);
+    } catch (IOException e) {
+      logger.warn("除外ルールの読み込みに失敗: {}", file, e);
+      return ExclusionRules.none();
+    }
+  }
+
+  /**
+   * スキャナーからのバッチ通知を処理する
+   */
+  private void handleBatch(List<FileNode> batch, ScanProgress progress) {
+    updateMessage(String.format("スキャン中... ファイル: %d件, ディレクトリ: %d件, %s (%s)",
+        progress.getTotalFiles(),
+        progress.getTotalDirectories(),
+        progress.getFormattedTotalSize(),
+        progress.getCurrentDirectory()));
+
+    pendingBatches.add(batch);
+    // FXスレッドへの反映はまとめて1回にする
+    if (drainScheduled.compareAndSet(false, true)) {
+      Platform.runLater(this::drainPendingBatches);
+    }
+  }
+
+  private void drainPendingBatches() {
+    drainScheduled.set(false);
+    List<FileNode> additions = new ArrayList<>();
+    List<FileNode> batch;
+    while ((batch = pendingBatches.poll()) != null) {
+      int remaining = PARTIAL_RESULT_LIMIT - partialResults.size() - additions.size();
+      if (remaining > 0) {
+        additions.addAll(batch.size() <= remaining ? batch : batch.subList(0, remaining));
+      }
+    }
+    if (!additions.isEmpty()) {
+      partialResults.addAll(additions);
+    }
+  }
+
   @Override
   protected void succeeded() {
     logger.info("スキャンタスクが正常に完了しました");
@@ -57,6 +158,16 @@ public class ScanTask extends Task<ScanResult> {
     logger.error("スキャンタスクが失敗しました", getException());
   }
 
+  /**
+   * スキャンの中止は CancellationToken で伝え、スレッドには割り込まない
+   * 割り込むと、中止後に行うチェックポイントの書き込み（FileChannel）が閉じられ、直前の途中経過が失われる
+   */
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    cancellation.cancel();
+    return super.cancel(false);
+  }
+
   @Override
   protected void cancelled() {
     logger.info("スキャンタスクがキャンセルされました");
@@ -25,7 +25,7 @@ public class VirtualizedTableController {
 
   private final TableView<FileNode> table;
   private final ObservableList<FileNode> displayedItems;
-  private final List<FileNode> allItems;
+  private List<FileNode> allItems;
 
   private int currentPage = 0;
   private int totalPages = 0;
@@ -186,9 +186,8 @@ public class VirtualizedTableController {
     // 現在の選択を保持
     FileNode selectedItem = table.getSelectionModel().getSelectedItem();
 
-    // データを更新
-    allItems.clear();
-    allItems.addAll(newItems);
+    // データを更新（列指向ストアのビューは追加できないため、参照を差し替える）
+    allItems = newItems;
 
     calculateTotalPages();
 
@@ -0,0 +1,93 @@
+package com.example.diskanalyzer.model;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+
+/**
+ * ColumnarScanStore の全エントリを FileNode のリストとして見せるビュー
+ * 要素の削除・並べ替えに対応するため、必要になった時点でIDの並びを別途保持する
+ */
+class ColumnarFileList extends AbstractList<FileNode> {
+  private final ColumnarScanStore store;
+  private int[] ids; // null の間はストアのID順そのまま
+  private int size;
+
+  ColumnarFileList(ColumnarScanStore store) {
+    this.store = store;
+  }
+
+  @Override
+  public FileNode get(int index) {
+    if (index < 0 || index >= size()) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+    }
+    return store.getNode(ids == null ? index : ids[index]);
+  }
+
+  @Override
+  public int size() {
+    return ids == null ? store.size() : size;
+  }
+
+  @Override
+  public FileNode set(int index, FileNode element) {
+    int id = idOf(element);
+    if (id < 0) {
+      throw new IllegalArgumentException("element does not belong to this store: " + element);
+    }
+    FileNode previous = get(index);
+    materializeIds();
+    ids[index] = id;
+    return previous;
+  }
+
+  @Override
+  public FileNode remove(int index) {
+    FileNode removed = get(index);
+    materializeIds();
+    System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+    size--;
+    modCount++;
+    return removed;
+  }
+
+  @Override
+  public int indexOf(Object o) {
+    int id = idOf(o);
+    if (id < 0) {
+      return -1;
+    }
+    if (ids == null) {
+      return id < store.size() ? id : -1;
+    }
+    for (int i = 0; i < size; i++) {
+      if (ids[i] == id) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    return indexOf(o) >= 0;
+  }
+
+  private int idOf(Object o) {
+    if (o instanceof ColumnarFileNode) {
+      ColumnarFileNode node = (ColumnarFileNode) o;
+      if (node.getStore() == store) {
+        return node.getId();
+      }
+    }
+    return -1;
+  }
+
+  private void materializeIds() {
+    if (ids == null) {
+      size = store.size();
+      ids = new int[size];
+      Arrays.setAll(ids, i -> i);
+    }
+  }
+}
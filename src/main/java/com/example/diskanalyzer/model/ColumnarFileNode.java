@@ -0,0 +1,108 @@
+package com.example.diskanalyzer.model;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+/**
+ * ColumnarScanStore の1エントリを FileNode として参照するフライウェイト
+ * 値は保持せず、すべてストアの列から読み出す
+ */
+class ColumnarFileNode extends FileNode {
+  private final ColumnarScanStore store;
+  private final int id;
+
+  ColumnarFileNode(ColumnarScanStore store, int id) {
+    this.store = store;
+    this.id = id;
+  }
+
+  int getId() {
+    return id;
+  }
+
+  ColumnarScanStore getStore() {
+    return store;
+  }
+
+  @Override
+  public Path getPath() {
+    return store.getPath(id);
+  }
+
+  @Override
+  public long getSize() {
+    return store.getSize(id);
+  }
+
+  @Override
+  public FileTime getModified() {
+    return store.getModified(id);
+  }
+
+  @Override
+  public long getFileCount() {
+    return store.getFileCount(id);
+  }
+
+  @Override
+  public FileTime getNewestModified() {
+    return store.getNewestModified(id);
+  }
+
+  @Override
+  public boolean isDirectory() {
+    return store.isDirectory(id);
+  }
+
+  @Override
+  public boolean isHidden() {
+    return store.isHidden(id);
+  }
+
+  @Override
+  public String getExtension() {
+    return store.getExtension(id);
+  }
+
+  @Override
+  public byte[] getDigest() {
+    return store.getDigest(id);
+  }
+
+  @Override
+  public void setDigest(byte[] digest) {
+    store.setDigest(id, digest);
+  }
+
+  @Override
+  public long[] getLink() {
+    return store.getLink(id);
+  }
+
+  @Override
+  public void setLink(long[] link) {
+    store.setLink(id, link);
+  }
+
+  @Override
+  public String getName() {
+    return store.getName(id);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof ColumnarFileNode)) {
+      return false;
+    }
+    ColumnarFileNode other = (ColumnarFileNode) o;
+    return store == other.store && id == other.id;
+  }
+
+  @Override
+  public int hashCode() {
+    return System.identityHashCode(store) * 31 + id;
+  }
+}
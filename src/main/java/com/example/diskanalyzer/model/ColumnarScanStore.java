@@ -0,0 +1,435 @@
+package com.example.diskanalyzer.model;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * スキャン結果をプリミティブ配列の列として保持するストア
+ * 1エントリあたり約30バイト＋名前（共有プール）で済むため、数千万件規模のスキャンでもヒープに収まる。
+ * 各列はチャンク単位で確保し、エントリの追加は複数スレッドから同時に行える。
+ * FileNode としてのアクセスには {@link #getNode(int)} / {@link #asList()} が返すビューを使う。
+ * エントリは「親ID＋名前」で表し、フルパスは必要になった時点で組み立てる。
+ * 親は必ず子より先に追加するため、親のIDは常に子のIDより小さい
+ */
+public class ColumnarScanStore {
+  public static final int NO_PARENT = -1;
+
+  private static final int CHUNK_BITS = 16;
+  private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+  private static final int MAX_CHUNKS = 1 << (31 - CHUNK_BITS);
+
+  private static final byte FLAG_DIRECTORY = 1;
+  private static final byte FLAG_HIDDEN = 2;
+  private static final byte FLAG_SHARED_LINK = 4; // 同じinodeの2つ目以降のリンク（集計に含めない）
+
+  private final Path rootPath;
+  private final NamePool names = new NamePool();
+  private final ExtensionDictionary extensions;
+  private final AtomicReferenceArray<EntryChunk> entryChunks = new AtomicReferenceArray<>(MAX_CHUNKS);
+  private final AtomicReferenceArray<DirectoryChunk> directoryChunks = new AtomicReferenceArray<>(MAX_CHUNKS);
+  private final AtomicInteger entryCount = new AtomicInteger(0);
+  private final AtomicInteger directoryCount = new AtomicInteger(0);
+  private final Map<Integer, byte[]> digests = new ConcurrentHashMap<>(); // ハッシュ値は重複候補のみなので疎に持つ
+  private final Map<Integer, long[]> links = new ConcurrentHashMap<>(); // リンクが複数あるファイルのみなので疎に持つ
+  private volatile ChildIndex childIndex;
+
+  /**
+   * @param rootPath 親を持たないエントリ（スキャンのルート）のパス
+   */
+  public ColumnarScanStore(Path rootPath) {
+    this(rootPath, new ExtensionDictionary());
+  }
+
+  /**
+   * @param extensions ファイルの拡張子IDの割り当てに使う辞書
+   */
+  public ColumnarScanStore(Path rootPath, ExtensionDictionary extensions) {
+    this.rootPath = rootPath;
+    this.extensions = extensions;
+  }
+
+  public Path getRootPath() {
+    return rootPath;
+  }
+
+  /**
+   * エントリを追加してIDを返す（スレッドセーフ）
+   * 親エントリは事前に追加しておくこと。ディレクトリの集計値は {@link #setDirectoryRollup} で後から設定する
+   */
+  public int addEntry(int parentId, String name, long size, FileTime modified, boolean isDirectory,
+      boolean isHidden) {
+    int id = entryCount.getAndIncrement();
+    if (id < 0 || id >= MAX_CHUNKS * CHUNK_SIZE - 1) {
+      throw new IllegalStateException("columnar store is full");
+    }
+    EntryChunk chunk = entryChunk(id);
+    int index = id & CHUNK_MASK;
+    long mtime = toNanos(modified);
+    chunk.sizes[index] = size;
+    chunk.mtimes[index] = mtime;
+    chunk.parents[index] = parentId;
+    chunk.names[index] = names.intern(name);
+    chunk.extensions[index] = isDirectory ? ExtensionDictionary.NONE : extensions.idOf(name);
+    chunk.flags[index] = (byte) ((isDirectory ? FLAG_DIRECTORY : 0) | (isHidden ? FLAG_HIDDEN : 0));
+    if (isDirectory) {
+      int slot = directoryCount.getAndIncrement();
+      DirectoryChunk directoryChunk = directoryChunk(slot);
+      directoryChunk.newestMtimes[slot & CHUNK_MASK] = mtime;
+      chunk.directorySlots[index] = slot;
+    }
+    return id;
+  }
+
+  /**
+   * ディレクトリの集計値（総サイズ・総ファイル数・最新更新日時）を設定する
+   */
+  public void setDirectoryRollup(int id, long size, long fileCount, FileTime newestModified) {
+    EntryChunk chunk = entryChunks.get(id >>> CHUNK_BITS);
+    int index = id & CHUNK_MASK;
+    chunk.sizes[index] = size;
+    int slot = chunk.directorySlots[index];
+    DirectoryChunk directoryChunk = directoryChunks.get(slot >>> CHUNK_BITS);
+    directoryChunk.fileCounts[slot & CHUNK_MASK] = fileCount;
+    directoryChunk.newestMtimes[slot & CHUNK_MASK] = toNanos(newestModified);
+  }
+
+  /**
+   * 子エントリの集計値からディレクトリの集計値を再計算する
+   * 親のIDは子より小さいので、IDの降順に1度なめるだけで済む。
+   * {@link #markSharedLink} したファイルはファイル数のみ数え、サイズは加えない
+   */
+  public void recomputeDirectoryRollups() {
+    int count = size();
+    for (int id = 0; id < count; id++) {
+      if (isDirectory(id)) {
+        setDirectoryRollup(id, 0, 0, getModified(id));
+      }
+    }
+    for (int id = count - 1; id >= 0; id--) {
+      int parent = getParent(id);
+      if (parent == NO_PARENT) {
+        continue;
+      }
+      EntryChunk parentChunk = entryChunks.get(parent >>> CHUNK_BITS);
+      int parentIndex = parent & CHUNK_MASK;
+      int slot = parentChunk.directorySlots[parentIndex];
+      DirectoryChunk directoryChunk = directoryChunks.get(slot >>> CHUNK_BITS);
+      int slotIndex = slot & CHUNK_MASK;
+
+      parentChunk.sizes[parentIndex] += isSharedLink(id) ? 0 : getSize(id);
+      directoryChunk.fileCounts[slotIndex] += getFileCount(id);
+      directoryChunk.newestMtimes[slotIndex] = Math.max(directoryChunk.newestMtimes[slotIndex],
+          getNewestModified(id).to(TimeUnit.NANOSECONDS));
+    }
+  }
+
+  /**
+   * 格納済みのエントリ数
+   */
+  public int size() {
+    return entryCount.get();
+  }
+
+  public long getSize(int id) {
+    return entryChunks.get(id >>> CHUNK_BITS).sizes[id & CHUNK_MASK];
+  }
+
+  public FileTime getModified(int id) {
+    return FileTime.from(entryChunks.get(id >>> CHUNK_BITS).mtimes[id & CHUNK_MASK], TimeUnit.NANOSECONDS);
+  }
+
+  public int getParent(int id) {
+    return entryChunks.get(id >>> CHUNK_BITS).parents[id & CHUNK_MASK];
+  }
+
+  public String getName(int id) {
+    return names.get(entryChunks.get(id >>> CHUNK_BITS).names[id & CHUNK_MASK]);
+  }
+
+  /**
+   * 拡張子のIDを取得する（{@link #getExtensionDictionary()} で文字列に変換できる）
+   */
+  public int getExtensionId(int id) {
+    return entryChunks.get(id >>> CHUNK_BITS).extensions[id & CHUNK_MASK];
+  }
+
+  public String getExtension(int id) {
+    return extensions.get(getExtensionId(id));
+  }
+
+  public ExtensionDictionary getExtensionDictionary() {
+    return extensions;
+  }
+
+  public boolean isDirectory(int id) {
+    return (entryChunks.get(id >>> CHUNK_BITS).flags[id & CHUNK_MASK] & FLAG_DIRECTORY) != 0;
+  }
+
+  public boolean isHidden(int id) {
+    return (entryChunks.get(id >>> CHUNK_BITS).flags[id & CHUNK_MASK] & FLAG_HIDDEN) != 0;
+  }
+
+  /**
+   * 同じinodeの2つ目以降のリンクか（サイズはディレクトリの集計値・合計に含めない）
+   */
+  public boolean isSharedLink(int id) {
+    return (entryChunks.get(id >>> CHUNK_BITS).flags[id & CHUNK_MASK] & FLAG_SHARED_LINK) != 0;
+  }
+
+  /**
+   * ファイルを同じinodeの2つ目以降のリンクとして記録する（スキャン中に同じエントリを別スレッドから変更しないこと）
+   */
+  public void markSharedLink(int id) {
+    entryChunks.get(id >>> CHUNK_BITS).flags[id & CHUNK_MASK] |= FLAG_SHARED_LINK;
+  }
+
+  /**
+   * 配下の総ファイル数（ファイルの場合は1）
+   */
+  public long getFileCount(int id) {
+    if (!isDirectory(id)) {
+      return 1;
+    }
+    int slot = entryChunks.get(id >>> CHUNK_BITS).directorySlots[id & CHUNK_MASK];
+    return directoryChunks.get(slot >>> CHUNK_BITS).fileCounts[slot & CHUNK_MASK];
+  }
+
+  /**
+   * 配下で最も新しい更新日時（ファイルの場合は自身の更新日時）
+   */
+  public FileTime getNewestModified(int id) {
+    if (!isDirectory(id)) {
+      return getModified(id);
+    }
+    int slot = entryChunks.get(id >>> CHUNK_BITS).directorySlots[id & CHUNK_MASK];
+    long nanos = directoryChunks.get(slot >>> CHUNK_BITS).newestMtimes[slot & CHUNK_MASK];
+    return FileTime.from(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * 親をたどってフルパスを組み立てる
+   */
+  public Path getPath(int id) {
+    int depth = 0;
+    for (int current = id; getParent(current) != NO_PARENT; current = getParent(current)) {
+      depth++;
+    }
+    if (depth == 0) {
+      return rootPath;
+    }
+
+    String[] segments = new String[depth];
+    int current = id;
+    for (int i = depth - 1; i >= 0; i--) {
+      segments[i] = getName(current);
+      current = getParent(current);
+    }
+    return rootPath.getFileSystem().getPath(rootPath.toString(), segments);
+  }
+
+  /**
+   * ルートエントリのIDを取得する（空の場合は {@link #NO_PARENT}）
+   */
+  public int getRootId() {
+    return size() > 0 ? 0 : NO_PARENT;
+  }
+
+  /**
+   * 直下の子エントリのIDを返す
+   * 初回呼び出し時に全エントリの親子関係から索引を作る（以降エントリが増えた場合は作り直す）
+   */
+  public int[] getChildren(int id) {
+    ChildIndex index = childIndex();
+    int from = index.offsets[id];
+    int to = index.offsets[id + 1];
+    return Arrays.copyOfRange(index.children, from, to);
+  }
+
+  /**
+   * パスに対応するエントリのIDを返す（見つからない場合は {@link #NO_PARENT}）
+   */
+  public int findId(Path path) {
+    int id = getRootId();
+    if (id == NO_PARENT || !path.startsWith(rootPath)) {
+      return NO_PARENT;
+    }
+    for (Path segment : rootPath.relativize(path)) {
+      String name = segment.toString();
+      if (name.isEmpty()) {
+        continue;
+      }
+      int next = NO_PARENT;
+      for (int child : getChildren(id)) {
+        if (getName(child).equals(name)) {
+          next = child;
+          break;
+        }
+      }
+      if (next == NO_PARENT) {
+        return NO_PARENT;
+      }
+      id = next;
+    }
+    return id;
+  }
+
+  public byte[] getDigest(int id) {
+    return digests.get(id);
+  }
+
+  public void setDigest(int id, byte[] digest) {
+    if (digest == null) {
+      digests.remove(id);
+    } else {
+      digests.put(id, digest);
+    }
+  }
+
+  /**
+   * ハードリンクの重複判定に使う [デバイス, inode]（対象外のエントリは null）
+   */
+  public long[] getLink(int id) {
+    return links.get(id);
+  }
+
+  public void setLink(int id, long[] link) {
+    if (link == null) {
+      links.remove(id);
+    } else {
+      links.put(id, link);
+    }
+  }
+
+  /**
+   * 指定IDのエントリを FileNode として参照するビューを返す
+   */
+  public FileNode getNode(int id) {
+    return new ColumnarFileNode(this, id);
+  }
+
+  /**
+   * 全エントリを FileNode のリストとして参照するビューを返す
+   * 要素はアクセスのたびに生成されるフライウェイトで、ストア本体は複製しない
+   */
+  public List<FileNode> asList() {
+    return new ColumnarFileList(this);
+  }
+
+  /**
+   * ストアが使用しているおおよそのメモリ量（バイト）
+   */
+  public long estimateMemoryBytes() {
+    long total = names.estimateMemoryBytes() + digests.size() * 104L + links.size() * 88L;
+    for (int i = 0; i < MAX_CHUNKS && entryChunks.get(i) != null; i++) {
+      total += EntryChunk.BYTES;
+    }
+    for (int i = 0; i < MAX_CHUNKS && directoryChunks.get(i) != null; i++) {
+      total += DirectoryChunk.BYTES;
+    }
+    return total;
+  }
+
+  private ChildIndex childIndex() {
+    ChildIndex index = childIndex;
+    int count = size();
+    if (index == null || index.size != count) {
+      synchronized (this) {
+        index = childIndex;
+        if (index == null || index.size != count) {
+          index = new ChildIndex(count);
+          childIndex = index;
+        }
+      }
+    }
+    return index;
+  }
+
+  private EntryChunk entryChunk(int id) {
+    int chunkIndex = id >>> CHUNK_BITS;
+    EntryChunk chunk = entryChunks.get(chunkIndex);
+    if (chunk == null) {
+      entryChunks.compareAndSet(chunkIndex, null, new EntryChunk());
+      chunk = entryChunks.get(chunkIndex);
+    }
+    return chunk;
+  }
+
+  private DirectoryChunk directoryChunk(int slot) {
+    int chunkIndex = slot >>> CHUNK_BITS;
+    DirectoryChunk chunk = directoryChunks.get(chunkIndex);
+    if (chunk == null) {
+      directoryChunks.compareAndSet(chunkIndex, null, new DirectoryChunk());
+      chunk = directoryChunks.get(chunkIndex);
+    }
+    return chunk;
+  }
+
+  private static long toNanos(FileTime time) {
+    return time.to(TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * 親IDごとに子IDをまとめた索引（CSR形式）
+   * offsets[id]..offsets[id + 1] が children 上の id の子の範囲
+   */
+  private class ChildIndex {
+    final int size;
+    final int[] offsets;
+    final int[] children;
+
+    ChildIndex(int size) {
+      this.size = size;
+      this.offsets = new int[size + 1];
+      this.children = new int[size];
+      for (int id = 0; id < size; id++) {
+        int parent = getParent(id);
+        if (parent != NO_PARENT) {
+          offsets[parent + 1]++;
+        }
+      }
+      for (int i = 0; i < size; i++) {
+        offsets[i + 1] += offsets[i];
+      }
+      int[] positions = Arrays.copyOf(offsets, size);
+      for (int id = 0; id < size; id++) {
+        int parent = getParent(id);
+        if (parent != NO_PARENT) {
+          children[positions[parent]++] = id;
+        }
+      }
+    }
+  }
+
+  /**
+   * 全エントリ共通の列
+   */
+  private static class EntryChunk {
+    static final long BYTES = CHUNK_SIZE * (8L + 8L + 4L + 4L + 4L + 4L + 1L);
+
+    final long[] sizes = new long[CHUNK_SIZE];
+    final long[] mtimes = new long[CHUNK_SIZE];
+    final int[] parents = new int[CHUNK_SIZE];
+    final int[] names = new int[CHUNK_SIZE];
+    final int[] extensions = new int[CHUNK_SIZE];
+    final int[] directorySlots = new int[CHUNK_SIZE];
+    final byte[] flags = new byte[CHUNK_SIZE];
+  }
+
+  /**
+   * ディレクトリのみが持つ集計値の列
+   */
+  private static class DirectoryChunk {
+    static final long BYTES = CHUNK_SIZE * (8L + 8L);
+
+    final long[] fileCounts = new long[CHUNK_SIZE];
+    final long[] newestMtimes = new long[CHUNK_SIZE];
+  }
+}
@@ -1,26 +1,37 @@
 package com.example.diskanalyzer.model;
 
 import java.util.ArrayList;
+import java.util.HexFormat;
 import java.util.List;
 
 /**
  * 重複ファイルのグループを表すモデルクラス
  */
 public class DuplicateGroup {
-  private final String hash;
+  private final byte[] digest;
   private final long fileSize;
   private final List<FileNode> files;
   private final String extension;
 
-  public DuplicateGroup(String hash, long fileSize, String extension) {
-    this.hash = hash;
+  public DuplicateGroup(byte[] digest, long fileSize, String extension) {
+    this.digest = digest;
     this.fileSize = fileSize;
     this.extension = extension;
     this.files = new ArrayList<>();
   }
 
+  /**
+   * グループ内のファイルに共通するハッシュ値
+   */
+  public byte[] getDigest() {
+    return digest;
+  }
+
+  /**
+   * ハッシュ値の16進表記（表示用）
+   */
   public String getHash() {
-    return hash;
+    return HexFormat.of().formatHex(digest);
   }
 
   public long getFileSize() {
@@ -76,7 +87,7 @@ public class DuplicateGroup {
   @Override
   public String toString() {
     return "DuplicateGroup{" +
-        "hash='" + hash + '\'' +
+        "hash='" + getHash() + '\'' +
         ", fileSize=" + fileSize +
         ", duplicateCount=" + getDuplicateCount() +
         ", extension='" + extension + '\'' +
@@ -0,0 +1,293 @@
+package com.example.diskanalyzer.model;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * .gitignore 形式の除外ルールをまとめてコンパイルしたマッチャー
+ * 対応する記法:
+ * <ul>
+ *   <li>空行と '#' で始まる行は無視</li>
+ *   <li>'!' で始まるパターンは除外の取り消し（再包含）</li>
+ *   <li>末尾の '/' はディレクトリのみに一致</li>
+ *   <li>'/' を含まないパターンは任意の階層の名前に一致し、含むパターンはスキャンのルートからの相対パスに一致</li>
+ *   <li>'*'・'?'・'[...]' は1セグメント内、'**' は任意個のセグメントに一致</li>
+ * </ul>
+ * 複数のルールに一致した場合は後に書かれたルールが優先される。
+ * 除外されたディレクトリの配下は走査しないため、配下の再包含はできない（.gitignore と同じ）
+ */
+public class ExclusionRules {
+  private static final ExclusionRules NONE = new ExclusionRules(new ArrayList<>());
+
+  private final Rule[] rules;
+  private final Map<String, int[]> literalNameRules; // ワイルドカードを含まない名前ルール（インデックス昇順）
+  private final int[] otherRules; // それ以外のルール（インデックス昇順）
+  private final boolean hasDirectoryOnlyRules;
+
+  private ExclusionRules(List<Rule> rules) {
+    this.rules = rules.toArray(new Rule[0]);
+
+    Map<String, List<Integer>> literals = new HashMap<>();
+    List<Integer> others = new ArrayList<>();
+    boolean directoryOnly = false;
+    for (int i = 0; i < this.rules.length; i++) {
+      Rule rule = this.rules[i];
+      directoryOnly |= rule.directoryOnly;
+      String literal = rule.literalName();
+      if (literal != null) {
+        literals.computeIfAbsent(literal, k -> new ArrayList<>()).add(i);
+      } else {
+        others.add(i);
+      }
+    }
+    this.literalNameRules = new HashMap<>();
+    literals.forEach((name, indices) ->
+        literalNameRules.put(name, indices.stream().mapToInt(Integer::intValue).toArray()));
+    this.otherRules = others.stream().mapToInt(Integer::intValue).toArray();
+    this.hasDirectoryOnlyRules = directoryOnly;
+  }
+
+  /**
+   * ルールなし（すべて走査する）
+   */
+  public static ExclusionRules none() {
+    return NONE;
+  }
+
+  /**
+   * パターンの行をコンパイルする
+   */
+  public static ExclusionRules compile(Collection<String> lines) {
+    List<Rule> rules = new ArrayList<>();
+    for (String line : lines) {
+      Rule rule = Rule.parse(line);
+      if (rule != null) {
+        rules.add(rule);
+      }
+    }
+    return rules.isEmpty() ? NONE : new ExclusionRules(rules);
+  }
+
+  public static ExclusionRules compile(String... lines) {
+    return compile(List.of(lines));
+  }
+
+  /**
+   * .gitignore 形式のファイルを読み込んでコンパイルする
+   */
+  public static ExclusionRules load(Path file) throws IOException {
+    return compile(Files.readAllLines(file, StandardCharsets.UTF_8));
+  }
+
+  public boolean isEmpty() {
+    return rules.length == 0;
+  }
+
+  /**
+   * ディレクトリのみに一致するルールを含むか
+   * 含まない場合、判定に種別は不要なので属性を読む前に判定できる
+   */
+  public boolean hasDirectoryOnlyRules() {
+    return hasDirectoryOnlyRules;
+  }
+
+  /**
+   * 有効なルールの行（空行・コメントを除き、記述順）
+   */
+  public List<String> getPatterns() {
+    List<String> patterns = new ArrayList<>(rules.length);
+    for (Rule rule : rules) {
+      patterns.add(rule.source);
+    }
+    return patterns;
+  }
+
+  /**
+   * 指定エントリが除外されるか判定する
+   *
+   * @param relativePath スキャンのルートからの相対パス
+   * @param isDirectory ディレクトリかどうか
+   */
+  public boolean isExcluded(Path relativePath, boolean isDirectory) {
+    if (rules.length == 0 || relativePath.getNameCount() == 0) {
+      return false;
+    }
+    String name = relativePath.getFileName().toString();
+
+    // 名前の完全一致ルールはハッシュ表で引き、それより後のルールだけを順に確認する
+    int best = -1;
+    int[] literal = literalNameRules.get(name);
+    if (literal != null) {
+      for (int i = literal.length - 1; i >= 0; i--) {
+        if (!rules[literal[i]].directoryOnly || isDirectory) {
+          best = literal[i];
+          break;
+        }
+      }
+    }
+    for (int i = otherRules.length - 1; i >= 0 && otherRules[i] > best; i--) {
+      if (rules[otherRules[i]].matches(relativePath, name, isDirectory)) {
+        best = otherRules[i];
+        break;
+      }
+    }
+    return best >= 0 && !rules[best].negated;
+  }
+
+  /**
+   * 1行分のルール
+   */
+  private static class Rule {
+    private static final Object ANY_SEGMENTS = new Object(); // "**"
+
+    final String source; // 末尾の空白を除いた元の行
+    final boolean negated;
+    final boolean directoryOnly;
+    final boolean anchored;
+    final Object[] segments; // String（完全一致）/ Pattern / ANY_SEGMENTS
+
+    private Rule(String source, boolean negated, boolean directoryOnly, boolean anchored, Object[] segments) {
+      this.source = source;
+      this.negated = negated;
+      this.directoryOnly = directoryOnly;
+      this.anchored = anchored;
+      this.segments = segments;
+    }
+
+    static Rule parse(String line) {
+      String source = stripTrailingSpaces(line);
+      String pattern = source;
+      if (pattern.isEmpty() || pattern.startsWith("#")) {
+        return null;
+      }
+      boolean negated = pattern.startsWith("!");
+      if (negated) {
+        pattern = pattern.substring(1);
+      } else if (pattern.startsWith("\\!") || pattern.startsWith("\\#")) {
+        pattern = pattern.substring(1);
+      }
+      boolean directoryOnly = pattern.endsWith("/");
+      if (directoryOnly) {
+        pattern = pattern.substring(0, pattern.length() - 1);
+      }
+      boolean anchored = pattern.contains("/");
+      if (pattern.startsWith("/")) {
+        pattern = pattern.substring(1);
+      }
+      if (pattern.isEmpty()) {
+        return null;
+      }
+
+      String[] parts = pattern.split("/+");
+      Object[] segments = new Object[parts.length];
+      for (int i = 0; i < parts.length; i++) {
+        segments[i] = compileSegment(parts[i]);
+      }
+      return new Rule(source, negated, directoryOnly, anchored, segments);
+    }
+
+    /**
+     * ワイルドカードを含まない名前ルールであればその名前を返す
+     */
+    String literalName() {
+      return !anchored && segments[0] instanceof String ? (String) segments[0] : null;
+    }
+
+    boolean matches(Path relativePath, String name, boolean isDirectory) {
+      if (directoryOnly && !isDirectory) {
+        return false;
+      }
+      if (!anchored) {
+        return matchesSegment(segments[0], name);
+      }
+      return matchesFrom(0, relativePath, 0);
+    }
+
+    private boolean matchesFrom(int segmentIndex, Path path, int nameIndex) {
+      if (segmentIndex == segments.length) {
+        return nameIndex == path.getNameCount();
+      }
+      Object segment = segments[segmentIndex];
+      if (segment == ANY_SEGMENTS) {
+        for (int i = nameIndex; i <= path.getNameCount(); i++) {
+          if (matchesFrom(segmentIndex + 1, path, i)) {
+            return true;
+          }
+        }
+        return false;
+      }
+      return nameIndex < path.getNameCount()
+          && matchesSegment(segment, path.getName(nameIndex).toString())
+          && matchesFrom(segmentIndex + 1, path, nameIndex + 1);
+    }
+
+    private static boolean matchesSegment(Object segment, String name) {
+      if (segment == ANY_SEGMENTS) {
+        return true;
+      }
+      if (segment instanceof String) {
+        return segment.equals(name);
+      }
+      return ((Pattern) segment).matcher(name).matches();
+    }
+
+    private static Object compileSegment(String glob) {
+      if (glob.equals("**")) {
+        return ANY_SEGMENTS;
+      }
+      if (glob.chars().noneMatch(c -> c == '*' || c == '?' || c == '[' || c == '\\')) {
+        return glob;
+      }
+
+      StringBuilder regex = new StringBuilder();
+      for (int i = 0; i < glob.length(); i++) {
+        char c = glob.charAt(i);
+        switch (c) {
+          case '*':
+            regex.append("[^/]*");
+            break;
+          case '?':
+            regex.append("[^/]");
+            break;
+          case '\\':
+            if (i + 1 < glob.length()) {
+              regex.append(Pattern.quote(String.valueOf(glob.charAt(++i))));
+            }
+            break;
+          case '[':
+            int close = glob.indexOf(']', i + 2);
+            if (close < 0) {
+              regex.append("\\[");
+            } else {
+              String body = glob.substring(i + 1, close);
+              if (body.startsWith("!")) {
+                body = "^" + body.substring(1);
+              }
+              regex.append('[').append(body.replace("\\", "\\\\").replace("[", "\\[")).append(']');
+              i = close;
+            }
+            break;
+          default:
+            regex.append(Pattern.quote(String.valueOf(c)));
+        }
+      }
+      return Pattern.compile(regex.toString());
+    }
+
+    private static String stripTrailingSpaces(String line) {
+      int end = line.length();
+      while (end > 0 && line.charAt(end - 1) == ' ' && (end < 2 || line.charAt(end - 2) != '\\')) {
+        end--;
+      }
+      return line.substring(0, end);
+    }
+  }
+}
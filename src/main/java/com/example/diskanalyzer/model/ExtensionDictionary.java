@@ -0,0 +1,140 @@
+package com.example.diskanalyzer.model;
+
+/**
+ * 拡張子を小さな int の ID に対応付ける辞書
+ * ファイル名から拡張子部分を切り出さずに（大文字小文字を区別せず）引けるため、
+ * 既知の拡張子であればファイルごとの文字列生成は発生しない。
+ * 参照はロックなしで行い、新しい拡張子の登録時のみロックを取る
+ */
+public class ExtensionDictionary {
+  /** 拡張子なし（ディレクトリを含む） */
+  public static final int NONE = 0;
+
+  private volatile Table table = Table.initial();
+
+  /**
+   * ファイル名の拡張子に対応するIDを返す（未登録の場合は登録する）
+   * 拡張子の判定規則は「最後の '.' 以降。先頭・末尾の '.' は拡張子とみなさない」
+   */
+  public int idOf(String fileName) {
+    int dot = fileName.lastIndexOf('.');
+    if (dot <= 0 || dot >= fileName.length() - 1) {
+      return NONE;
+    }
+    int start = dot + 1;
+    int length = fileName.length() - start;
+    int hash = hash(fileName, start);
+
+    int id = table.find(fileName, start, length, hash);
+    return id >= 0 ? id : register(fileName, start, length, hash);
+  }
+
+  /**
+   * IDに対応する拡張子（小文字）を返す
+   */
+  public String get(int id) {
+    return table.extensions[id];
+  }
+
+  /**
+   * 登録済みの拡張子数（{@link #NONE} を含む）
+   */
+  public int size() {
+    return table.count;
+  }
+
+  private synchronized int register(String fileName, int start, int length, int hash) {
+    Table current = table;
+    int id = current.find(fileName, start, length, hash);
+    if (id >= 0) {
+      return id;
+    }
+
+    // 照合と同じ規則（1文字ずつの小文字化）で正規化する
+    char[] chars = new char[length];
+    for (int i = 0; i < length; i++) {
+      chars[i] = Character.toLowerCase(fileName.charAt(start + i));
+    }
+    String extension = new String(chars);
+    if (current.count == current.extensions.length || (current.count + 1) * 2 > current.slots.length) {
+      current = current.grow();
+      table = current;
+    }
+    return current.append(extension, hash);
+  }
+
+  private static int hash(CharSequence text, int start) {
+    int h = 0;
+    for (int i = start; i < text.length(); i++) {
+      h = 31 * h + Character.toLowerCase(text.charAt(i));
+    }
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * 辞書表（オープンアドレス法。スロットには ID + 1 を格納）
+   * 追記は登録時のロック内でのみ行う。ロックなしの参照側からは追記途中のエントリが
+   * 見えないことがあるが、その場合は未登録扱いとなり登録処理（ロック内）で再確認される
+   */
+  private static class Table {
+    final String[] extensions;
+    final int[] hashes;
+    final int[] slots;
+    volatile int count;
+
+    Table(int capacity, int slotCount) {
+      this.extensions = new String[capacity];
+      this.hashes = new int[capacity];
+      this.slots = new int[slotCount];
+    }
+
+    static Table initial() {
+      Table table = new Table(16, 64);
+      table.extensions[NONE] = "";
+      table.count = 1;
+      return table;
+    }
+
+    int find(String fileName, int start, int length, int hash) {
+      int mask = slots.length - 1;
+      for (int slot = hash & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+        int id = slots[slot] - 1;
+        String candidate = extensions[id];
+        if (candidate != null && hashes[id] == hash && candidate.length() == length
+            && fileName.regionMatches(true, start, candidate, 0, length)) {
+          return id;
+        }
+      }
+      return -1;
+    }
+
+    int append(String extension, int hash) {
+      int id = count;
+      extensions[id] = extension;
+      hashes[id] = hash;
+      insert(id, hash);
+      count = id + 1;
+      return id;
+    }
+
+    Table grow() {
+      Table next = new Table(extensions.length * 2, slots.length * 2);
+      System.arraycopy(extensions, 0, next.extensions, 0, count);
+      System.arraycopy(hashes, 0, next.hashes, 0, count);
+      for (int id = 1; id < count; id++) {
+        next.insert(id, hashes[id]);
+      }
+      next.count = count;
+      return next;
+    }
+
+    private void insert(int id, int hash) {
+      int mask = slots.length - 1;
+      int slot = hash & mask;
+      while (slots[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      slots[slot] = id + 1;
+    }
+  }
+}
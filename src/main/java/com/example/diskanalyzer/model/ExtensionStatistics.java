@@ -0,0 +1,110 @@
+package com.example.diskanalyzer.model;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 拡張子ID別のファイル数・合計サイズ・最小/最大サイズ
+ * 値はIDで引くプリミティブ配列に保持する。スレッドセーフではないため、
+ * スキャン中はワーカーごとに1つずつ持ち、完了時に {@link #merge} でまとめる
+ */
+public class ExtensionStatistics {
+  private final ExtensionDictionary dictionary;
+  private long[] counts = new long[16];
+  private long[] bytes = new long[16];
+  private long[] minSizes = new long[16];
+  private long[] maxSizes = new long[16];
+
+  public ExtensionStatistics(ExtensionDictionary dictionary) {
+    this.dictionary = dictionary;
+    Arrays.fill(minSizes, Long.MAX_VALUE);
+  }
+
+  /**
+   * ファイル1件分を加算する
+   */
+  public void add(int extensionId, long size) {
+    ensureCapacity(extensionId);
+    counts[extensionId]++;
+    bytes[extensionId] += size;
+    minSizes[extensionId] = Math.min(minSizes[extensionId], size);
+    maxSizes[extensionId] = Math.max(maxSizes[extensionId], size);
+  }
+
+  /**
+   * 同じ辞書を使う別の統計を加算する
+   */
+  public void merge(ExtensionStatistics other) {
+    if (other.dictionary != dictionary) {
+      throw new IllegalArgumentException("statistics use a different dictionary");
+    }
+    ensureCapacity(other.counts.length - 1);
+    for (int id = 0; id < other.counts.length; id++) {
+      if (other.counts[id] == 0) {
+        continue;
+      }
+      counts[id] += other.counts[id];
+      bytes[id] += other.bytes[id];
+      minSizes[id] = Math.min(minSizes[id], other.minSizes[id]);
+      maxSizes[id] = Math.max(maxSizes[id], other.maxSizes[id]);
+    }
+  }
+
+  public ExtensionDictionary getDictionary() {
+    return dictionary;
+  }
+
+  /**
+   * 拡張子IDの上限（0 からこの値未満までのIDを走査すればよい）
+   */
+  public int getIdLimit() {
+    return Math.min(counts.length, dictionary.size());
+  }
+
+  public String getExtension(int extensionId) {
+    return dictionary.get(extensionId);
+  }
+
+  public long getCount(int extensionId) {
+    return extensionId < counts.length ? counts[extensionId] : 0;
+  }
+
+  public long getTotalSize(int extensionId) {
+    return extensionId < bytes.length ? bytes[extensionId] : 0;
+  }
+
+  public long getMinSize(int extensionId) {
+    return getCount(extensionId) > 0 ? minSizes[extensionId] : 0;
+  }
+
+  public long getMaxSize(int extensionId) {
+    return extensionId < maxSizes.length ? maxSizes[extensionId] : 0;
+  }
+
+  /**
+   * 拡張子ごとの合計サイズを従来の形式（拡張子なしは除く）で返す
+   */
+  public Map<String, Long> toSizeMap() {
+    Map<String, Long> sizes = new HashMap<>();
+    for (int id = 0; id < getIdLimit(); id++) {
+      if (id != ExtensionDictionary.NONE && counts[id] > 0) {
+        sizes.put(dictionary.get(id), bytes[id]);
+      }
+    }
+    return sizes;
+  }
+
+  private void ensureCapacity(int extensionId) {
+    if (extensionId < counts.length) {
+      return;
+    }
+    int capacity = Math.max(counts.length * 2, extensionId + 1);
+    int previous = counts.length;
+    counts = Arrays.copyOf(counts, capacity);
+    bytes = Arrays.copyOf(bytes, capacity);
+    minSizes = Arrays.copyOf(minSizes, capacity);
+    maxSizes = Arrays.copyOf(maxSizes, capacity);
+    Arrays.fill(minSizes, previous, capacity, Long.MAX_VALUE);
+  }
+}
@@ -4,6 +4,7 @@ import java.nio.file.Path;
 import java.nio.file.attribute.FileTime;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
+import java.util.HexFormat;
 
 /**
  * ファイル・ディレクトリの情報を保持するモデルクラス
@@ -15,15 +16,53 @@ public class FileNode {
   private final boolean isDirectory;
   private final boolean isHidden;
   private final String extension;
-  private String hash; // 重複検出用のハッシュ値
+  private final long fileCount; // ディレクトリの場合は配下の総ファイル数
+  private final FileTime newestModified; // ディレクトリの場合は配下で最も新しい更新日時
+  private byte[] digest; // 重複検出用のハッシュ値
+  private long[] link; // ハードリンクの重複判定に使う [デバイス, inode]
 
   public FileNode(Path path, long size, FileTime modified, boolean isDirectory, boolean isHidden) {
+    this(path, size, modified, isDirectory, isHidden, isDirectory ? 0 : 1, modified);
+  }
+
+  /**
+   * 集計値付きのノードを作成する
+   * ディレクトリの場合、size には配下の総サイズを指定する
+   */
+  public FileNode(Path path, long size, FileTime modified, boolean isDirectory, boolean isHidden,
+      long fileCount, FileTime newestModified) {
+    this(path, size, modified, isDirectory, isHidden, fileCount, newestModified,
+        isDirectory ? "" : getFileExtension(path.getFileName().toString()));
+  }
+
+  /**
+   * 拡張子を指定してノードを作成する（辞書で共有している拡張子文字列を使う場合）
+   */
+  public FileNode(Path path, long size, FileTime modified, boolean isDirectory, boolean isHidden,
+      long fileCount, FileTime newestModified, String extension) {
     this.path = path;
     this.size = size;
     this.modified = modified;
     this.isDirectory = isDirectory;
     this.isHidden = isHidden;
-    this.extension = isDirectory ? "" : getFileExtension(path.getFileName().toString());
+    this.extension = extension;
+    this.fileCount = fileCount;
+    this.newestModified = newestModified;
+  }
+
+  /**
+   * 値を自身で保持しないビュー（列指向ストア上のフライウェイト）用のコンストラクタ
+   * サブクラスはすべてのgetterをオーバーライドすること
+   */
+  protected FileNode() {
+    this.path = null;
+    this.size = 0;
+    this.modified = null;
+    this.isDirectory = false;
+    this.isHidden = false;
+    this.extension = "";
+    this.fileCount = 0;
+    this.newestModified = null;
   }
 
   public Path getPath() {
@@ -38,6 +77,20 @@ public class FileNode {
     return modified;
   }
 
+  /**
+   * 配下の総ファイル数を取得する（ファイルの場合は1）
+   */
+  public long getFileCount() {
+    return fileCount;
+  }
+
+  /**
+   * 配下で最も新しい更新日時を取得する（ファイルの場合は自身の更新日時）
+   */
+  public FileTime getNewestModified() {
+    return newestModified;
+  }
+
   public boolean isDirectory() {
     return isDirectory;
   }
@@ -50,12 +103,34 @@ public class FileNode {
     return extension;
   }
 
-  public String getHash() {
-    return hash;
+  /**
+   * 重複検出で計算したハッシュ値（未計算の場合は null）
+   */
+  public byte[] getDigest() {
+    return digest;
   }
 
-  public void setHash(String hash) {
-    this.hash = hash;
+  public void setDigest(byte[] digest) {
+    this.digest = digest;
+  }
+
+  /**
+   * ハードリンクの重複判定に使う [デバイス, inode]（リンクが1つだけのファイルなど、判定の対象外は null）
+   */
+  public long[] getLink() {
+    return link;
+  }
+
+  public void setLink(long[] link) {
+    this.link = link;
+  }
+
+  /**
+   * ハッシュ値の16進表記（表示用。未計算の場合は null）
+   */
+  public String getHash() {
+    byte[] value = getDigest();
+    return value != null ? HexFormat.of().formatHex(value) : null;
   }
 
   public String getName() {
@@ -63,10 +138,11 @@ public class FileNode {
   }
 
   public LocalDateTime getModifiedDateTime() {
-    return LocalDateTime.ofInstant(modified.toInstant(), ZoneId.systemDefault());
+    return LocalDateTime.ofInstant(getModified().toInstant(), ZoneId.systemDefault());
   }
 
   public String getFormattedSize() {
+    long size = getSize();
     if (size < 1024) {
       return size + " B";
     } else if (size < 1024 * 1024) {
@@ -78,7 +154,7 @@ public class FileNode {
     }
   }
 
-  private String getFileExtension(String fileName) {
+  private static String getFileExtension(String fileName) {
     int lastDotIndex = fileName.lastIndexOf('.');
     if (lastDotIndex > 0 && lastDotIndex < fileName.length() - 1) {
       return fileName.substring(lastDotIndex + 1).toLowerCase();
@@ -89,10 +165,10 @@ public class FileNode {
   @Override
   public String toString() {
     return "FileNode{" +
-        "path=" + path +
-        ", size=" + size +
-        ", isDirectory=" + isDirectory +
-        ", extension='" + extension + '\'' +
+        "path=" + getPath() +
+        ", size=" + getSize() +
+        ", isDirectory=" + isDirectory() +
+        ", extension='" + getExtension() + '\'' +
         '}';
   }
 }
@@ -0,0 +1,158 @@
+package com.example.diskanalyzer.model;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * ファイル名を UTF-8 のバイト列としてまとめて保持する共有プール
+ * 同じ名前は1度だけ格納し、int の ID で参照する。
+ * ロック競合を避けるため、名前のハッシュ値で複数のセグメントに振り分ける
+ */
+class NamePool {
+  private static final int SEGMENT_BITS = 4;
+  private static final int SEGMENT_COUNT = 1 << SEGMENT_BITS;
+  private static final int SEGMENT_MASK = SEGMENT_COUNT - 1;
+
+  private final Segment[] segments = new Segment[SEGMENT_COUNT];
+
+  NamePool() {
+    for (int i = 0; i < SEGMENT_COUNT; i++) {
+      segments[i] = new Segment();
+    }
+  }
+
+  /**
+   * 名前を登録してIDを返す（登録済みの場合は既存のID）
+   */
+  int intern(String name) {
+    byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+    int hash = hash(bytes);
+    int segment = hash & SEGMENT_MASK;
+    int localId = segments[segment].intern(bytes, hash);
+    return (localId << SEGMENT_BITS) | segment;
+  }
+
+  /**
+   * IDから名前を取得する
+   */
+  String get(int id) {
+    return segments[id & SEGMENT_MASK].get(id >>> SEGMENT_BITS);
+  }
+
+  /**
+   * プールが使用しているおおよそのメモリ量（バイト）
+   */
+  long estimateMemoryBytes() {
+    long total = 0;
+    for (Segment segment : segments) {
+      total += segment.estimateMemoryBytes();
+    }
+    return total;
+  }
+
+  private static int hash(byte[] bytes) {
+    int h = Arrays.hashCode(bytes);
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * 1セグメント分の名前領域
+   * 名前は「長さ(2バイト) + UTF-8バイト列」の形でアリーナに追記する。
+   * アリーナは小さく始めて上限まで倍々に大きくする
+   */
+  private static class Segment {
+    private static final int INITIAL_ARENA_SIZE = 1 << 12;
+    private static final int MAX_ARENA_SIZE = 1 << 20;
+
+    private byte[][] arenas = new byte[][] {new byte[INITIAL_ARENA_SIZE]};
+    private int arenaCount = 1;
+    private long arenaBytes = INITIAL_ARENA_SIZE;
+    private int arenaPosition;
+    private long[] offsets = new long[1024]; // (アリーナ番号 << 32) | アリーナ内位置
+    private int[] hashes = new int[1024];
+    private int count;
+    private int[] table = new int[2048]; // オープンアドレス法のハッシュ表（ID + 1 を格納）
+
+    synchronized int intern(byte[] bytes, int hash) {
+      int mask = table.length - 1;
+      int slot = (hash >>> SEGMENT_BITS) & mask;
+      while (table[slot] != 0) {
+        int id = table[slot] - 1;
+        if (hashes[id] == hash && matches(id, bytes)) {
+          return id;
+        }
+        slot = (slot + 1) & mask;
+      }
+
+      int id = append(bytes, hash);
+      table[slot] = id + 1;
+      if (count * 2 > table.length) {
+        rehash();
+      }
+      return id;
+    }
+
+    synchronized String get(int id) {
+      long offset = offsets[id];
+      byte[] arena = arenas[(int) (offset >>> 32)];
+      int position = (int) offset;
+      int length = ((arena[position] & 0xff) << 8) | (arena[position + 1] & 0xff);
+      return new String(arena, position + 2, length, StandardCharsets.UTF_8);
+    }
+
+    synchronized long estimateMemoryBytes() {
+      return arenaBytes + offsets.length * 12L + table.length * 4L;
+    }
+
+    private boolean matches(int id, byte[] bytes) {
+      long offset = offsets[id];
+      byte[] arena = arenas[(int) (offset >>> 32)];
+      int position = (int) offset;
+      int length = ((arena[position] & 0xff) << 8) | (arena[position + 1] & 0xff);
+      return length == bytes.length
+          && Arrays.equals(arena, position + 2, position + 2 + length, bytes, 0, bytes.length);
+    }
+
+    private int append(byte[] bytes, int hash) {
+      if (bytes.length > 0xffff) {
+        throw new IllegalArgumentException("name too long: " + bytes.length + " bytes");
+      }
+      int required = bytes.length + 2;
+      if (arenaPosition + required > arenas[arenaCount - 1].length) {
+        if (arenaCount == arenas.length) {
+          arenas = Arrays.copyOf(arenas, arenas.length * 2);
+        }
+        int arenaSize = Math.max(required, Math.min(MAX_ARENA_SIZE, arenas[arenaCount - 1].length * 2));
+        arenas[arenaCount++] = new byte[arenaSize];
+        arenaBytes += arenaSize;
+        arenaPosition = 0;
+      }
+      byte[] arena = arenas[arenaCount - 1];
+      arena[arenaPosition] = (byte) (bytes.length >>> 8);
+      arena[arenaPosition + 1] = (byte) bytes.length;
+      System.arraycopy(bytes, 0, arena, arenaPosition + 2, bytes.length);
+
+      if (count == offsets.length) {
+        offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        hashes = Arrays.copyOf(hashes, hashes.length * 2);
+      }
+      offsets[count] = ((long) (arenaCount - 1) << 32) | arenaPosition;
+      hashes[count] = hash;
+      arenaPosition += required;
+      return count++;
+    }
+
+    private void rehash() {
+      int[] newTable = new int[table.length * 2];
+      int mask = newTable.length - 1;
+      for (int id = 0; id < count; id++) {
+        int slot = (hashes[id] >>> SEGMENT_BITS) & mask;
+        while (newTable[slot] != 0) {
+          slot = (slot + 1) & mask;
+        }
+        newTable[slot] = id + 1;
+      }
+      table = newTable;
+    }
+  }
+}
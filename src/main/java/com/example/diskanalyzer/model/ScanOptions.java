@@ -0,0 +1,128 @@
+package com.example.diskanalyzer.model;
+
+import java.time.Duration;
+
+/**
+ * スキャンの動作を指定するオプション
+ */
+public class ScanOptions {
+  private StorageMode storageMode = StorageMode.COLUMNAR;
+  private boolean checkpointEnabled = false;
+  private Duration checkpointInterval = Duration.ofSeconds(30);
+  private ExclusionRules exclusionRules = ExclusionRules.none();
+  private int maxDepth = Integer.MAX_VALUE;
+  private MountPolicy mountPolicy = MountPolicy.SKIP_PSEUDO;
+  private boolean followLinks = false;
+  private boolean nativeReaderEnabled = false;
+
+  /**
+   * スキャン結果の保持形式
+   */
+  public enum StorageMode {
+    /** エントリごとに FileNode オブジェクトを保持する */
+    OBJECT,
+    /** プリミティブ配列の列（親ID＋名前）として保持し、FileNode はビューとして提供する（既定） */
+    COLUMNAR
+  }
+
+  /**
+   * マウントポイント（別のファイルシステム）に到達した場合の扱い
+   * 対象外となったマウントポイントはエントリのみ記録し、配下は走査しない
+   */
+  public enum MountPolicy {
+    /** スキャンのルートと同じファイルシステムのみ走査する（du -x 相当） */
+    SAME_FILESYSTEM,
+    /** すべてのファイルシステムを走査する */
+    CROSS,
+    /** /proc・/sys などの疑似ファイルシステムを除いて走査する（既定） */
+    SKIP_PSEUDO
+  }
+
+  public StorageMode getStorageMode() {
+    return storageMode;
+  }
+
+  public void setStorageMode(StorageMode storageMode) {
+    this.storageMode = storageMode;
+  }
+
+  /**
+   * 途中経過をチェックポイントとして保存するか
+   * 有効な場合、中断されたスキャンは次回同じパスをスキャンした際に続きから再開される
+   */
+  public boolean isCheckpointEnabled() {
+    return checkpointEnabled;
+  }
+
+  public void setCheckpointEnabled(boolean checkpointEnabled) {
+    this.checkpointEnabled = checkpointEnabled;
+  }
+
+  /**
+   * チェックポイントをディスクへ確定させる間隔
+   */
+  public Duration getCheckpointInterval() {
+    return checkpointInterval;
+  }
+
+  public void setCheckpointInterval(Duration checkpointInterval) {
+    this.checkpointInterval = checkpointInterval;
+  }
+
+  /**
+   * 除外ルール（一致したディレクトリは一覧の取得も属性の読み込みも行わない）
+   */
+  public ExclusionRules getExclusionRules() {
+    return exclusionRules;
+  }
+
+  public void setExclusionRules(ExclusionRules exclusionRules) {
+    this.exclusionRules = exclusionRules != null ? exclusionRules : ExclusionRules.none();
+  }
+
+  /**
+   * 走査する最大の深さ（Files.walkFileTree と同じく、0 ではルートのみ、1 ではルート直下まで）
+   */
+  public int getMaxDepth() {
+    return maxDepth;
+  }
+
+  public void setMaxDepth(int maxDepth) {
+    if (maxDepth < 0) {
+      throw new IllegalArgumentException("maxDepth must not be negative: " + maxDepth);
+    }
+    this.maxDepth = maxDepth;
+  }
+
+  public MountPolicy getMountPolicy() {
+    return mountPolicy;
+  }
+
+  public void setMountPolicy(MountPolicy mountPolicy) {
+    this.mountPolicy = mountPolicy != null ? mountPolicy : MountPolicy.SKIP_PSEUDO;
+  }
+
+  /**
+   * シンボリックリンクを辿るか
+   * 辿る場合は同じディレクトリ（デバイスとinodeが同じもの）を2回以上走査しないことで循環を防ぐ
+   */
+  public boolean isFollowLinks() {
+    return followLinks;
+  }
+
+  public void setFollowLinks(boolean followLinks) {
+    this.followLinks = followLinks;
+  }
+
+  /**
+   * Linux で getdents64/statx を直接呼び出してディレクトリを読み込むか
+   * 実行環境で使えない場合（Linux 以外、--enable-preview なしでの起動など）は NIO で走査する
+   */
+  public boolean isNativeReaderEnabled() {
+    return nativeReaderEnabled;
+  }
+
+  public void setNativeReaderEnabled(boolean nativeReaderEnabled) {
+    this.nativeReaderEnabled = nativeReaderEnabled;
+  }
+}
@@ -0,0 +1,59 @@
+package com.example.diskanalyzer.model;
+
+import java.nio.file.Path;
+
+/**
+ * スキャン途中の累計値を保持するモデルクラス
+ * バッチ通知ごとに新しいインスタンスが作成される
+ */
+public class ScanProgress {
+  private final long totalFiles;
+  private final long totalDirectories;
+  private final long totalSize;
+  private final Path currentDirectory;
+
+  public ScanProgress(long totalFiles, long totalDirectories, long totalSize, Path currentDirectory) {
+    this.totalFiles = totalFiles;
+    this.totalDirectories = totalDirectories;
+    this.totalSize = totalSize;
+    this.currentDirectory = currentDirectory;
+  }
+
+  public long getTotalFiles() {
+    return totalFiles;
+  }
+
+  public long getTotalDirectories() {
+    return totalDirectories;
+  }
+
+  public long getTotalSize() {
+    return totalSize;
+  }
+
+  public Path getCurrentDirectory() {
+    return currentDirectory;
+  }
+
+  public String getFormattedTotalSize() {
+    if (totalSize < 1024) {
+      return totalSize + " B";
+    } else if (totalSize < 1024 * 1024) {
+      return String.format("%.1f KB", totalSize / 1024.0);
+    } else if (totalSize < 1024 * 1024 * 1024) {
+      return String.format("%.1f MB", totalSize / (1024.0 * 1024.0));
+    } else {
+      return String.format("%.1f GB", totalSize / (1024.0 * 1024.0 * 1024.0));
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "ScanProgress{" +
+        "totalFiles=" + totalFiles +
+        ", totalDirectories=" + totalDirectories +
+        ", totalSize=" + totalSize +
+        ", currentDirectory=" + currentDirectory +
+        '}';
+  }
+}
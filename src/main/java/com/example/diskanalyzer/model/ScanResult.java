@@ -1,5 +1,7 @@
 package com.example.diskanalyzer.model;
 
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -10,18 +12,141 @@ public class ScanResult {
   private final List<FileNode> files;
   private final Map<String, Long> extensionStats;
   private final long totalSize;
+  private final long apparentSize;
   private final int totalFiles;
   private final int totalDirectories;
   private final long scanDuration;
+  private final Path rootPath;
+  private final ColumnarScanStore store;
+  private final ExtensionStatistics extensionStatistics;
+  private final boolean complete;
 
   public ScanResult(List<FileNode> files, Map<String, Long> extensionStats,
       long totalSize, int totalFiles, int totalDirectories, long scanDuration) {
+    this(null, files, extensionStats, totalSize, totalFiles, totalDirectories, scanDuration);
+  }
+
+  public ScanResult(Path rootPath, List<FileNode> files, Map<String, Long> extensionStats,
+      long totalSize, int totalFiles, int totalDirectories, long scanDuration) {
+    this(rootPath, null, files, null, extensionStats, totalSize, totalSize, totalFiles, totalDirectories,
+        scanDuration, true);
+  }
+
+  /**
+   * 拡張子ID別の統計を指定してスキャン結果を作成する
+   */
+  public ScanResult(Path rootPath, List<FileNode> files, ExtensionStatistics extensionStatistics,
+      long totalSize, int totalFiles, int totalDirectories, long scanDuration) {
+    this(rootPath, files, extensionStatistics, totalSize, totalSize, totalFiles, totalDirectories, scanDuration);
+  }
+
+  /**
+   * 重複を除いたサイズと見かけ上のサイズを指定してスキャン結果を作成する
+   */
+  public ScanResult(Path rootPath, List<FileNode> files, ExtensionStatistics extensionStatistics,
+      long totalSize, long apparentSize, int totalFiles, int totalDirectories, long scanDuration) {
+    this(rootPath, null, files, extensionStatistics, extensionStatistics.toSizeMap(),
+        totalSize, apparentSize, totalFiles, totalDirectories, scanDuration, true);
+  }
+
+  /**
+   * 列指向ストアを元にスキャン結果を作成する（ファイル一覧はストアのビューになる）
+   */
+  public ScanResult(ColumnarScanStore store, ExtensionStatistics extensionStatistics,
+      long totalSize, int totalFiles, int totalDirectories, long scanDuration) {
+    this(store, extensionStatistics, totalSize, totalSize, totalFiles, totalDirectories, scanDuration);
+  }
+
+  public ScanResult(ColumnarScanStore store, ExtensionStatistics extensionStatistics,
+      long totalSize, long apparentSize, int totalFiles, int totalDirectories, long scanDuration) {
+    this(store.getRootPath(), store, store.asList(), extensionStatistics, extensionStatistics.toSizeMap(),
+        totalSize, apparentSize, totalFiles, totalDirectories, scanDuration, true);
+  }
+
+  private ScanResult(Path rootPath, ColumnarScanStore store, List<FileNode> files,
+      ExtensionStatistics extensionStatistics, Map<String, Long> extensionStats, long totalSize,
+      long apparentSize, int totalFiles, int totalDirectories, long scanDuration, boolean complete) {
+    this.rootPath = rootPath;
+    this.store = store;
     this.files = files;
+    this.extensionStatistics = extensionStatistics;
     this.extensionStats = extensionStats;
     this.totalSize = totalSize;
+    this.apparentSize = apparentSize;
     this.totalFiles = totalFiles;
     this.totalDirectories = totalDirectories;
     this.scanDuration = scanDuration;
+    this.complete = complete;
+  }
+
+  /**
+   * 途中で中止されたスキャンの結果として、未完了の印を付けた結果を返す
+   * 集計値は中止までに走査した範囲のもの
+   */
+  public ScanResult asIncomplete() {
+    return new ScanResult(rootPath, store, files, extensionStatistics, extensionStats, totalSize, apparentSize,
+        totalFiles, totalDirectories, scanDuration, false);
+  }
+
+  /**
+   * 最後まで走査した結果か（中止された場合は false）
+   */
+  public boolean isComplete() {
+    return complete;
+  }
+
+  /**
+   * スキャン対象のルートパスを取得する（不明な場合はnull）
+   */
+  public Path getRootPath() {
+    return rootPath;
+  }
+
+  /**
+   * 結果を保持している列指向ストアを取得する（オブジェクト形式の場合はnull）
+   */
+  public ColumnarScanStore getStore() {
+    return store;
+  }
+
+  /**
+   * ルートディレクトリのエントリを取得する（見つからない場合はnull）
+   */
+  public FileNode getRootNode() {
+    if (store != null) {
+      int rootId = store.getRootId();
+      return rootId != ColumnarScanStore.NO_PARENT ? store.getNode(rootId) : null;
+    }
+    if (rootPath == null) {
+      return null;
+    }
+    for (FileNode file : files) {
+      if (rootPath.equals(file.getPath())) {
+        return file;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * 指定ディレクトリ直下のエントリを取得する
+   * 列指向ストアの場合は親IDの索引を引くだけで、パスの比較は行わない
+   */
+  public List<FileNode> getChildren(FileNode directory) {
+    List<FileNode> children = new ArrayList<>();
+    if (directory instanceof ColumnarFileNode && ((ColumnarFileNode) directory).getStore() == store) {
+      for (int child : store.getChildren(((ColumnarFileNode) directory).getId())) {
+        children.add(store.getNode(child));
+      }
+      return children;
+    }
+    Path parentPath = directory.getPath();
+    for (FileNode file : files) {
+      if (parentPath.equals(file.getPath().getParent())) {
+        children.add(file);
+      }
+    }
+    return children;
   }
 
   public List<FileNode> getFiles() {
@@ -32,10 +157,27 @@ public class ScanResult {
     return extensionStats;
   }
 
+  /**
+   * スキャン時に集計した拡張子ID別の統計を取得する（保存済みスナップショットから復元した場合はnull）
+   */
+  public ExtensionStatistics getExtensionStatistics() {
+    return extensionStatistics;
+  }
+
+  /**
+   * 合計サイズ（ハードリンクされたファイルは inode ごとに1回だけ数える）
+   */
   public long getTotalSize() {
     return totalSize;
   }
 
+  /**
+   * 見かけ上の合計サイズ（パスごとのサイズの合計。ハードリンクはリンクの数だけ数える）
+   */
+  public long getApparentSize() {
+    return apparentSize;
+  }
+
   public int getTotalFiles() {
     return totalFiles;
   }
@@ -49,14 +191,22 @@ public class ScanResult {
   }
 
   public String getFormattedTotalSize() {
-    if (totalSize < 1024) {
-      return totalSize + " B";
-    } else if (totalSize < 1024 * 1024) {
-      return String.format("%.1f KB", totalSize / 1024.0);
-    } else if (totalSize < 1024 * 1024 * 1024) {
-      return String.format("%.1f MB", totalSize / (1024.0 * 1024.0));
+    return formatSize(totalSize);
+  }
+
+  public String getFormattedApparentSize() {
+    return formatSize(apparentSize);
+  }
+
+  private static String formatSize(long bytes) {
+    if (bytes < 1024) {
+      return bytes + " B";
+    } else if (bytes < 1024 * 1024) {
+      return String.format("%.1f KB", bytes / 1024.0);
+    } else if (bytes < 1024 * 1024 * 1024) {
+      return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
     } else {
-      return String.format("%.1f GB", totalSize / (1024.0 * 1024.0 * 1024.0));
+      return String.format("%.1f GB", bytes / (1024.0 * 1024.0 * 1024.0));
     }
   }
 
@@ -74,7 +74,7 @@ public class ScanSnapshot {
    * このスナップショットからScanResultを作成する
    */
   public ScanResult toScanResult() {
-    return new ScanResult(files, extensionStats, totalSize, totalFiles, totalDirectories, scanDuration);
+    return new ScanResult(rootPath, files, extensionStats, totalSize, totalFiles, totalDirectories, scanDuration);
   }
 
   @Override
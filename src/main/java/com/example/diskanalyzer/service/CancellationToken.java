@@ -0,0 +1,21 @@
+package com.example.diskanalyzer.service;
+
+/**
+ * 実行中のジョブ（スキャン・増分スキャン・重複検出・エクスポート）に中止を伝えるトークン
+ * ジョブはディレクトリ（重複検出ではファイル）単位で状態を確認し、
+ * 中止された場合はそれまでの集計値から部分的な結果を作成して速やかに戻る
+ */
+public class CancellationToken {
+  private volatile boolean cancelled;
+
+  /**
+   * ジョブの中止を要求する（任意のスレッドから呼び出せる）
+   */
+  public void cancel() {
+    cancelled = true;
+  }
+
+  public boolean isCancelled() {
+    return cancelled;
+  }
+}
@@ -0,0 +1,527 @@
+package com.example.diskanalyzer.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * スキャン途中経過のジャーナル（追記専用）
+ * ディレクトリごとに「直下の一覧（LISTED）」と「配下の走査完了と集計値（COMPLETED）」を記録する。
+ * 各レコードは長さとCRCで囲むため、異常終了で末尾が壊れていてもそこまでの記録は読める。
+ * 一定間隔でディスクへ同期し、未完了のディレクトリ（フロンティア）をマニフェストに書き出す
+ */
+class CheckpointJournal implements AutoCloseable {
+  private static final Logger logger = LoggerFactory.getLogger(CheckpointJournal.class);
+
+  private static final int MAGIC = 0x4c444a32; // "LDJ2"（ヘッダーはルートのパスとオプションの識別値）
+  private static final byte RECORD_LISTED = 1;
+  private static final byte RECORD_COMPLETED = 2;
+  private static final byte ENTRY_FILE = 1;
+  private static final byte ENTRY_DIRECTORY = 2;
+  private static final byte ENTRY_LINKED_FILE = 3; // ハードリンクされたファイル（デバイスとinodeを含む）
+  private static final byte ENTRY_END = 0;
+
+  private final Path rootPath;
+  private final String optionsFingerprint;
+  private final Path journalFile;
+  private final Path manifestFile;
+  private final Duration interval;
+  private final ObjectMapper objectMapper;
+
+  // 前回までの記録（再開時に参照するのみ）
+  private final Map<String, Listing> listings;
+  private final Map<String, Completion> completions;
+
+  // 今回のスキャンの状態
+  private final Set<String> pending = ConcurrentHashMap.newKeySet();
+  private final AtomicLong listedCount = new AtomicLong(0);
+  private final AtomicLong completedCount = new AtomicLong(0);
+  private final LocalDateTime startedAt = LocalDateTime.now();
+  private FileChannel channel;
+  private DataOutputStream output;
+  private volatile long lastCheckpoint = System.nanoTime();
+
+  private CheckpointJournal(Path rootPath, String optionsFingerprint, Path journalFile, Path manifestFile,
+      Duration interval, ObjectMapper objectMapper, Map<String, Listing> listings,
+      Map<String, Completion> completions) {
+    this.rootPath = rootPath;
+    this.optionsFingerprint = optionsFingerprint;
+    this.journalFile = journalFile;
+    this.manifestFile = manifestFile;
+    this.interval = interval;
+    this.objectMapper = objectMapper;
+    this.listings = listings;
+    this.completions = completions;
+  }
+
+  /**
+   * ジャーナルを開く。既存の記録があれば読み込み、その後ろに追記する
+   * 既存の記録のルートやオプションの識別値が異なる場合は破棄して最初から記録する
+   *
+   * @param optionsFingerprint 走査結果に影響するオプションの識別値
+   */
+  static CheckpointJournal open(Path rootPath, Path journalFile, Path manifestFile, Duration interval,
+      String optionsFingerprint, ObjectMapper objectMapper) throws IOException {
+    Map<String, Listing> listings = new HashMap<>();
+    Map<String, Completion> completions = new HashMap<>();
+    long validLength = Files.exists(journalFile)
+        ? read(rootPath, optionsFingerprint, journalFile, listings, completions)
+        : 0;
+
+    CheckpointJournal journal = new CheckpointJournal(rootPath, optionsFingerprint, journalFile, manifestFile,
+        interval, objectMapper, listings, completions);
+    journal.openOutput(validLength);
+    if (!completions.isEmpty()) {
+      logger.info("チェックポイントを読み込みました: {} (完了済みディレクトリ: {}件)", journalFile, completions.size());
+    }
+    return journal;
+  }
+
+  /**
+   * 前回までに配下の走査が完了しているディレクトリであれば、その記録を返す
+   * ディレクトリ自身の更新日時が変わっている場合は再利用しない
+   */
+  Completion findCompleted(Path dir, FileTime modified) {
+    Completion completion = getCompletion(dir);
+    if (completion == null || completion.modifiedNanos != toNanos(modified)) {
+      return null;
+    }
+    return completion;
+  }
+
+  /**
+   * 前回までに記録した配下の走査完了の記録を返す（更新日時は確認しない）
+   */
+  Completion getCompletion(Path dir) {
+    return completions.get(key(dir));
+  }
+
+  /**
+   * 前回記録したディレクトリ直下の一覧を返す
+   */
+  Listing getListing(Path dir) {
+    return listings.get(key(dir));
+  }
+
+  /**
+   * ディレクトリを未完了として登録する（フロンティアに加える）
+   */
+  void markPending(Path dir) {
+    pending.add(key(dir));
+  }
+
+  /**
+   * ディレクトリ直下の一覧の記録を開始する
+   */
+  ListingWriter beginListing(Path dir, FileTime modified, boolean hidden) {
+    return new ListingWriter(key(dir), toNanos(modified), hidden);
+  }
+
+  /**
+   * ディレクトリ直下の一覧を書き込む
+   */
+  void recordListing(ListingWriter listing) {
+    try {
+      listing.data.writeByte(ENTRY_END);
+      append(listing.buffer.toByteArray());
+      listedCount.incrementAndGet();
+    } catch (IOException e) {
+      logger.warn("チェックポイントの書き込みに失敗: {}", listing.key, e);
+    }
+  }
+
+  /**
+   * ディレクトリ配下の走査完了を記録し、間隔が経過していればチェックポイントを確定させる
+   */
+  void recordCompleted(Path dir, FileTime modified, long size, long fileCount, FileTime newestModified) {
+    String key = key(dir);
+    try {
+      ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+      DataOutputStream data = new DataOutputStream(buffer);
+      data.writeByte(RECORD_COMPLETED);
+      data.writeUTF(key);
+      data.writeLong(toNanos(modified));
+      data.writeLong(size);
+      data.writeLong(fileCount);
+      data.writeLong(toNanos(newestModified));
+      append(buffer.toByteArray());
+      completedCount.incrementAndGet();
+    } catch (IOException e) {
+      logger.warn("チェックポイントの書き込みに失敗: {}", key, e);
+    }
+    pending.remove(key);
+
+    if (System.nanoTime() - lastCheckpoint >= interval.toNanos()) {
+      checkpoint();
+    }
+  }
+
+  /**
+   * ジャーナルをディスクへ同期し、フロンティアをマニフェストに書き出す
+   */
+  synchronized void checkpoint() {
+    lastCheckpoint = System.nanoTime();
+    try {
+      output.flush();
+      channel.force(false);
+
+      Map<String, Object> manifest = new LinkedHashMap<>();
+      manifest.put("rootPath", rootPath.toString());
+      manifest.put("startedAt", startedAt.toString());
+      manifest.put("updatedAt", LocalDateTime.now().toString());
+      manifest.put("listedDirectories", listedCount.get());
+      manifest.put("completedDirectories", completedCount.get());
+      manifest.put("pendingDirectories", new ArrayList<>(pending));
+
+      Path temporary = manifestFile.resolveSibling(manifestFile.getFileName() + ".tmp");
+      objectMapper.writeValue(temporary.toFile(), manifest);
+      Files.move(temporary, manifestFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      logger.debug("チェックポイント: 完了 {} / 未完了 {} ディレクトリ", completedCount.get(), pending.size());
+    } catch (IOException e) {
+      logger.warn("チェックポイントの確定に失敗: {}", journalFile, e);
+    }
+  }
+
+  /**
+   * スキャンが最後まで完了したのでジャーナルとマニフェストを削除する
+   */
+  synchronized void discard() {
+    closeQuietly();
+    try {
+      Files.deleteIfExists(journalFile);
+      Files.deleteIfExists(manifestFile);
+    } catch (IOException e) {
+      logger.warn("チェックポイントの削除に失敗: {}", journalFile, e);
+    }
+  }
+
+  /**
+   * 残りの記録をディスクへ同期して閉じる
+   * 割り込まれたスレッドからでも書き込めるよう、同期の間だけ割り込み状態を解除する（終了後に元に戻す）
+   */
+  @Override
+  public synchronized void close() {
+    if (output == null) {
+      return;
+    }
+    boolean interrupted = Thread.interrupted();
+    try {
+      checkpoint();
+      closeQuietly();
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private void append(byte[] payload) throws IOException {
+    CRC32 crc = new CRC32();
+    crc.update(payload);
+    synchronized (this) {
+      output.writeInt(payload.length);
+      output.writeInt((int) crc.getValue());
+      output.write(payload);
+    }
+  }
+
+  private void openOutput(long validLength) throws IOException {
+    channel = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    // 壊れた末尾は切り捨ててから追記する
+    channel.truncate(validLength);
+    channel.position(validLength);
+    OutputStream stream = Channels.newOutputStream(channel);
+    output = new DataOutputStream(new BufferedOutputStream(stream, 64 * 1024));
+    if (validLength == 0) {
+      output.writeInt(MAGIC);
+      output.writeUTF(rootPath.toString());
+      output.writeUTF(optionsFingerprint);
+    }
+  }
+
+  private void closeQuietly() {
+    if (output == null) {
+      return;
+    }
+    try {
+      output.close();
+    } catch (IOException e) {
+      logger.warn("チェックポイントのクローズに失敗: {}", journalFile, e);
+    }
+    output = null;
+    channel = null;
+  }
+
+  private String key(Path dir) {
+    return rootPath.relativize(dir).toString();
+  }
+
+  /**
+   * ジャーナルを読み込み、正常に読めた範囲の長さを返す
+   */
+  private static long read(Path rootPath, String optionsFingerprint, Path journalFile,
+      Map<String, Listing> listings, Map<String, Completion> completions) throws IOException {
+    try (InputStream stream = new BufferedInputStream(Files.newInputStream(journalFile))) {
+      CountingInputStream counter = new CountingInputStream(stream);
+      DataInputStream input = new DataInputStream(counter);
+      try {
+        if (input.readInt() != MAGIC || !input.readUTF().equals(rootPath.toString())) {
+          logger.warn("チェックポイントの形式が異なるため破棄します: {}", journalFile);
+          return 0;
+        }
+        if (!input.readUTF().equals(optionsFingerprint)) {
+          logger.info("スキャンのオプションが前回と異なるためチェックポイントを破棄します: {}", journalFile);
+          return 0;
+        }
+      } catch (EOFException e) {
+        return 0;
+      }
+
+      long validLength = counter.getCount();
+      while (true) {
+        byte[] payload;
+        try {
+          int length = input.readInt();
+          int expectedCrc = input.readInt();
+          if (length < 0 || length > 64 * 1024 * 1024) {
+            break;
+          }
+          payload = new byte[length];
+          input.readFully(payload);
+          CRC32 crc = new CRC32();
+          crc.update(payload);
+          if ((int) crc.getValue() != expectedCrc) {
+            break;
+          }
+        } catch (EOFException e) {
+          break;
+        }
+        decode(payload, listings, completions);
+        validLength = counter.getCount();
+      }
+      return validLength;
+    }
+  }
+
+  private static void decode(byte[] payload, Map<String, Listing> listings, Map<String, Completion> completions)
+      throws IOException {
+    DataInputStream data = new DataInputStream(new ByteArrayInputStream(payload));
+    byte type = data.readByte();
+    String key = data.readUTF();
+    if (type == RECORD_LISTED) {
+      Listing listing = new Listing(data.readLong(), data.readBoolean());
+      for (byte kind = data.readByte(); kind != ENTRY_END; kind = data.readByte()) {
+        String name = data.readUTF();
+        if (kind == ENTRY_FILE) {
+          listing.files.add(new FileEntry(name, data.readLong(), data.readLong(), data.readBoolean()));
+        } else if (kind == ENTRY_LINKED_FILE) {
+          listing.files.add(new FileEntry(name, data.readLong(), data.readLong(), data.readBoolean(),
+              data.readLong(), data.readLong()));
+        } else {
+          listing.directories.add(name);
+        }
+      }
+      listings.put(key, listing);
+      // 一覧を取り直したディレクトリの完了記録はそれより後の記録でのみ有効
+      completions.remove(key);
+    } else if (type == RECORD_COMPLETED) {
+      completions.put(key, new Completion(data.readLong(), data.readLong(), data.readLong(), data.readLong()));
+    }
+  }
+
+  private static long toNanos(FileTime time) {
+    return time.to(TimeUnit.NANOSECONDS);
+  }
+
+  static FileTime fromNanos(long nanos) {
+    return FileTime.from(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * 1ディレクトリ分の一覧レコードを組み立てる（ワーカーごとに使い捨て）
+   */
+  static class ListingWriter {
+    private final String key;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private final DataOutputStream data = new DataOutputStream(buffer);
+
+    private ListingWriter(String key, long modifiedNanos, boolean hidden) {
+      this.key = key;
+      try {
+        data.writeByte(RECORD_LISTED);
+        data.writeUTF(key);
+        data.writeLong(modifiedNanos);
+        data.writeBoolean(hidden);
+      } catch (IOException e) {
+        throw new IllegalStateException(e); // ByteArrayOutputStream への書き込みは失敗しない
+      }
+    }
+
+    void addFile(String name, long size, FileTime modified, boolean hidden) {
+      try {
+        data.writeByte(ENTRY_FILE);
+        data.writeUTF(name);
+        data.writeLong(size);
+        data.writeLong(toNanos(modified));
+        data.writeBoolean(hidden);
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    /**
+     * ハードリンクされたファイルを記録する（復元時に同じinodeを二重に数えないため）
+     */
+    void addLinkedFile(String name, long size, FileTime modified, boolean hidden, long device, long inode) {
+      try {
+        data.writeByte(ENTRY_LINKED_FILE);
+        data.writeUTF(name);
+        data.writeLong(size);
+        data.writeLong(toNanos(modified));
+        data.writeBoolean(hidden);
+        data.writeLong(device);
+        data.writeLong(inode);
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    void addDirectory(String name) {
+      try {
+        data.writeByte(ENTRY_DIRECTORY);
+        data.writeUTF(name);
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  }
+
+  /**
+   * 記録済みのディレクトリ直下の一覧
+   */
+  static class Listing {
+    final long modifiedNanos;
+    final boolean hidden;
+    final List<FileEntry> files = new ArrayList<>();
+    final List<String> directories = new ArrayList<>();
+
+    Listing(long modifiedNanos, boolean hidden) {
+      this.modifiedNanos = modifiedNanos;
+      this.hidden = hidden;
+    }
+  }
+
+  /**
+   * 記録済みのファイル
+   */
+  static class FileEntry {
+    final String name;
+    final long size;
+    final long modifiedNanos;
+    final boolean hidden;
+    final boolean linked; // ハードリンクされたファイルか（true の場合のみ device と inode が有効）
+    final long device;
+    final long inode;
+
+    FileEntry(String name, long size, long modifiedNanos, boolean hidden) {
+      this.name = name;
+      this.size = size;
+      this.modifiedNanos = modifiedNanos;
+      this.hidden = hidden;
+      this.linked = false;
+      this.device = 0;
+      this.inode = 0;
+    }
+
+    FileEntry(String name, long size, long modifiedNanos, boolean hidden, long device, long inode) {
+      this.name = name;
+      this.size = size;
+      this.modifiedNanos = modifiedNanos;
+      this.hidden = hidden;
+      this.linked = true;
+      this.device = device;
+      this.inode = inode;
+    }
+  }
+
+  /**
+   * 記録済みのディレクトリ配下の集計値
+   */
+  static class Completion {
+    final long modifiedNanos;
+    final long size;
+    final long fileCount;
+    final long newestModifiedNanos;
+
+    Completion(long modifiedNanos, long size, long fileCount, long newestModifiedNanos) {
+      this.modifiedNanos = modifiedNanos;
+      this.size = size;
+      this.fileCount = fileCount;
+      this.newestModifiedNanos = newestModifiedNanos;
+    }
+  }
+
+  /**
+   * 読み込んだバイト数を数える入力ストリーム
+   */
+  private static class CountingInputStream extends FilterInputStream {
+    private long count;
+
+    CountingInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b >= 0) {
+        count++;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      int n = super.read(buffer, offset, length);
+      if (n > 0) {
+        count += n;
+      }
+      return n;
+    }
+
+    long getCount() {
+      return count;
+    }
+  }
+}
@@ -0,0 +1,194 @@
+package com.example.diskanalyzer.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 同じサイズのファイルの内容を、先頭から同じ位置のチャンクを順に読み込んで直接比較する
+ * 内容が異なるファイルは最初に異なるチャンクの時点で別の組に分け、他と一致しなくなったファイルは以降読み込まない。
+ * ハッシュ値で判定しないため、一致と判定した組は衝突の可能性なくバイト単位で同一である。
+ * 読み込んだチャンクからハッシュ値も同時に計算し、最後まで読んだファイルの値は次回以降のために保存できる。
+ * チャンクのバッファ（1ファイルあたり CHUNK_SIZE）は比較ごとに確保し、スレッドに保持し続けない
+ */
+class ContentComparator {
+  private static final Logger logger = LoggerFactory.getLogger(ContentComparator.class);
+  static final int CHUNK_SIZE = 1 << 20; // 各ファイルから1回に読む大きさ（回転ディスクでファイル間のシークを減らす）
+
+  private final IoThrottle throttle;
+  private final MetricsRegistry.Counter comparedFiles;
+  private final MetricsRegistry.Counter comparedBytes;
+  private final MetricsRegistry.Counter skippedBytes; // 内容が異なると分かったため読まずに済んだバイト数
+  private final MetricsRegistry.Histogram readLatency;
+
+  ContentComparator(IoThrottle throttle, MetricsRegistry metrics, MetricsRegistry.Histogram readLatency) {
+    this.throttle = throttle;
+    this.comparedFiles = metrics.counter("compare.files");
+    this.comparedBytes = metrics.counter("compare.bytes");
+    this.skippedBytes = metrics.counter("compare.skippedBytes");
+    this.readLatency = readLatency;
+  }
+
+  /**
+   * ファイルを内容が同一の組に分ける
+   *
+   * @param paths 比較するファイル（すべて size バイト）
+   * @param algorithm 同時に計算するハッシュ関数
+   * @param digests 内容が同一と判定したファイルのハッシュ値を paths と同じ位置に設定する
+   * @return 内容が同一の2件以上の組（paths の添字）。中止された場合は null
+   */
+  List<List<Integer>> compare(List<Path> paths, long size, DigestAlgorithm algorithm, byte[][] digests,
+      CancellationToken cancellation) {
+    int count = paths.size();
+    FileChannel[] channels = new FileChannel[count];
+    ByteBuffer[] chunks = new ByteBuffer[count];
+    DigestAlgorithm.Hasher[] hashers = new DigestAlgorithm.Hasher[count];
+
+    // 最初はすべてが1つの組。読み込めないファイルは除く
+    List<List<Integer>> classes = new ArrayList<>();
+    List<Integer> initial = new ArrayList<>(count);
+    try {
+      for (int i = 0; i < count; i++) {
+        chunks[i] = ByteBuffer.allocateDirect(CHUNK_SIZE);
+        try {
+          throttle.acquireOperation();
+          channels[i] = FileChannel.open(paths.get(i), StandardOpenOption.READ);
+          hashers[i] = algorithm.newHasher();
+          initial.add(i);
+        } catch (IOException e) {
+          logger.error("比較するファイルを開けません: {}", paths.get(i), e);
+        }
+      }
+      comparedFiles.add(initial.size());
+      if (initial.size() > 1) {
+        classes.add(initial);
+      }
+
+      long offset = 0;
+      while (!classes.isEmpty()) {
+        if (cancellation.isCancelled()) {
+          return null;
+        }
+        boolean anyData = false;
+        List<List<Integer>> next = new ArrayList<>();
+        for (List<Integer> members : classes) {
+          List<Integer> readable = new ArrayList<>(members.size());
+          for (int member : members) {
+            if (readChunk(paths.get(member), channels[member], chunks[member], offset)) {
+              hashers[member].update(chunks[member].duplicate());
+              readable.add(member);
+              anyData |= chunks[member].hasRemaining();
+            }
+          }
+          split(readable, chunks, next);
+        }
+        if (!anyData) {
+          // すべて末尾まで一致した
+          for (List<Integer> members : next) {
+            for (int member : members) {
+              digests[member] = hashers[member].digest();
+            }
+          }
+          classes = next;
+          break;
+        }
+        for (List<Integer> members : classes) {
+          for (int member : members) {
+            if (!contains(next, member)) {
+              // 他と一致しなくなったファイルは閉じ、残りを読まない
+              skippedBytes.add(Math.max(0, size - offset - chunks[member].limit()));
+              closeQuietly(channels[member]);
+              channels[member] = null;
+            }
+          }
+        }
+        classes = next;
+        offset += CHUNK_SIZE;
+      }
+      return classes;
+    } finally {
+      for (FileChannel channel : channels) {
+        closeQuietly(channel);
+      }
+    }
+  }
+
+  /**
+   * offset から最大 CHUNK_SIZE バイトを読み込む（末尾では短くなる）
+   *
+   * @return 読み込めた場合は true
+   */
+  private boolean readChunk(Path path, FileChannel channel, ByteBuffer chunk, long offset) {
+    chunk.clear();
+    try {
+      long readStart = System.nanoTime();
+      while (chunk.hasRemaining()) {
+        int read = channel.read(chunk, offset + chunk.position());
+        if (read < 0) {
+          break;
+        }
+      }
+      readLatency.recordSince(readStart);
+    } catch (IOException e) {
+      logger.error("比較中の読み込みエラー: {}", path, e);
+      return false;
+    }
+    chunk.flip();
+    throttle.acquireBytes(chunk.remaining());
+    comparedBytes.add(chunk.remaining());
+    return true;
+  }
+
+  /**
+   * 読み込んだチャンクの内容が同じものどうしの組に分け、2件以上の組を result に追加する
+   */
+  private static void split(List<Integer> members, ByteBuffer[] chunks, List<List<Integer>> result) {
+    List<Integer> remaining = members;
+    while (remaining.size() > 1) {
+      ByteBuffer representative = chunks[remaining.get(0)];
+      List<Integer> same = new ArrayList<>(remaining.size());
+      List<Integer> different = new ArrayList<>();
+      same.add(remaining.get(0));
+      for (int i = 1; i < remaining.size(); i++) {
+        int member = remaining.get(i);
+        // mismatch は長さの違いも不一致として扱う
+        if (representative.mismatch(chunks[member]) < 0) {
+          same.add(member);
+        } else {
+          different.add(member);
+        }
+      }
+      if (same.size() > 1) {
+        result.add(same);
+      }
+      remaining = different;
+    }
+  }
+
+  private static boolean contains(List<List<Integer>> classes, int member) {
+    for (List<Integer> members : classes) {
+      if (members.contains(member)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static void closeQuietly(FileChannel channel) {
+    if (channel == null) {
+      return;
+    }
+    try {
+      channel.close();
+    } catch (IOException e) {
+      logger.debug("ファイルを閉じる際のエラー", e);
+    }
+  }
+}
@@ -0,0 +1,240 @@
+package com.example.diskanalyzer.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ファイルシステム（デバイス）ごとの情報とワーカー数の割り当てを管理する
+ * デバイスの種類（回転ディスク・SSD・メモリ・ネットワーク・疑似ファイルシステム）に応じて
+ * 同時にアクセスするワーカー数を制限し、遅いデバイスが他のデバイスのスキャンを妨げないようにする。
+ * デバイスは stat の st_dev で識別し、種類の判定は初回のみ行う
+ */
+class DeviceRegistry {
+  private static final Logger logger = LoggerFactory.getLogger(DeviceRegistry.class);
+
+  /** st_dev を取得できないファイルシステムで使うデバイスID */
+  static final long UNKNOWN_DEVICE = -1;
+
+  private static final int ROTATIONAL_BUDGET = 2; // ランダムアクセスでシークが増えないよう少なくする
+  private static final int NETWORK_BUDGET = 4;
+  private static final int PSEUDO_BUDGET = 1;
+
+  private static final Set<String> PSEUDO_TYPES = Set.of(
+      "proc", "sysfs", "devtmpfs", "devpts", "cgroup", "cgroup2", "securityfs", "debugfs", "tracefs",
+      "pstore", "bpf", "configfs", "fusectl", "mqueue", "hugetlbfs", "autofs", "binfmt_misc",
+      "rpc_pipefs", "efivarfs", "selinuxfs", "nsfs");
+  private static final Set<String> MEMORY_TYPES = Set.of("tmpfs", "ramfs");
+  private static final Set<String> NETWORK_TYPES = Set.of(
+      "nfs", "nfs4", "cifs", "smb3", "smbfs", "9p", "afs", "ceph", "glusterfs", "fuse.sshfs",
+      "fuse.rclone", "davfs", "webdav", "afpfs");
+
+  private final int parallelism;
+  private final Map<Long, Device> devices = new ConcurrentHashMap<>();
+  private final Device unknownDevice;
+
+  DeviceRegistry(int parallelism) {
+    this.parallelism = parallelism;
+    this.unknownDevice = new Device(UNKNOWN_DEVICE, "unknown", DeviceKind.UNKNOWN, parallelism);
+  }
+
+  /**
+   * デバイスの種類
+   */
+  enum DeviceKind {
+    ROTATIONAL,
+    SOLID_STATE,
+    MEMORY,
+    NETWORK,
+    PSEUDO,
+    UNKNOWN
+  }
+
+  /**
+   * デバイスIDに対応するデバイス情報を取得する（初回は path を使って種類を判定する）
+   */
+  Device resolve(long deviceId, Path path) {
+    if (deviceId == UNKNOWN_DEVICE) {
+      return unknownDevice;
+    }
+    return devices.computeIfAbsent(deviceId, id -> detect(id, path));
+  }
+
+  private Device detect(long deviceId, Path path) {
+    String type;
+    try {
+      FileStore store = Files.getFileStore(path);
+      type = store.type().toLowerCase(Locale.ROOT);
+    } catch (IOException | SecurityException e) {
+      logger.warn("ファイルシステムの種類を取得できません: {}", path, e);
+      type = "unknown";
+    }
+
+    DeviceKind kind;
+    if (PSEUDO_TYPES.contains(type)) {
+      kind = DeviceKind.PSEUDO;
+    } else if (MEMORY_TYPES.contains(type)) {
+      kind = DeviceKind.MEMORY;
+    } else if (NETWORK_TYPES.contains(type)) {
+      kind = DeviceKind.NETWORK;
+    } else {
+      Boolean rotational = isRotational(deviceId);
+      kind = rotational == null ? DeviceKind.UNKNOWN
+          : rotational ? DeviceKind.ROTATIONAL : DeviceKind.SOLID_STATE;
+    }
+
+    int budget;
+    switch (kind) {
+      case ROTATIONAL:
+        budget = ROTATIONAL_BUDGET;
+        break;
+      case NETWORK:
+        budget = NETWORK_BUDGET;
+        break;
+      case PSEUDO:
+        budget = PSEUDO_BUDGET;
+        break;
+      default:
+        budget = parallelism;
+    }
+    budget = Math.max(1, Math.min(budget, parallelism));
+
+    logger.info("デバイス検出: {} (種類: {}, {}, 並列度: {})", path, type, kind, budget);
+    return new Device(deviceId, type, kind, budget);
+  }
+
+  /**
+   * Linux の /sys/dev/block から回転ディスクかどうかを判定する（判定できない場合は null）
+   */
+  private static Boolean isRotational(long deviceId) {
+    long major = ((deviceId >>> 8) & 0xfff) | ((deviceId >>> 32) & ~0xfffL);
+    long minor = (deviceId & 0xff) | ((deviceId >>> 12) & ~0xffL);
+    Path block = Paths.get("/sys/dev/block", major + ":" + minor);
+    if (!Files.isDirectory(block)) {
+      return null;
+    }
+
+    // パーティションの場合は親デバイスの queue を参照する
+    for (Path queue : new Path[] {block.resolve("queue/rotational"), block.resolve("../queue/rotational")}) {
+      try {
+        if (Files.exists(queue)) {
+          return new String(Files.readAllBytes(queue), StandardCharsets.US_ASCII).trim().equals("1");
+        }
+      } catch (IOException e) {
+        logger.debug("回転ディスクの判定に失敗: {}", queue, e);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * 1つのデバイス（ファイルシステム）
+   * ディレクトリの一覧取得中はアクセス許可を保持し、同時アクセス数を並列度以内に抑える。
+   * 加えて実行中のタスク数を数え、並列度を超える分はforkせず呼び出し元で処理させる
+   */
+  static class Device {
+    private final long id;
+    private final String type;
+    private final DeviceKind kind;
+    private final int budget;
+    private final Semaphore permits;
+    private final AtomicInteger activeTasks = new AtomicInteger(0);
+
+    Device(long id, String type, DeviceKind kind, int budget) {
+      this.id = id;
+      this.type = type;
+      this.kind = kind;
+      this.budget = budget;
+      this.permits = new Semaphore(budget);
+    }
+
+    long getId() {
+      return id;
+    }
+
+    String getType() {
+      return type;
+    }
+
+    DeviceKind getKind() {
+      return kind;
+    }
+
+    boolean isPseudo() {
+      return kind == DeviceKind.PSEUDO;
+    }
+
+    int getBudget() {
+      return budget;
+    }
+
+    /**
+     * このデバイス上のタスクを新たにforkしてよい場合は枠を確保して true を返す
+     * 確保した枠はタスク終了時に releaseTask() で返すこと
+     */
+    boolean tryReserveTask() {
+      int current;
+      do {
+        current = activeTasks.get();
+        if (current >= budget) {
+          return false;
+        }
+      } while (!activeTasks.compareAndSet(current, current + 1));
+      return true;
+    }
+
+    void releaseTask() {
+      activeTasks.decrementAndGet();
+    }
+
+    /**
+     * デバイスへのアクセス許可を得る
+     * 待機中はForkJoinPoolに補償スレッドを追加させ、他のデバイスの処理が止まらないようにする
+     */
+    void acquire() {
+      if (permits.tryAcquire()) {
+        return;
+      }
+      try {
+        ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+          private boolean acquired;
+
+          @Override
+          public boolean block() throws InterruptedException {
+            if (!acquired) {
+              permits.acquire();
+              acquired = true;
+            }
+            return true;
+          }
+
+          @Override
+          public boolean isReleasable() {
+            return acquired || (acquired = permits.tryAcquire());
+          }
+        });
+      } catch (InterruptedException e) {
+        // 割り込み状態を保持したまま、許可なしで続行しないよう待ち直す
+        Thread.currentThread().interrupt();
+        permits.acquireUninterruptibly();
+      }
+    }
+
+    void release() {
+      permits.release();
+    }
+  }
+}
@@ -0,0 +1,85 @@
+package com.example.diskanalyzer.service;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * 重複検出でファイルの内容を比較するハッシュ関数
+ */
+public enum DigestAlgorithm {
+  /** xxHash64（64ビット、非暗号学的）。CPU の負荷が低く、高速な SSD でも読み込み速度に追従できる（既定） */
+  XXH64(8) {
+    @Override
+    Hasher newHasher() {
+      return new XxHash64(0);
+    }
+  },
+  /** SHA-256（256ビット、暗号学的）。sha256sum などの外部ツールの値と照合できる */
+  SHA256(32) {
+    @Override
+    Hasher newHasher() {
+      try {
+        return new MessageDigestHasher(MessageDigest.getInstance("SHA-256"));
+      } catch (NoSuchAlgorithmException e) {
+        // SHA-256 はすべての Java 実装で提供される
+        throw new IllegalStateException(e);
+      }
+    }
+  };
+
+  private final int digestLength;
+
+  DigestAlgorithm(int digestLength) {
+    this.digestLength = digestLength;
+  }
+
+  /**
+   * ハッシュ値のバイト数
+   */
+  public int getDigestLength() {
+    return digestLength;
+  }
+
+  /**
+   * 1ファイル分のハッシュ計算を開始する（返されたインスタンスはスレッドセーフではない）
+   */
+  abstract Hasher newHasher();
+
+  /**
+   * 逐次的なハッシュ計算
+   */
+  interface Hasher {
+    void update(byte[] input, int offset, int length);
+
+    /**
+     * バッファの残りをすべて入力する（position は limit まで進む）
+     */
+    void update(ByteBuffer input);
+
+    byte[] digest();
+  }
+
+  private static class MessageDigestHasher implements Hasher {
+    private final MessageDigest messageDigest;
+
+    MessageDigestHasher(MessageDigest messageDigest) {
+      this.messageDigest = messageDigest;
+    }
+
+    @Override
+    public void update(byte[] input, int offset, int length) {
+      messageDigest.update(input, offset, length);
+    }
+
+    @Override
+    public void update(ByteBuffer input) {
+      messageDigest.update(input);
+    }
+
+    @Override
+    public byte[] digest() {
+      return messageDigest.digest();
+    }
+  }
+}
@@ -0,0 +1,47 @@
+package com.example.diskanalyzer.service;
+
+import java.nio.file.attribute.FileTime;
+
+/**
+ * ディレクトリ配下の集計値（総サイズ・総ファイル数・最新更新日時）
+ * 単一スレッドから更新されることを前提とする
+ */
+class DirectoryRollup {
+  private long size;
+  private long fileCount;
+  private FileTime newestModified;
+
+  DirectoryRollup(FileTime modified) {
+    this.newestModified = modified;
+  }
+
+  void addFile(long fileSize, FileTime modified) {
+    size += fileSize;
+    fileCount++;
+    updateNewest(modified);
+  }
+
+  void add(DirectoryRollup child) {
+    size += child.size;
+    fileCount += child.fileCount;
+    updateNewest(child.newestModified);
+  }
+
+  long getSize() {
+    return size;
+  }
+
+  long getFileCount() {
+    return fileCount;
+  }
+
+  FileTime getNewestModified() {
+    return newestModified;
+  }
+
+  private void updateNewest(FileTime modified) {
+    if (modified.compareTo(newestModified) > 0) {
+      newestModified = modified;
+    }
+  }
+}
@@ -6,40 +6,193 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ForkJoinPool;
-import java.util.concurrent.RecursiveTask;
 
 /**
  * 重複ファイル検出サービス
- * ファイルのハッシュ値を計算して重複を検出する
+ * サイズ → 先頭・末尾・中間の一部のハッシュ → 全体のハッシュの順に候補を絞り込み、
+ * 前の段階で他と一致しなかったファイルは以降読み込まない。
+ * ハッシュ関数は既定で xxHash64 を使い、必要であれば最後に SHA-256 で一致を確認する。
+ * 計算したハッシュ値は {@link HashCache} に保存し、次回以降は変更されていないファイルを読み込まない。
+ * 拡張属性への保存を有効にすると、全体のハッシュ値をファイル自身の拡張属性にも保存し、別のホストでも再利用できる。
+ * ファイルの読み込みは {@link HashScheduler} がデバイスごとに順序と同時に読み込むワーカー数を決めて行う
  */
 public class DuplicateDetectionService {
   private static final Logger logger = LoggerFactory.getLogger(DuplicateDetectionService.class);
-  private static final int CHUNK_SIZE = 8192; // 8KB chunks for hashing
-  private final ForkJoinPool pool;
+  private static final int SAMPLE_BLOCK_SIZE = 4096; // 部分ハッシュで読む1ブロックの大きさ
+  private static final int SAMPLE_MIDDLE_BLOCKS = 4; // 先頭と末尾の間から読むブロック数
+  // これより小さいファイルは部分ハッシュを省き、全体を1回だけ読む
+  private static final long SAMPLE_HASH_MIN_SIZE = 16L * SAMPLE_BLOCK_SIZE;
+  // メンバーがこれ以下のグループはハッシュを計算せず内容を直接比較する（同時に開くファイル数・バッファ数も同じ）
+  private static final int DEFAULT_BYTE_COMPARISON_LIMIT = 4;
+  // 直接比較では1ファイルあたり ContentComparator.CHUNK_SIZE のバッファを使うため、件数の上限を設ける
+  public static final int MAX_BYTE_COMPARISON_LIMIT = 16;
+  private final ExecutionRuntime runtime;
+  private final boolean ownsRuntime;
+  private final MetricsRegistry.Counter hashedFiles;
+  private final MetricsRegistry.Counter hashedBytes;
+  private final MetricsRegistry.Counter sampledFiles;
+  private final MetricsRegistry.Counter sampledBytes;
+  private final MetricsRegistry.Counter linkedFiles; // ハードリンクのため読まずに除外したファイル
+  private final MetricsRegistry.Histogram readLatency; // 1回の読み込み
+  private final MetricsRegistry.Histogram fileLatency; // 1ファイルのハッシュ計算全体
+  private volatile DigestAlgorithm digestAlgorithm = DigestAlgorithm.XXH64;
+  private volatile DigestAlgorithm confirmationAlgorithm; // null の場合は確認しない
+  private volatile ReadBackend readBackend = ReadBackend.AUTO;
+  private volatile HashCache hashCache; // null の場合は使わない
+  private volatile boolean hashCacheSet; // 設定されるまでは、最初に使うときに共有のキャッシュを取得する
+  private volatile boolean extendedAttributesEnabled;
+  private final XattrDigestStore xattrStore;
+  private volatile int byteComparisonLimit = DEFAULT_BYTE_COMPARISON_LIMIT;
+  private final ContentComparator comparator;
+  private final FileContentReader reader;
+  private final HashScheduler scheduler;
 
   public DuplicateDetectionService() {
-    this.pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    this(ExecutionRuntime.getDefault(), false);
   }
 
+  /**
+   * 専用のランタイムを持つサービスを作成する
+   */
   public DuplicateDetectionService(int parallelism) {
-    this.pool = new ForkJoinPool(parallelism);
+    this(new ExecutionRuntime(parallelism), true);
+  }
+
+  public DuplicateDetectionService(ExecutionRuntime runtime) {
+    this(runtime, false);
+  }
+
+  private DuplicateDetectionService(ExecutionRuntime runtime, boolean ownsRuntime) {
+    this.runtime = runtime;
+    this.ownsRuntime = ownsRuntime;
+    MetricsRegistry metrics = runtime.getMetrics();
+    this.hashedFiles = metrics.counter("hash.files");
+    this.hashedBytes = metrics.counter("hash.bytes");
+    this.sampledFiles = metrics.counter("hash.sampled.files");
+    this.sampledBytes = metrics.counter("hash.sampled.bytes");
+    this.linkedFiles = metrics.counter("hash.linkedSkipped");
+    this.readLatency = metrics.histogram("hash.read", "ns");
+    this.fileLatency = metrics.histogram("hash.file", "ns");
+    this.reader = new FileContentReader(runtime.getDeviceRegistry(), metrics, readLatency);
+    this.xattrStore = new XattrDigestStore(metrics);
+    this.comparator = new ContentComparator(runtime.getIoThrottle(), metrics, readLatency);
+    this.scheduler = new HashScheduler(runtime, metrics);
+  }
+
+  public DigestAlgorithm getDigestAlgorithm() {
+    return digestAlgorithm;
+  }
+
+  /**
+   * 部分ハッシュと全体のハッシュに使うハッシュ関数を設定する
+   */
+  public void setDigestAlgorithm(DigestAlgorithm digestAlgorithm) {
+    this.digestAlgorithm = Objects.requireNonNull(digestAlgorithm);
+  }
+
+  public DigestAlgorithm getConfirmationAlgorithm() {
+    return confirmationAlgorithm;
+  }
+
+  /**
+   * 全体のハッシュが一致したファイルを、別のハッシュ関数で読み直して確認する（null で確認しない）
+   * 確認したグループの {@link DuplicateGroup#getDigest()} はこのハッシュ関数の値になる
+   */
+  public void setConfirmationAlgorithm(DigestAlgorithm confirmationAlgorithm) {
+    this.confirmationAlgorithm = confirmationAlgorithm;
+  }
+
+  public ReadBackend getReadBackend() {
+    return readBackend;
+  }
+
+  /**
+   * ファイル全体のハッシュを計算するときの読み込み方法を設定する（既定は AUTO）
+   */
+  public void setReadBackend(ReadBackend readBackend) {
+    this.readBackend = Objects.requireNonNull(readBackend);
+  }
+
+  /**
+   * ハッシュ値を保存・再利用するキャッシュ（設定されていない場合は {@link HashCache#getDefault()}）
+   */
+  public HashCache getHashCache() {
+    return hashCacheSet ? hashCache : HashCache.getDefault();
+  }
+
+  /**
+   * ハッシュ値を保存・再利用するキャッシュを設定する（null でキャッシュを使わない）
+   * 設定した場合、共有のキャッシュは作成・オープンしない
+   */
+  public void setHashCache(HashCache hashCache) {
+    this.hashCache = hashCache;
+    this.hashCacheSet = true;
+  }
+
+  public boolean isExtendedAttributesEnabled() {
+    return extendedAttributesEnabled;
+  }
+
+  /**
+   * 全体のハッシュ値を拡張属性（user.lumidisk.*）から読み込み・保存するかを設定する（既定は false）
+   * 拡張属性に対応していないファイルシステムや書き込めないファイルでは、ハッシュキャッシュのみを使う
+   */
+  public void setExtendedAttributesEnabled(boolean extendedAttributesEnabled) {
+    this.extendedAttributesEnabled = extendedAttributesEnabled;
+  }
+
+  public int getByteComparisonLimit() {
+    return byteComparisonLimit;
+  }
+
+  /**
+   * メンバーがこの件数以下のグループは、全体のハッシュを計算する代わりに内容を先頭から直接比較する
+   * 異なる内容のファイルは最初に異なる位置までしか読まず、一致したグループはハッシュの衝突なくバイト単位で同一になる。
+   * 一致したファイルのハッシュ値は比較と同時に計算して保存する。保存済みの値があるファイルを含むグループは
+   * 保存済みの値を使い、残りのファイルのみハッシュを計算する。1以下で無効、
+   * {@link #MAX_BYTE_COMPARISON_LIMIT} を超える値はその値に切り詰める
+   */
+  public void setByteComparisonLimit(int byteComparisonLimit) {
+    this.byteComparisonLimit = Math.min(byteComparisonLimit, MAX_BYTE_COMPARISON_LIMIT);
   }
 
   /**
    * ファイルリストから重複ファイルを検出する
    */
   public List<DuplicateGroup> findDuplicates(List<FileNode> files) {
+    return findDuplicates(files, new CancellationToken());
+  }
+
+  /**
+   * 中止可能な重複検出を実行する
+   * 中止された場合はハッシュ計算済みのファイルだけで重複グループを作成して返す
+   * （呼び出し側は cancellation.isCancelled() で結果が部分的かを判定する）
+   */
+  public List<DuplicateGroup> findDuplicates(List<FileNode> files, CancellationToken cancellation) {
+    try (MetricsRegistry.Run run = runtime.getMetrics().startRun("duplicates", null)) {
+      Map<ReadBackend, long[]> startTotals = reader.totals();
+      List<DuplicateGroup> duplicateGroups = findDuplicates(files, cancellation, run);
+      run.record("groups", duplicateGroups.size());
+      recordThroughput(run, startTotals);
+      if (cancellation.isCancelled()) {
+        run.markIncomplete();
+      }
+      return duplicateGroups;
+    }
+  }
+
+  private List<DuplicateGroup> findDuplicates(List<FileNode> files, CancellationToken cancellation,
+      MetricsRegistry.Run run) {
     logger.info("重複ファイル検出開始: {} ファイル", files.size());
     long startTime = System.currentTimeMillis();
 
-    // ファイルサイズでグループ化（同じサイズのファイルのみ重複の可能性がある）
+    // 1. ファイルサイズでグループ化（同じサイズのファイルのみ重複の可能性がある）
     Map<Long, List<FileNode>> sizeGroups = new HashMap<>();
     for (FileNode file : files) {
       if (!file.isDirectory() && file.getSize() > 0) {
@@ -47,50 +200,106 @@ public class DuplicateDetectionService {
       }
     }
 
-    // サイズが2つ以上のファイルのみを対象にハッシュ計算
-    List<FileNode> candidatesForHashing = new ArrayList<>();
+    // 2. 同じinodeを指すハードリンクは1件にまとめる
+    // （ここで読み込んだ属性はハッシュキャッシュの照合にも使う）
+    Map<Path, EntryAttributes> attributes = new HashMap<>();
+    List<List<FileNode>> candidates = new ArrayList<>();
+    int sizeCandidates = 0;
     for (List<FileNode> group : sizeGroups.values()) {
-      if (group.size() > 1) {
-        candidatesForHashing.addAll(group);
+      if (group.size() < 2) {
+        continue;
+      }
+      sizeCandidates += group.size();
+      for (FileNode file : group) {
+        // 以前の値が重複の判定に使われないよう消しておく
+        file.setDigest(null);
+      }
+      List<FileNode> unique = collapseHardLinks(group, attributes);
+      if (unique.size() > 1) {
+        candidates.add(unique);
       }
     }
+    logger.info("サイズが一致したファイル: {} ファイル（ハードリンクを除いて {} ファイル）",
+        sizeCandidates, countFiles(candidates));
+    run.record("files", files.size());
+    run.record("sizeCandidates", sizeCandidates);
 
-    logger.info("ハッシュ計算対象: {} ファイル", candidatesForHashing.size());
+    // 3. 大きいファイルは先頭・末尾・中間の一部だけを読んで振り分ける
+    List<List<FileNode>> sampled = new ArrayList<>();
+    List<List<FileNode>> needSampling = new ArrayList<>();
+    for (List<FileNode> group : candidates) {
+      if (group.get(0).getSize() >= SAMPLE_HASH_MIN_SIZE) {
+        needSampling.add(group);
+      } else {
+        sampled.add(group);
+      }
+    }
+    DigestAlgorithm algorithm = digestAlgorithm;
+    sampled.addAll(splitByHash(needSampling, HashStage.SAMPLE, algorithm, attributes, cancellation));
+    logger.info("ハッシュ計算対象: {} ファイル（部分ハッシュで {} ファイルを除外）",
+        countFiles(sampled), countFiles(candidates) - countFiles(sampled));
+    run.record("sampleCandidates", countFiles(needSampling));
+    run.record("fullCandidates", countFiles(sampled));
 
-    // ハッシュ計算を並列実行
-    Map<String, List<FileNode>> hashGroups = new ConcurrentHashMap<>();
-    HashCalculationTask task = new HashCalculationTask(candidatesForHashing, 0, candidatesForHashing.size());
-    pool.submit(task).join();
+    // 4. 残ったファイルのみ全体のハッシュを計算する（メンバーの少ないグループは内容を直接比較する）
+    List<List<FileNode>> exact = new ArrayList<>();
+    List<List<FileNode>> matched = splitByHash(sampled, HashStage.FULL, algorithm, attributes, cancellation,
+        null, exact);
+    List<byte[]> groupDigests = new ArrayList<>(matched.size());
+    for (List<FileNode> group : matched) {
+      groupDigests.add(group.get(0).getDigest());
+    }
+    run.record("exactGroups", exact.size());
 
-    // 結果を収集
-    for (FileNode file : candidatesForHashing) {
-      String hash = file.getHash();
-      if (hash != null) {
-        hashGroups.computeIfAbsent(hash, k -> new ArrayList<>()).add(file);
+    // 5. 指定されていれば、ハッシュで一致したファイルを別のハッシュ関数で読み直して確認する
+    // （内容を直接比較したグループは確認済み）
+    DigestAlgorithm confirmation = confirmationAlgorithm;
+    if (confirmation != null && confirmation != algorithm && !matched.isEmpty()) {
+      int matchedFiles = countFiles(matched);
+      groupDigests.clear();
+      matched = splitByHash(matched, HashStage.CONFIRM, confirmation, attributes, cancellation, groupDigests,
+          null);
+      if (countFiles(matched) < matchedFiles && !cancellation.isCancelled()) {
+        logger.warn("{} で一致したファイルのうち {} ファイルが {} の確認で除外されました",
+            algorithm, matchedFiles - countFiles(matched), confirmation);
       }
+      run.record("confirmCandidates", matchedFiles);
     }
 
     // 重複グループを作成
     List<DuplicateGroup> duplicateGroups = new ArrayList<>();
-    for (Map.Entry<String, List<FileNode>> entry : hashGroups.entrySet()) {
-      List<FileNode> duplicateFiles = entry.getValue();
-      if (duplicateFiles.size() > 1) {
-        FileNode firstFile = duplicateFiles.get(0);
-        DuplicateGroup group = new DuplicateGroup(
-            entry.getKey(),
-            firstFile.getSize(),
-            firstFile.getExtension());
-        for (FileNode file : duplicateFiles) {
-          group.addFile(file);
-        }
-        duplicateGroups.add(group);
+    for (int i = 0; i < matched.size(); i++) {
+      List<FileNode> duplicateFiles = matched.get(i);
+      FileNode firstFile = duplicateFiles.get(0);
+      DuplicateGroup group = new DuplicateGroup(
+          groupDigests.get(i),
+          firstFile.getSize(),
+          firstFile.getExtension());
+      for (FileNode file : duplicateFiles) {
+        group.addFile(file);
       }
+      duplicateGroups.add(group);
+    }
+    for (List<FileNode> duplicateFiles : exact) {
+      FileNode firstFile = duplicateFiles.get(0);
+      DuplicateGroup group = new DuplicateGroup(
+          firstFile.getDigest(),
+          firstFile.getSize(),
+          firstFile.getExtension());
+      for (FileNode file : duplicateFiles) {
+        group.addFile(file);
+      }
+      duplicateGroups.add(group);
     }
 
     // 無駄な容量順でソート
     duplicateGroups.sort((a, b) -> Long.compare(b.getWastedSpace(), a.getWastedSpace()));
 
     long endTime = System.currentTimeMillis();
+    if (cancellation.isCancelled()) {
+      logger.info("重複ファイル検出が中止されました: {} グループ（ハッシュ計算済みのファイルのみ）",
+          duplicateGroups.size());
+    }
     logger.info("重複ファイル検出完了: {} グループ, 所要時間: {} ms",
         duplicateGroups.size(), endTime - startTime);
 
@@ -98,74 +307,509 @@ public class DuplicateDetectionService {
   }
 
   /**
-   * ファイルのハッシュ値を計算する
+   * 読み込み方法ごとの読み込み速度を記録する
+   * 所要時間はファイルを開いてから閉じるまで（ハッシュの計算を含む）をスレッドごとに合計したもの
    */
-  public String calculateFileHash(Path filePath) {
+  private void recordThroughput(MetricsRegistry.Run run, Map<ReadBackend, long[]> startTotals) {
+    reader.totals().forEach((backend, total) -> {
+      long[] start = startTotals.get(backend);
+      long bytes = total[0] - start[0];
+      long nanos = total[1] - start[1];
+      if (nanos > 0) {
+        long bytesPerSecond = FileContentReader.bytesPerSecond(bytes, nanos);
+        String name = backend.name().toLowerCase(Locale.ROOT);
+        run.record("backend." + name + ".bytesPerSecond", bytesPerSecond);
+        logger.info("読み込み方法 {}: {} バイト, {} MB/s", backend, bytes, bytesPerSecond / (1024 * 1024));
+      }
+    });
+  }
+
+  private static int countFiles(List<List<FileNode>> groups) {
+    int count = 0;
+    for (List<FileNode> group : groups) {
+      count += group.size();
+    }
+    return count;
+  }
+
+  /**
+   * 同じinodeを指すハードリンクを1件にまとめる
+   * 内容が同じことは読まずに分かり、片方を削除しても容量は減らないため重複として扱わない。
+   * 読み込めた属性は attributes に追加する
+   */
+  private List<FileNode> collapseHardLinks(List<FileNode> group, Map<Path, EntryAttributes> attributes) {
+    EntryAttributes.Source source = EntryAttributes.Source.of(group.get(0).getPath().getFileSystem());
+    Set<Object> seen = new HashSet<>();
+    List<FileNode> unique = new ArrayList<>(group.size());
+    for (FileNode file : group) {
+      EntryAttributes attrs = readAttributes(file.getPath(), source);
+      if (attrs != null) {
+        attributes.put(file.getPath(), attrs);
+      }
+      Object key = attrs != null ? linkKey(attrs) : null;
+      if (key != null && !seen.add(key)) {
+        linkedFiles.increment();
+        continue;
+      }
+      unique.add(file);
+    }
+    return unique;
+  }
+
+  private EntryAttributes readAttributes(Path path, EntryAttributes.Source source) {
     try {
-      MessageDigest md = MessageDigest.getInstance("SHA-256");
-      byte[] buffer = new byte[CHUNK_SIZE];
+      runtime.getIoThrottle().acquireOperation();
+      return EntryAttributes.read(path, false, source);
+    } catch (IOException e) {
+      logger.debug("属性を読み込めないためハードリンクの判定を省略: {}", path, e);
+      return null;
+    }
+  }
+
+  /**
+   * ハードリンクを識別するキー（他にリンクがない・識別できない場合は null）
+   */
+  private static Object linkKey(EntryAttributes attrs) {
+    if (attrs.hasInode()) {
+      return attrs.linkCount() > 1 ? attrs.device() + ":" + attrs.inode() : null;
+    }
+    return attrs.fileKey();
+  }
+
+  private List<List<FileNode>> splitByHash(List<List<FileNode>> groups, HashStage stage,
+      DigestAlgorithm algorithm, Map<Path, EntryAttributes> attributes, CancellationToken cancellation) {
+    return splitByHash(groups, stage, algorithm, attributes, cancellation, null, null);
+  }
+
+  /**
+   * グループごとにハッシュを並列に計算し、同じハッシュを持つ2件以上の部分グループに分割する
+   * 保存済みのハッシュ値があるファイルは読み込まず、新たに計算した値は保存する。
+   * 全体のハッシュは FileNode にも設定する。splitDigests が指定された場合は、部分グループと同じ順に
+   * それぞれのハッシュ値を追加する。
+   * exactGroups が指定された場合、メンバーが byteComparisonLimit 件以下で保存済みのハッシュ値が1件もない
+   * グループは内容を直接比較し、一致した組を exactGroups に追加する（ハッシュ値は比較と同時に計算して保存する）
+   */
+  private List<List<FileNode>> splitByHash(List<List<FileNode>> groups, HashStage stage,
+      DigestAlgorithm algorithm, Map<Path, EntryAttributes> attributes, CancellationToken cancellation,
+      List<byte[]> splitDigests, List<List<FileNode>> exactGroups) {
+    List<FileNode> targets = new ArrayList<>();
+    for (List<FileNode> group : groups) {
+      targets.addAll(group);
+    }
+    // 部分ハッシュはファイルを移動しても再利用する価値が小さいため、拡張属性には保存しない
+    boolean useXattr = extendedAttributesEnabled && stage != HashStage.SAMPLE;
+    DigestBatch batch = new DigestBatch(targets, stage, algorithm, attributes, useXattr);
+    batch.lookup();
+
+    boolean[] compared = new boolean[targets.size()];
+    List<List<FileNode>> compareGroups = new ArrayList<>();
+    List<Integer> compareOffsets = new ArrayList<>();
+    int limit = byteComparisonLimit;
+    if (exactGroups != null && limit > 1) {
+      int index = 0;
+      for (List<FileNode> group : groups) {
+        // 1件でも保存済みの値があれば、残りのファイルだけを読んでハッシュで照合するほうが読み込みが少ない
+        if (group.size() <= limit && !batch.isAnyStored(index, group.size())) {
+          Arrays.fill(compared, index, index + group.size(), true);
+          compareGroups.add(group);
+          compareOffsets.add(index);
+        }
+        index += group.size();
+      }
+    }
+    batch.compute(compared, cancellation);
+    if (!compareGroups.isEmpty()) {
+      logger.info("内容を直接比較: {} グループ, {} ファイル", compareGroups.size(), countFiles(compareGroups));
+      exactGroups.addAll(compareContents(compareGroups, compareOffsets, algorithm, batch.targetAttributes,
+          batch.digests, cancellation));
+    }
+    // 比較で最後まで読んだファイルのハッシュ値も保存し、次回は読み込まずに照合する
+    batch.save();
+
+    List<List<FileNode>> split = new ArrayList<>();
+    int index = 0;
+    for (List<FileNode> group : groups) {
+      if (compared[index]) {
+        // 比較で一致したファイルには同時に計算したハッシュ値を設定する
+        for (FileNode file : group) {
+          byte[] digest = batch.digests[index++];
+          if (stage == HashStage.FULL) {
+            file.setDigest(digest);
+          }
+        }
+        continue;
+      }
+      // ByteBuffer は内容で比較されるため、バイト列をそのままキーにできる
+      Map<ByteBuffer, List<FileNode>> digestGroups = new HashMap<>();
+      for (FileNode file : group) {
+        byte[] digest = batch.digests[index++];
+        if (stage == HashStage.FULL) {
+          file.setDigest(digest);
+        }
+        if (digest != null) {
+          digestGroups.computeIfAbsent(ByteBuffer.wrap(digest), k -> new ArrayList<>()).add(file);
+        }
+      }
+      for (Map.Entry<ByteBuffer, List<FileNode>> entry : digestGroups.entrySet()) {
+        if (entry.getValue().size() > 1) {
+          split.add(entry.getValue());
+          if (splitDigests != null) {
+            splitDigests.add(entry.getKey().array());
+          }
+        }
+      }
+    }
+    return split;
+  }
 
-      try (var inputStream = Files.newInputStream(filePath)) {
-        int bytesRead;
-        while ((bytesRead = inputStream.read(buffer)) != -1) {
-          md.update(buffer, 0, bytesRead);
+  /**
+   * グループごとに内容を並列に直接比較し、バイト単位で一致する2件以上の組を返す
+   * グループを1単位として先頭のファイルのデバイスの待ち行列に入れ、ハッシュの計算と同じ順序・並列度で読み込む。
+   * 一致したファイルのハッシュ値は、digests の offsets（グループの先頭の位置）からの位置に設定する
+   */
+  private List<List<FileNode>> compareContents(List<List<FileNode>> groups, List<Integer> offsets,
+      DigestAlgorithm algorithm, EntryAttributes[] attributes, byte[][] digests, CancellationToken cancellation) {
+    List<Path> firstPaths = new ArrayList<>(groups.size());
+    long[] sizes = new long[groups.size()];
+    EntryAttributes[] firstAttributes = new EntryAttributes[groups.size()];
+    for (int i = 0; i < groups.size(); i++) {
+      firstPaths.add(groups.get(i).get(0).getPath());
+      sizes[i] = groups.get(i).get(0).getSize();
+      firstAttributes[i] = attributes[offsets.get(i)];
+    }
+    // 各タスクは自分の位置だけを書き換えるため、要素数を固定したリストを共有する
+    List<List<List<Integer>>> results = new ArrayList<>(Collections.nCopies(groups.size(), null));
+    try (ExecutionRuntime.Job job = runtime.openJob(ExecutionRuntime.JobType.HASH)) {
+      scheduler.execute(job, firstPaths, sizes, firstAttributes, true, cancellation, i -> {
+        List<Path> paths = new ArrayList<>(groups.get(i).size());
+        for (FileNode file : groups.get(i)) {
+          paths.add(file.getPath());
+        }
+        byte[][] groupDigests = new byte[paths.size()][];
+        results.set(i, comparator.compare(paths, sizes[i], algorithm, groupDigests, cancellation));
+        System.arraycopy(groupDigests, 0, digests, offsets.get(i), paths.size());
+      });
+    }
+    List<List<FileNode>> exact = new ArrayList<>();
+    for (int i = 0; i < groups.size(); i++) {
+      if (results.get(i) == null) {
+        continue;
+      }
+      for (List<Integer> members : results.get(i)) {
+        List<FileNode> files = new ArrayList<>(members.size());
+        for (int member : members) {
+          files.add(groups.get(i).get(member));
         }
+        exact.add(files);
       }
+    }
+    return exact;
+  }
+
+  /**
+   * 1つの段階でハッシュ値を求めるファイルの集まり
+   * 拡張属性・ハッシュキャッシュの順に保存済みの値を探し（lookup）、見つからないファイルのみ読み込んで計算し（compute）、
+   * 新たに計算した値を拡張属性に、書き込めなかったものをハッシュキャッシュに保存する（save）
+   */
+  private class DigestBatch {
+    private final List<FileNode> targets;
+    private final HashStage stage;
+    private final DigestAlgorithm algorithm;
+    private final boolean useXattr;
+    private final HashCache cache = getHashCache();
+    private final String kind;
+    private final List<Path> paths;
+    private final EntryAttributes[] targetAttributes;
+    private final byte[][] digests; // targets と同じ位置に格納する（計算できなかった位置は null）
+    private final boolean[] inXattr; // 拡張属性から取得した値
+    private final boolean[] stored; // 拡張属性かキャッシュから取得した値
 
-      byte[] hashBytes = md.digest();
-      StringBuilder sb = new StringBuilder();
-      for (byte b : hashBytes) {
-        sb.append(String.format("%02x", b));
+    DigestBatch(List<FileNode> targets, HashStage stage, DigestAlgorithm algorithm,
+        Map<Path, EntryAttributes> attributes, boolean useXattr) {
+      this.targets = targets;
+      this.stage = stage;
+      this.algorithm = algorithm;
+      this.useXattr = useXattr;
+      this.kind = cacheKind(stage, algorithm);
+      this.paths = new ArrayList<>(targets.size());
+      this.targetAttributes = new EntryAttributes[targets.size()];
+      for (int i = 0; i < targets.size(); i++) {
+        paths.add(targets.get(i).getPath());
+        targetAttributes[i] = attributes.get(paths.get(i));
       }
-      return sb.toString();
-    } catch (NoSuchAlgorithmException | IOException e) {
+      this.digests = new byte[targets.size()][];
+      this.inXattr = new boolean[targets.size()];
+      this.stored = new boolean[targets.size()];
+    }
+
+    void lookup() {
+      if (targets.isEmpty() || (!useXattr && cache == null)) {
+        return;
+      }
+      int fromXattr = useXattr ? xattrStore.lookup(kind, paths, targetAttributes, digests) : 0;
+      for (int i = 0; i < digests.length; i++) {
+        inXattr[i] = digests[i] != null;
+      }
+      int fromCache = cache != null ? cache.lookup(kind, paths, targetAttributes, digests) : 0;
+      for (int i = 0; i < digests.length; i++) {
+        stored[i] = digests[i] != null;
+      }
+      logger.info("保存済みのハッシュ値（{}）: {} / {} ファイル（拡張属性 {}、キャッシュ {}）",
+          kind, fromXattr + fromCache, targets.size(), fromXattr, fromCache);
+    }
+
+    /**
+     * start から count 件のいずれかに保存済みの値があるか
+     */
+    boolean isAnyStored(int start, int count) {
+      for (int i = start; i < start + count; i++) {
+        if (stored[i]) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * 値がない位置のハッシュを並列に計算する（skip が true の位置は計算しない）
+     */
+    void compute(boolean[] skip, CancellationToken cancellation) {
+      List<Path> pendingPaths = new ArrayList<>();
+      List<Integer> positions = new ArrayList<>();
+      for (int i = 0; i < targets.size(); i++) {
+        if (digests[i] == null && !skip[i]) {
+          positions.add(i);
+          pendingPaths.add(paths.get(i));
+        }
+      }
+      if (positions.isEmpty()) {
+        return;
+      }
+      long[] sizes = new long[positions.size()];
+      EntryAttributes[] pendingAttributes = new EntryAttributes[positions.size()];
+      for (int i = 0; i < sizes.length; i++) {
+        sizes[i] = targets.get(positions.get(i)).getSize();
+        pendingAttributes[i] = targetAttributes[positions.get(i)];
+      }
+      try (ExecutionRuntime.Job job = runtime.openJob(ExecutionRuntime.JobType.HASH)) {
+        // 各タスクは自分の位置だけを書き換える
+        scheduler.execute(job, pendingPaths, sizes, pendingAttributes, stage != HashStage.SAMPLE, cancellation,
+            i -> digests[positions.get(i)] = stage == HashStage.SAMPLE
+                ? calculateSampleHash(pendingPaths.get(i), sizes[i], algorithm, cancellation)
+                : calculateFileHash(pendingPaths.get(i), sizes[i], algorithm, cancellation));
+      }
+    }
+
+    /**
+     * 新たに計算した値を保存する
+     *
+     * @return 新たに拡張属性に書き込んだ件数
+     */
+    int save() {
+      if (targets.isEmpty()) {
+        return 0;
+      }
+      boolean[] skipCache = stored.clone();
+      int stamped = 0;
+      if (useXattr) {
+        // キャッシュから取得した値も、まだ拡張属性になければ書き込む
+        boolean[] handled = inXattr.clone();
+        xattrStore.store(kind, paths, targetAttributes, digests, handled);
+        for (int i = 0; i < digests.length; i++) {
+          if (handled[i] && !inXattr[i]) {
+            stamped++;
+            // 拡張属性に書き込めた値はキャッシュに重ねて保存しない
+            skipCache[i] = true;
+          }
+        }
+      }
+      if (cache != null) {
+        cache.store(kind, paths, targetAttributes, digests, skipCache);
+      }
+      return stamped;
+    }
+  }
+
+  /**
+   * ファイルの全体のハッシュ値を計算し、拡張属性に保存する
+   * すでに有効な値が保存されているファイルは読み込まない。ハッシュキャッシュに値があれば読み込まずに書き込む
+   *
+   * @return 新たに拡張属性に書き込んだファイル数
+   */
+  public int stampHashes(List<FileNode> files, CancellationToken cancellation) {
+    try (MetricsRegistry.Run run = runtime.getMetrics().startRun("stamp", null)) {
+      logger.info("ハッシュ値の書き込み開始: {} ファイル", files.size());
+      long startTime = System.currentTimeMillis();
+      Map<Path, EntryAttributes> attributes = new HashMap<>();
+      List<FileNode> targets = new ArrayList<>();
+      int unsupported = 0;
+      for (FileNode file : files) {
+        if (file.isDirectory() || file.getSize() == 0) {
+          continue;
+        }
+        Path path = file.getPath();
+        EntryAttributes attrs = readAttributes(path, EntryAttributes.Source.of(path.getFileSystem()));
+        if (attrs == null) {
+          continue;
+        }
+        if (!xattrStore.isSupported(path, attrs)) {
+          unsupported++;
+          continue;
+        }
+        attributes.put(path, attrs);
+        targets.add(file);
+      }
+
+      DigestBatch batch = new DigestBatch(targets, HashStage.FULL, digestAlgorithm, attributes, true);
+      batch.lookup();
+      batch.compute(new boolean[targets.size()], cancellation);
+      int count = batch.save();
+
+      run.record("files", files.size());
+      run.record("targets", targets.size());
+      run.record("stamped", count);
+      run.record("unsupported", unsupported);
+      if (cancellation.isCancelled()) {
+        run.markIncomplete();
+      }
+      logger.info("ハッシュ値の書き込み完了: {} / {} ファイル（拡張属性に非対応 {}）, 所要時間: {} ms",
+          count, targets.size(), unsupported, System.currentTimeMillis() - startTime);
+      return count;
+    }
+  }
+
+  /**
+   * ハッシュキャッシュに保存するときの種類（部分ハッシュは読むブロックの配置も含めて区別する）
+   */
+  private static String cacheKind(HashStage stage, DigestAlgorithm algorithm) {
+    if (stage == HashStage.SAMPLE) {
+      return algorithm.name() + ":sample-" + SAMPLE_BLOCK_SIZE + "x" + SAMPLE_MIDDLE_BLOCKS;
+    }
+    return algorithm.name();
+  }
+
+  /**
+   * 設定されたハッシュ関数でファイルのハッシュ値を計算し、16進表記で返す
+   */
+  public String calculateFileHash(Path filePath) {
+    long size;
+    try {
+      size = Files.size(filePath);
+    } catch (IOException e) {
       logger.error("ハッシュ計算エラー: {}", filePath, e);
       return null;
     }
+    byte[] digest = calculateFileHash(filePath, size, digestAlgorithm, new CancellationToken());
+    return digest != null ? HexFormat.of().formatHex(digest) : null;
   }
 
   /**
-   * ハッシュ計算を並列実行するためのタスク
+   * ファイルのハッシュ値を計算する（中止された場合は読み込みを打ち切って null を返す）
    */
-  private class HashCalculationTask extends RecursiveTask<Void> {
-    private final List<FileNode> files;
-    private final int start;
-    private final int end;
-    private static final int THRESHOLD = 10; // 閾値以下は並列化しない
+  private byte[] calculateFileHash(Path filePath, long size, DigestAlgorithm algorithm,
+      CancellationToken cancellation) {
+    try {
+      DigestAlgorithm.Hasher hasher = algorithm.newHasher();
+      IoThrottle throttle = runtime.getIoThrottle();
 
-    public HashCalculationTask(List<FileNode> files, int start, int end) {
-      this.files = files;
-      this.start = start;
-      this.end = end;
+      throttle.acquireOperation();
+      long fileStart = System.nanoTime();
+      ReadBackend backend = reader.select(readBackend, filePath, size);
+      boolean completed = reader.read(filePath, backend, chunk -> {
+        if (cancellation.isCancelled()) {
+          return false;
+        }
+        throttle.acquireBytes(chunk.remaining());
+        hashedBytes.add(chunk.remaining());
+        hasher.update(chunk);
+        return true;
+      });
+      if (!completed) {
+        return null;
+      }
+      fileLatency.recordSince(fileStart);
+      hashedFiles.increment();
+
+      return hasher.digest();
+    } catch (IOException e) {
+      logger.error("ハッシュ計算エラー: {}", filePath, e);
+      return null;
     }
+  }
 
-    @Override
-    protected Void compute() {
-      if (end - start <= THRESHOLD) {
-        // 閾値以下の場合は直接処理
-        for (int i = start; i < end; i++) {
-          FileNode file = files.get(i);
-          String hash = calculateFileHash(file.getPath());
-          file.setHash(hash);
-        }
-      } else {
-        // 閾値より大きい場合は分割して並列処理
-        int mid = (start + end) / 2;
-        HashCalculationTask leftTask = new HashCalculationTask(files, start, mid);
-        HashCalculationTask rightTask = new HashCalculationTask(files, mid, end);
+  /**
+   * 先頭・末尾と中間の数ブロックだけからハッシュ値を計算する
+   * 同じサイズでも内容の異なるファイル（動画や仮想マシンのイメージなど）は、ほとんどがここで区別できる
+   */
+  private byte[] calculateSampleHash(Path filePath, long size, DigestAlgorithm algorithm,
+      CancellationToken cancellation) {
+    try {
+      DigestAlgorithm.Hasher hasher = algorithm.newHasher();
+      ByteBuffer buffer = ByteBuffer.allocate(SAMPLE_BLOCK_SIZE);
+      IoThrottle throttle = runtime.getIoThrottle();
 
-        leftTask.fork();
-        rightTask.compute();
-        leftTask.join();
+      throttle.acquireOperation();
+      try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+        for (long offset : sampleOffsets(size)) {
+          if (cancellation.isCancelled()) {
+            return null;
+          }
+          buffer.clear();
+          long readStart = System.nanoTime();
+          int read;
+          do {
+            read = channel.read(buffer, offset + buffer.position());
+          } while (read > 0 && buffer.hasRemaining());
+          readLatency.recordSince(readStart);
+          throttle.acquireBytes(buffer.position());
+          sampledBytes.add(buffer.position());
+          buffer.flip();
+          hasher.update(buffer);
+        }
       }
+      sampledFiles.increment();
+
+      return hasher.digest();
+    } catch (IOException e) {
+      logger.error("部分ハッシュ計算エラー: {}", filePath, e);
       return null;
     }
   }
 
+  /**
+   * 部分ハッシュで読むブロックの位置（先頭・均等に配置した中間・末尾。ブロック境界に揃える）
+   */
+  static long[] sampleOffsets(long size) {
+    long last = Math.max(0, size - SAMPLE_BLOCK_SIZE);
+    long[] offsets = new long[SAMPLE_MIDDLE_BLOCKS + 2];
+    offsets[0] = 0;
+    for (int i = 1; i <= SAMPLE_MIDDLE_BLOCKS; i++) {
+      long middle = size / (SAMPLE_MIDDLE_BLOCKS + 1) * i;
+      offsets[i] = Math.min(last, middle - middle % SAMPLE_BLOCK_SIZE);
+    }
+    offsets[offsets.length - 1] = last;
+    return offsets;
+  }
+
+  /**
+   * ハッシュを計算する段階
+   */
+  private enum HashStage {
+    /** 先頭・末尾・中間の一部のみ */
+    SAMPLE,
+    /** ファイル全体 */
+    FULL,
+    /** ファイル全体（確認用のハッシュ関数。FileNode には設定しない） */
+    CONFIRM
+  }
+
   /**
    * リソースを解放する
+   * 共有ランタイムを使用している場合は何もしない
    */
   public void shutdown() {
-    pool.shutdown();
+    if (ownsRuntime) {
+      runtime.shutdown();
+    }
   }
 }
@@ -0,0 +1,156 @@
+package com.example.diskanalyzer.service;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+
+/**
+ * 走査に必要なエントリの属性
+ * サイズ・更新日時・種類・隠し属性・デバイス・inode・リンク数を、ファイルシステムが対応する
+ * 属性ビューから1回の呼び出し（1回の stat / GetFileAttributesEx）でまとめて取得する。
+ * 隠し属性は Files.isHidden を呼ばず、Unix では名前から、Windows では取得済みのDOS属性から判定する
+ */
+class EntryAttributes {
+  private static final String UNIX_ATTRIBUTES = "unix:size,lastModifiedTime,isDirectory,dev,ino,nlink";
+  private static final String DOS_ATTRIBUTES = "dos:size,lastModifiedTime,isDirectory,fileKey,hidden";
+  private static final LinkOption[] NOFOLLOW = {LinkOption.NOFOLLOW_LINKS};
+  private static final LinkOption[] FOLLOW = {};
+
+  private final long size;
+  private final FileTime modified;
+  private final boolean directory;
+  private final boolean hidden;
+  private final long device; // 取得できない場合は DeviceRegistry.UNKNOWN_DEVICE
+  private final long inode;
+  private final int linkCount;
+  private final Object fileKey; // unix ビューがない場合の同一性判定用（null の場合あり）
+
+  private EntryAttributes(long size, FileTime modified, boolean directory, boolean hidden, long device,
+      long inode, int linkCount, Object fileKey) {
+    this.size = size;
+    this.modified = modified;
+    this.directory = directory;
+    this.hidden = hidden;
+    this.device = device;
+    this.inode = inode;
+    this.linkCount = linkCount;
+    this.fileKey = fileKey;
+  }
+
+  /**
+   * 取得済みの値から作成する（ネイティブのディレクトリ読み込み用）
+   */
+  static EntryAttributes of(long size, FileTime modified, boolean directory, boolean hidden, long device,
+      long inode, int linkCount) {
+    return new EntryAttributes(size, modified, directory, hidden, device, inode, linkCount, null);
+  }
+
+  /**
+   * 属性の取得に使うビュー（ファイルシステムごとに1回だけ判定する）
+   */
+  enum Source {
+    UNIX,
+    DOS,
+    BASIC;
+
+    static Source of(FileSystem fileSystem) {
+      if (fileSystem.supportedFileAttributeViews().contains("unix")) {
+        return UNIX;
+      }
+      if (fileSystem.supportedFileAttributeViews().contains("dos")) {
+        return DOS;
+      }
+      return BASIC;
+    }
+  }
+
+  /**
+   * エントリの属性をまとめて読み込む
+   */
+  static EntryAttributes read(Path path, boolean followLinks, Source source) throws IOException {
+    LinkOption[] options = followLinks ? FOLLOW : NOFOLLOW;
+    switch (source) {
+      case UNIX: {
+        Map<String, Object> attrs = Files.readAttributes(path, UNIX_ATTRIBUTES, options);
+        return new EntryAttributes(
+            (Long) attrs.get("size"),
+            (FileTime) attrs.get("lastModifiedTime"),
+            (Boolean) attrs.get("isDirectory"),
+            isHiddenName(path),
+            (Long) attrs.get("dev"),
+            (Long) attrs.get("ino"),
+            (Integer) attrs.get("nlink"),
+            null);
+      }
+      case DOS: {
+        Map<String, Object> attrs = Files.readAttributes(path, DOS_ATTRIBUTES, options);
+        return new EntryAttributes(
+            (Long) attrs.get("size"),
+            (FileTime) attrs.get("lastModifiedTime"),
+            (Boolean) attrs.get("isDirectory"),
+            (Boolean) attrs.get("hidden"),
+            DeviceRegistry.UNKNOWN_DEVICE,
+            0,
+            1,
+            attrs.get("fileKey"));
+      }
+      default: {
+        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class, options);
+        return new EntryAttributes(attrs.size(), attrs.lastModifiedTime(), attrs.isDirectory(),
+            isHiddenName(path), DeviceRegistry.UNKNOWN_DEVICE, 0, 1, attrs.fileKey());
+      }
+    }
+  }
+
+  /**
+   * 名前が '.' で始まるか（Unix での隠しファイルの判定。ファイルシステムへのアクセスなし）
+   */
+  static boolean isHiddenName(Path path) {
+    Path name = path.getFileName();
+    return name != null && name.toString().startsWith(".");
+  }
+
+  long size() {
+    return size;
+  }
+
+  FileTime lastModifiedTime() {
+    return modified;
+  }
+
+  boolean isDirectory() {
+    return directory;
+  }
+
+  boolean isHidden() {
+    return hidden;
+  }
+
+  long device() {
+    return device;
+  }
+
+  long inode() {
+    return inode;
+  }
+
+  int linkCount() {
+    return linkCount;
+  }
+
+  Object fileKey() {
+    return fileKey;
+  }
+
+  /**
+   * デバイスとinodeを取得できたか
+   */
+  boolean hasInode() {
+    return device != DeviceRegistry.UNKNOWN_DEVICE;
+  }
+}
@@ -0,0 +1,251 @@
+package com.example.diskanalyzer.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * アプリケーション全体で共有する並列実行ランタイム
+ * スレッド数の上限を一元管理し、スキャン・ハッシュ計算・エクスポートなどのジョブが
+ * 同時に走る場合はジョブ間でワーカーを公平に分配する。
+ * ファイルシステムへのアクセス量の上限（{@link IoThrottle}）と計測値（{@link MetricsRegistry}）もジョブ間で共有する
+ */
+public class ExecutionRuntime {
+  private static final Logger logger = LoggerFactory.getLogger(ExecutionRuntime.class);
+  private static final AtomicInteger RUNTIME_COUNTER = new AtomicInteger(0);
+
+  private final ForkJoinPool pool;
+  private final int parallelism;
+  private final Set<Job> activeJobs = ConcurrentHashMap.newKeySet();
+  private final ThreadLocal<Job> currentJob = new ThreadLocal<>();
+  private final IoThrottle ioThrottle = IoThrottle.fromSystemProperties();
+  private final DeviceRegistry deviceRegistry;
+  private final MetricsRegistry metrics;
+
+  /**
+   * 遅延初期化される共有インスタンス
+   */
+  private static class DefaultHolder {
+    private static final ExecutionRuntime INSTANCE =
+        new ExecutionRuntime(Runtime.getRuntime().availableProcessors(), "default");
+  }
+
+  public ExecutionRuntime(int parallelism) {
+    this(parallelism, "runtime-" + RUNTIME_COUNTER.incrementAndGet());
+  }
+
+  private ExecutionRuntime(int parallelism, String name) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+    }
+    this.parallelism = parallelism;
+    this.pool = new ForkJoinPool(parallelism, new WorkerThreadFactory(), null, false);
+    this.deviceRegistry = new DeviceRegistry(parallelism);
+    this.metrics = new MetricsRegistry(name);
+    metrics.gauge("runtime.queuedTasks", () -> pool.getQueuedTaskCount() + pool.getQueuedSubmissionCount());
+    metrics.gauge("runtime.activeThreads", pool::getActiveThreadCount);
+    metrics.gauge("runtime.activeJobs", activeJobs::size);
+    metrics.registerMBean();
+    logger.info("実行ランタイム初期化: 並列度 {}", parallelism);
+  }
+
+  /**
+   * アプリケーション共通のランタイムを取得する
+   */
+  public static ExecutionRuntime getDefault() {
+    return DefaultHolder.INSTANCE;
+  }
+
+  public int getParallelism() {
+    return parallelism;
+  }
+
+  /**
+   * このランタイム上のジョブが共有するI/Oスロットルを取得する
+   * 上限は実行中のジョブにも即座に反映される
+   */
+  public IoThrottle getIoThrottle() {
+    return ioThrottle;
+  }
+
+  /**
+   * デバイスごとのワーカー割り当て（同じランタイム上のスキャンで共有する）
+   */
+  DeviceRegistry getDeviceRegistry() {
+    return deviceRegistry;
+  }
+
+  /**
+   * このランタイム上のジョブが記録する計測値を取得する
+   * JMX（com.example.diskanalyzer:type=Metrics）でも公開される
+   */
+  public MetricsRegistry getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * ジョブを開始する
+   * 終了時は必ず close() を呼び出すこと（try-with-resources を推奨）
+   */
+  public Job openJob(JobType type) {
+    Job job = new Job(type);
+    activeJobs.add(job);
+    logger.debug("ジョブ開始: {} (実行中ジョブ数: {})", type, activeJobs.size());
+    return job;
+  }
+
+  /**
+   * タスクを共有プールで実行し、完了まで待機する
+   */
+  public <T> T invoke(ForkJoinTask<T> task) {
+    return pool.invoke(task);
+  }
+
+  /**
+   * 処理を共有プールで実行し、完了まで待機する
+   */
+  public void invoke(Runnable action) {
+    pool.invoke(ForkJoinTask.adapt(action));
+  }
+
+  /**
+   * 実行中のジョブ数を取得する
+   */
+  public int getActiveJobCount() {
+    return activeJobs.size();
+  }
+
+  /**
+   * ランタイムを停止する
+   * 共有インスタンスはアプリケーション終了まで停止しない
+   */
+  public void shutdown() {
+    if (this == DefaultHolder.INSTANCE) {
+      logger.warn("共有ランタイムは停止できません");
+      return;
+    }
+    pool.shutdown();
+    metrics.unregisterMBean();
+  }
+
+  /**
+   * 並列ジョブ1件あたりに割り当てるワーカー数を計算する
+   * 逐次ジョブ（エクスポート）は呼び出し元のスレッドで実行し共有プールのワーカーを使わないため、
+   * プールのワーカーを並列ジョブだけで等分する
+   */
+  private int fairShare() {
+    int parallelJobs = 0;
+    for (Job job : activeJobs) {
+      if (job.type.isParallel()) {
+        parallelJobs++;
+      }
+    }
+    if (parallelJobs == 0) {
+      return parallelism;
+    }
+    return Math.max(1, parallelism / parallelJobs);
+  }
+
+  /**
+   * ジョブの種類
+   */
+  public enum JobType {
+    SCAN(true),
+    INCREMENTAL_SCAN(true),
+    HASH(true),
+    EXPORT(false);
+
+    private final boolean parallel;
+
+    JobType(boolean parallel) {
+      this.parallel = parallel;
+    }
+
+    public boolean isParallel() {
+      return parallel;
+    }
+  }
+
+  /**
+   * ランタイム上で実行される1件のジョブ
+   * ジョブを実行中のワーカー数を数え、公平な割り当てを超えないようにfork可否を判断する
+   */
+  public final class Job implements AutoCloseable {
+    private final JobType type;
+    private final AtomicInteger activeWorkers = new AtomicInteger(0);
+
+    private Job(JobType type) {
+      this.type = type;
+    }
+
+    public JobType getType() {
+      return type;
+    }
+
+    /**
+     * 現在のスレッドでこのジョブの処理を開始する
+     * 戻り値は exit() にそのまま渡すこと
+     */
+    public Job enter() {
+      Job previous = currentJob.get();
+      if (previous != this) {
+        currentJob.set(this);
+        activeWorkers.incrementAndGet();
+      }
+      return previous;
+    }
+
+    /**
+     * enter() で開始した処理を終了する
+     */
+    public void exit(Job previous) {
+      if (previous == this) {
+        return;
+      }
+      activeWorkers.decrementAndGet();
+      if (previous == null) {
+        currentJob.remove();
+      } else {
+        currentJob.set(previous);
+      }
+    }
+
+    /**
+     * 新しいサブタスクをforkしてよいか判定する
+     * 他のジョブが走っていない場合は常にforkを許可する
+     */
+    public boolean canFork() {
+      if (activeJobs.size() <= 1) {
+        return true;
+      }
+      return activeWorkers.get() < fairShare();
+    }
+
+    @Override
+    public void close() {
+      activeJobs.remove(this);
+      logger.debug("ジョブ終了: {} (実行中ジョブ数: {})", type, activeJobs.size());
+    }
+  }
+
+  /**
+   * ワーカースレッドに識別しやすい名前を付けるファクトリ
+   */
+  private static class WorkerThreadFactory implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+    private final AtomicInteger counter = new AtomicInteger(0);
+
+    @Override
+    public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+      ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+      thread.setName("lumidisk-worker-" + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
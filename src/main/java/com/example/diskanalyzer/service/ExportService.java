@@ -2,6 +2,8 @@ package com.example.diskanalyzer.service;
 
 import com.example.diskanalyzer.model.FileNode;
 import com.example.diskanalyzer.model.ScanResult;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import org.slf4j.Logger;
@@ -9,9 +11,11 @@ import org.slf4j.LoggerFactory;
 
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
+import java.util.concurrent.CancellationException;
 
 /**
  * スキャン結果のエクスポートサービス
@@ -20,27 +24,66 @@ public class ExportService {
   private static final Logger logger = LoggerFactory.getLogger(ExportService.class);
   private static final DateTimeFormatter ISO_FORMATTER = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
 
+  private final ExecutionRuntime runtime;
+
+  public ExportService() {
+    this(ExecutionRuntime.getDefault());
+  }
+
+  /**
+   * エクスポート中はランタイムにジョブとして登録し、他の並列ジョブの割り当てを調整させる
+   */
+  public ExportService(ExecutionRuntime runtime) {
+    this.runtime = runtime;
+  }
+
   /**
    * CSV形式でエクスポート
    */
   public void exportToCsv(ScanResult scanResult, Path outputPath) throws IOException {
+    exportToCsv(scanResult, outputPath, new CancellationToken());
+  }
+
+  /**
+   * 中止可能なCSVエクスポート
+   * ディレクトリの行を書き出す前に中止を確認し、中止された場合は書きかけのファイルを削除して
+   * CancellationException を投げる
+   */
+  public void exportToCsv(ScanResult scanResult, Path outputPath, CancellationToken cancellation)
+      throws IOException {
     logger.info("CSVエクスポート開始: {}", outputPath);
 
-    try (FileWriter writer = new FileWriter(outputPath.toFile())) {
-      // ヘッダー行
-      writer.write("path,type,size_bytes,modified_iso,ext,is_hidden\n");
-
-      // データ行
-      for (FileNode file : scanResult.getFiles()) {
-        writer.write(String.format("%s,%s,%d,%s,%s,%s\n",
-            escapeCsv(file.getPath().toString()),
-            file.isDirectory() ? "dir" : "file",
-            file.getSize(),
-            file.getModifiedDateTime().format(ISO_FORMATTER),
-            escapeCsv(file.getExtension()),
-            file.isHidden()));
+    long rows = 0;
+    try (MetricsRegistry.Run run = runtime.getMetrics().startRun("export-csv", outputPath);
+        ExecutionRuntime.Job job = runtime.openJob(ExecutionRuntime.JobType.EXPORT);
+        FileWriter writer = new FileWriter(outputPath.toFile())) {
+      // 書き出しは共有プールを使わずこのスレッドで行う（他のジョブのワーカーの割り当ては減らさない）
+      ExecutionRuntime.Job previous = job.enter();
+      try {
+        // ヘッダー行
+        writer.write("path,type,size_bytes,modified_iso,ext,is_hidden\n");
+
+        // データ行
+        for (FileNode file : scanResult.getFiles()) {
+          if (file.isDirectory() && cancellation.isCancelled()) {
+            break;
+          }
+          writer.write(String.format("%s,%s,%d,%s,%s,%s\n",
+              escapeCsv(file.getPath().toString()),
+              file.isDirectory() ? "dir" : "file",
+              file.getSize(),
+              file.getModifiedDateTime().format(ISO_FORMATTER),
+              escapeCsv(file.getExtension()),
+              file.isHidden()));
+          rows++;
+        }
+        writer.flush();
+      } finally {
+        job.exit(previous);
       }
+      recordExport(run, outputPath, rows, cancellation);
     }
+    discardIfCancelled(outputPath, cancellation);
 
     logger.info("CSVエクスポート完了: {} 件", scanResult.getFiles().size());
   }
@@ -49,24 +92,86 @@ public class ExportService {
    * JSON形式でエクスポート
    */
   public void exportToJson(ScanResult scanResult, Path outputPath) throws IOException {
+    exportToJson(scanResult, outputPath, new CancellationToken());
+  }
+
+  /**
+   * 中止可能なJSONエクスポート
+   * ExportData と同じ構造をエントリ単位で書き出し、ディレクトリの前で中止を確認する。
+   * 中止された場合は書きかけのファイルを削除して CancellationException を投げる
+   */
+  public void exportToJson(ScanResult scanResult, Path outputPath, CancellationToken cancellation)
+      throws IOException {
     logger.info("JSONエクスポート開始: {}", outputPath);
 
     ObjectMapper mapper = new ObjectMapper();
     mapper.enable(SerializationFeature.INDENT_OUTPUT);
+    mapper.disable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE); // エントリごとにフラッシュしない
 
-    ExportData exportData = new ExportData(
-        scanResult.getFiles(),
-        scanResult.getExtensionStats(),
-        scanResult.getTotalSize(),
-        scanResult.getTotalFiles(),
-        scanResult.getTotalDirectories(),
-        scanResult.getScanDuration());
-
-    mapper.writeValue(outputPath.toFile(), exportData);
+    long rows = 0;
+    try (MetricsRegistry.Run run = runtime.getMetrics().startRun("export-json", outputPath);
+        ExecutionRuntime.Job job = runtime.openJob(ExecutionRuntime.JobType.EXPORT);
+        JsonGenerator generator = mapper.getFactory().createGenerator(outputPath.toFile(), JsonEncoding.UTF8)) {
+      ExecutionRuntime.Job previous = job.enter();
+      try {
+        generator.useDefaultPrettyPrinter();
+        generator.writeStartObject();
+        generator.writeArrayFieldStart("files");
+        for (FileNode file : scanResult.getFiles()) {
+          if (file.isDirectory() && cancellation.isCancelled()) {
+            break;
+          }
+          mapper.writeValue(generator, file);
+          rows++;
+        }
+        generator.writeEndArray();
+        generator.writeFieldName("extensionStats");
+        mapper.writeValue(generator, scanResult.getExtensionStats());
+        generator.writeNumberField("totalSize", scanResult.getTotalSize());
+        generator.writeNumberField("apparentSize", scanResult.getApparentSize());
+        generator.writeNumberField("totalFiles", scanResult.getTotalFiles());
+        generator.writeNumberField("totalDirectories", scanResult.getTotalDirectories());
+        generator.writeNumberField("scanDuration", scanResult.getScanDuration());
+        generator.writeEndObject();
+        generator.flush();
+      } finally {
+        job.exit(previous);
+      }
+      recordExport(run, outputPath, rows, cancellation);
+    }
+    discardIfCancelled(outputPath, cancellation);
 
     logger.info("JSONエクスポート完了: {} 件", scanResult.getFiles().size());
   }
 
+  /**
+   * 書き出した行数とバイト数を計測値に記録する（出力をフラッシュした後に呼び出す）
+   */
+  private void recordExport(MetricsRegistry.Run run, Path outputPath, long rows, CancellationToken cancellation)
+      throws IOException {
+    long bytes = Files.size(outputPath);
+    MetricsRegistry metrics = runtime.getMetrics();
+    metrics.counter("export.rows").add(rows);
+    metrics.counter("export.bytesSerialized").add(bytes);
+    run.record("rows", rows);
+    run.record("bytes", bytes);
+    if (cancellation.isCancelled()) {
+      run.markIncomplete();
+    }
+  }
+
+  /**
+   * 中止された場合は途中までの出力を削除する（不完全なファイルを完全な結果と誤認させないため）
+   */
+  private void discardIfCancelled(Path outputPath, CancellationToken cancellation) throws IOException {
+    if (!cancellation.isCancelled()) {
+      return;
+    }
+    Files.deleteIfExists(outputPath);
+    logger.info("エクスポートが中止されたため出力を削除しました: {}", outputPath);
+    throw new CancellationException("エクスポートが中止されました: " + outputPath);
+  }
+
   private String escapeCsv(String value) {
     if (value == null) {
       return "";
@@ -84,15 +189,17 @@ public class ExportService {
     public final List<FileNode> files;
     public final java.util.Map<String, Long> extensionStats;
     public final long totalSize;
+    public final long apparentSize;
     public final int totalFiles;
     public final int totalDirectories;
     public final long scanDuration;
 
     public ExportData(List<FileNode> files, java.util.Map<String, Long> extensionStats,
-        long totalSize, int totalFiles, int totalDirectories, long scanDuration) {
+        long totalSize, long apparentSize, int totalFiles, int totalDirectories, long scanDuration) {
       this.files = files;
       this.extensionStats = extensionStats;
       this.totalSize = totalSize;
+      this.apparentSize = apparentSize;
       this.totalFiles = totalFiles;
       this.totalDirectories = totalDirectories;
       this.scanDuration = scanDuration;
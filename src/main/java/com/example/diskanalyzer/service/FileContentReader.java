@@ -0,0 +1,311 @@
+package com.example.diskanalyzer.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * ファイル全体を先頭から順にチャンク単位で読み込み、呼び出し側に渡す
+ * 読み込み方法（{@link ReadBackend}）ごとに読み込んだバイト数と所要時間を計測する。
+ * ダイレクトバッファはスレッドごとに使い回すため、同じスレッドから read を入れ子に呼ばないこと
+ */
+class FileContentReader {
+  private static final Logger logger = LoggerFactory.getLogger(FileContentReader.class);
+
+  static final int BUFFER_SIZE = 1 << 20; // 1回の読み込み・チャンクの大きさ
+  static final int ASYNC_MAX_IN_FLIGHT = 4; // 非同期読み込みで同時に発行する数
+  static final long ASYNC_MIN_SIZE = (long) ASYNC_MAX_IN_FLIGHT * BUFFER_SIZE; // これより小さいファイルは先行読み込みの効果がない
+  static final long MAPPED_MIN_SIZE = 64L << 20; // マップの作成・解除の負荷に見合う大きさ
+  private static final long MAPPED_WINDOW = 256L << 20; // 一度にマップする範囲（アドレス空間の消費を抑える）
+
+  /**
+   * 読み込んだチャンクを受け取る
+   */
+  interface ChunkConsumer {
+    /**
+     * チャンクの内容（position から limit まで）を処理する
+     *
+     * @return 読み込みを続ける場合は true、打ち切る場合は false
+     */
+    boolean accept(ByteBuffer chunk) throws IOException;
+  }
+
+  private final DeviceRegistry devices;
+  private final MetricsRegistry.Histogram readLatency;
+  private final Map<ReadBackend, BackendStats> stats = new EnumMap<>(ReadBackend.class);
+  private final ThreadLocal<ByteBuffer[]> buffers =
+      ThreadLocal.withInitial(() -> new ByteBuffer[ASYNC_MAX_IN_FLIGHT]);
+
+  FileContentReader(DeviceRegistry devices, MetricsRegistry metrics, MetricsRegistry.Histogram readLatency) {
+    this.devices = devices;
+    this.readLatency = readLatency;
+    for (ReadBackend backend : ReadBackend.values()) {
+      if (backend != ReadBackend.AUTO) {
+        stats.put(backend, new BackendStats(metrics, backend));
+      }
+    }
+  }
+
+  /**
+   * 読み込み方法を決める
+   * 小さいファイルはまとめて1〜数回で読み終わるため CHANNEL。大きいファイルは、遅延の大きいネットワークでは
+   * ASYNC で読み込みを重ね、SSD とメモリ上のファイルシステムでは MAPPED でコピーを省く。
+   * 回転ディスクは先行読み込みでシークが増えないよう CHANNEL で順に読む
+   */
+  ReadBackend select(ReadBackend requested, Path path, long size) {
+    if (requested != ReadBackend.AUTO) {
+      return requested;
+    }
+    if (size < ASYNC_MIN_SIZE) {
+      return ReadBackend.CHANNEL;
+    }
+    switch (deviceKind(path)) {
+      case NETWORK:
+        return ReadBackend.ASYNC;
+      case SOLID_STATE:
+        return size >= MAPPED_MIN_SIZE ? ReadBackend.MAPPED : ReadBackend.ASYNC;
+      case MEMORY:
+        return size >= MAPPED_MIN_SIZE ? ReadBackend.MAPPED : ReadBackend.CHANNEL;
+      default:
+        return ReadBackend.CHANNEL;
+    }
+  }
+
+  private DeviceRegistry.DeviceKind deviceKind(Path path) {
+    try {
+      EntryAttributes attrs = EntryAttributes.read(path, false, EntryAttributes.Source.of(path.getFileSystem()));
+      return devices.resolve(attrs.device(), path).getKind();
+    } catch (IOException e) {
+      logger.debug("デバイスを判定できないため既定の読み込み方法を使用: {}", path, e);
+      return DeviceRegistry.DeviceKind.UNKNOWN;
+    }
+  }
+
+  /**
+   * ファイル全体を指定の方法で読み込む
+   *
+   * @param backend AUTO 以外の読み込み方法（{@link #select} の結果）
+   * @return 最後まで読み込んだ場合は true、consumer が打ち切った場合は false
+   */
+  boolean read(Path path, ReadBackend backend, ChunkConsumer consumer) throws IOException {
+    BackendStats backendStats = stats.get(backend);
+    long start = System.nanoTime();
+    long[] bytes = new long[1];
+    ChunkConsumer counting = chunk -> {
+      bytes[0] += chunk.remaining();
+      return consumer.accept(chunk);
+    };
+    try {
+      switch (backend) {
+        case MAPPED:
+          return readMapped(path, counting);
+        case ASYNC:
+          return readAsync(path, counting);
+        default:
+          return readChannel(path, counting);
+      }
+    } finally {
+      backendStats.record(bytes[0], System.nanoTime() - start);
+    }
+  }
+
+  private boolean readChannel(Path path, ChunkConsumer consumer) throws IOException {
+    ByteBuffer buffer = buffer(0);
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      while (true) {
+        buffer.clear();
+        long readStart = System.nanoTime();
+        int read = channel.read(buffer);
+        readLatency.recordSince(readStart);
+        if (read < 0) {
+          return true;
+        }
+        buffer.flip();
+        if (!consumer.accept(buffer)) {
+          return false;
+        }
+      }
+    }
+  }
+
+  private boolean readMapped(Path path, ChunkConsumer consumer) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      for (long offset = 0; offset < size; offset += MAPPED_WINDOW) {
+        // マップは GC で回収されるまで解除されないため、範囲を区切って大きなファイルでも消費を抑える
+        MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+            Math.min(MAPPED_WINDOW, size - offset));
+        for (int position = 0; position < window.capacity(); position += BUFFER_SIZE) {
+          ByteBuffer chunk = window.slice(position, Math.min(BUFFER_SIZE, window.capacity() - position));
+          if (!consumer.accept(chunk)) {
+            return false;
+          }
+        }
+      }
+      return true;
+    } catch (InternalError e) {
+      // マップ中にファイルが切り詰められると、範囲外のページへのアクセスが InternalError になる
+      throw new IOException("マップしたファイルを読み込めません（読み込み中に変更された可能性があります）: " + path, e);
+    }
+  }
+
+  private boolean readAsync(Path path, ChunkConsumer consumer) throws IOException {
+    ArrayDeque<PendingRead> pending = new ArrayDeque<>(ASYNC_MAX_IN_FLIGHT);
+    try (AsynchronousFileChannel channel = AsynchronousFileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      long next = 0;
+      for (int i = 0; i < ASYNC_MAX_IN_FLIGHT && next < size; i++) {
+        pending.add(new PendingRead(channel, buffer(i), next, chunkLength(size, next)));
+        next += BUFFER_SIZE;
+      }
+      try {
+        while (!pending.isEmpty()) {
+          // 完了順ではなく位置の順に処理する
+          PendingRead head = pending.peek();
+          long readStart = System.nanoTime();
+          int read = head.await();
+          readLatency.recordSince(readStart);
+          if (read < 0) {
+            // 読み込み中にファイルが縮んだ
+            return true;
+          }
+          head.buffer.flip();
+          if (!consumer.accept(head.buffer)) {
+            return false;
+          }
+          if (head.buffer.limit() < head.length) {
+            // 途中までしか読めなかった場合は同じバッファで残りを読み直す
+            head.resubmit(head.position + head.buffer.limit(), head.length - head.buffer.limit());
+            continue;
+          }
+          pending.poll();
+          if (next < size) {
+            head.resubmit(next, chunkLength(size, next));
+            pending.add(head);
+            next += BUFFER_SIZE;
+          }
+        }
+        return true;
+      } finally {
+        // 発行済みの読み込みが終わるまでバッファを再利用しない
+        for (PendingRead read : pending) {
+          read.awaitQuietly();
+        }
+      }
+    }
+  }
+
+  private static int chunkLength(long size, long position) {
+    return (int) Math.min(BUFFER_SIZE, size - position);
+  }
+
+  /**
+   * このスレッド用のダイレクトバッファ（初回のみ確保する）
+   */
+  private ByteBuffer buffer(int index) {
+    ByteBuffer[] threadBuffers = buffers.get();
+    if (threadBuffers[index] == null) {
+      threadBuffers[index] = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+    return threadBuffers[index];
+  }
+
+  /**
+   * 読み込み方法ごとの累計（バイト数・所要時間）
+   */
+  Map<ReadBackend, long[]> totals() {
+    Map<ReadBackend, long[]> totals = new EnumMap<>(ReadBackend.class);
+    stats.forEach((backend, backendStats) ->
+        totals.put(backend, new long[] {backendStats.bytes.sum(), backendStats.nanos.sum()}));
+    return totals;
+  }
+
+  /**
+   * 所要時間あたりのバイト数（秒単位。所要時間が0の場合は0）
+   */
+  static long bytesPerSecond(long bytes, long nanos) {
+    return nanos > 0 ? Math.round(bytes * 1_000_000_000.0 / nanos) : 0;
+  }
+
+  /**
+   * 発行済みの1回の非同期読み込み
+   */
+  private static class PendingRead {
+    private final AsynchronousFileChannel channel;
+    private final ByteBuffer buffer;
+    private long position;
+    private int length;
+    private Future<Integer> future;
+
+    PendingRead(AsynchronousFileChannel channel, ByteBuffer buffer, long position, int length) {
+      this.channel = channel;
+      this.buffer = buffer;
+      resubmit(position, length);
+    }
+
+    void resubmit(long position, int length) {
+      this.position = position;
+      this.length = length;
+      buffer.clear().limit(length);
+      future = channel.read(buffer, position);
+    }
+
+    int await() throws IOException {
+      try {
+        return future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("読み込みの待機中に割り込まれました", e);
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+      }
+    }
+
+    void awaitQuietly() {
+      try {
+        future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (ExecutionException e) {
+        // 結果は使わない
+      }
+    }
+  }
+
+  /**
+   * 1つの読み込み方法の計測値
+   */
+  private static class BackendStats {
+    private final MetricsRegistry.Counter files;
+    private final MetricsRegistry.Counter bytes;
+    private final MetricsRegistry.Counter nanos;
+
+    BackendStats(MetricsRegistry metrics, ReadBackend backend) {
+      String prefix = "hash.backend." + backend.name().toLowerCase(Locale.ROOT);
+      this.files = metrics.counter(prefix + ".files");
+      this.bytes = metrics.counter(prefix + ".bytes");
+      this.nanos = metrics.counter(prefix + ".nanos");
+      metrics.gauge(prefix + ".bytesPerSecond", () -> bytesPerSecond(bytes.sum(), nanos.sum()));
+    }
+
+    void record(long readBytes, long elapsedNanos) {
+      files.increment();
+      bytes.add(readBytes);
+      nanos.add(elapsedNanos);
+    }
+  }
+}
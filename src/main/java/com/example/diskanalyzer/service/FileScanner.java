@@ -1,139 +1,982 @@
 package com.example.diskanalyzer.service;
 
+import com.example.diskanalyzer.model.ColumnarScanStore;
+import com.example.diskanalyzer.model.ExclusionRules;
+import com.example.diskanalyzer.model.ExtensionDictionary;
+import com.example.diskanalyzer.model.ExtensionStatistics;
 import com.example.diskanalyzer.model.FileNode;
+import com.example.diskanalyzer.model.ScanOptions;
+import com.example.diskanalyzer.model.ScanProgress;
 import com.example.diskanalyzer.model.ScanResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.file.*;
-import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.SubmissionPublisher;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * マルチスレッド対応のファイルスキャンサービス
+ * ディレクトリ単位でFork/Joinのサブタスクに分割し、ワークスティーリングで並列走査する
  */
 public class FileScanner {
   private static final Logger logger = LoggerFactory.getLogger(FileScanner.class);
+  private static final int PUBLISH_BATCH_SIZE = 1000; // 途中経過を通知するエントリ数
+  private static final int PUBLISH_BUFFER_CAPACITY = 16; // 配信待ちバッチの上限
 
-  private final ForkJoinPool pool;
-  private final int parallelism;
+  private final ExecutionRuntime runtime;
+  private final boolean ownsRuntime;
+  private ScanCheckpointService checkpointService;
 
   public FileScanner() {
-    this.parallelism = Runtime.getRuntime().availableProcessors();
-    this.pool = new ForkJoinPool(parallelism);
+    this(ExecutionRuntime.getDefault(), false);
   }
 
+  /**
+   * 専用のランタイムを持つFileScannerを作成する（ベンチマーク等で並列度を固定したい場合）
+   */
   public FileScanner(int parallelism) {
-    this.parallelism = parallelism;
-    this.pool = new ForkJoinPool(parallelism);
+    this(new ExecutionRuntime(parallelism), true);
+  }
+
+  public FileScanner(ExecutionRuntime runtime) {
+    this(runtime, false);
+  }
+
+  private FileScanner(ExecutionRuntime runtime, boolean ownsRuntime) {
+    this.runtime = runtime;
+    this.ownsRuntime = ownsRuntime;
   }
 
   /**
    * 指定されたパス配下をスキャンして結果を返す
    */
   public ScanResult scan(Path root) throws IOException {
-    logger.info("スキャン開始: {}", root);
+    return scan(root, new ScanOptions(), null);
+  }
+
+  /**
+   * 指定されたパス配下をスキャンし、途中結果をリスナーへ逐次通知する
+   * リスナーへの通知がすべて完了してから結果を返す
+   */
+  public ScanResult scan(Path root, ScanListener listener) throws IOException {
+    return scan(root, new ScanOptions(), listener);
+  }
+
+  /**
+   * オプションを指定してスキャンする
+   *
+   * @param listener 途中結果の通知先（不要な場合はnull）
+   */
+  public ScanResult scan(Path root, ScanOptions options, ScanListener listener) throws IOException {
+    return scan(root, options, listener, new CancellationToken());
+  }
+
+  /**
+   * 中止可能なスキャンを実行する
+   * 中止された場合は各ディレクトリの走査を開始する時点で打ち切り、それまでに走査した範囲の集計値で
+   * 未完了の結果（{@link ScanResult#isComplete()} が false）を返す。
+   * チェックポイントが有効な場合、記録は破棄せず次回のスキャンで続きから再開する
+   */
+  public ScanResult scan(Path root, ScanOptions options, ScanListener listener, CancellationToken cancellation)
+      throws IOException {
+    logger.info("スキャン開始: {} (並列度: {}, 保持形式: {})",
+        root, runtime.getParallelism(), options.getStorageMode());
     long startTime = System.currentTimeMillis();
 
-    ConcurrentLinkedQueue<FileNode> results = new ConcurrentLinkedQueue<>();
-    AtomicLong totalSize = new AtomicLong(0);
-    AtomicInteger fileCount = new AtomicInteger(0);
-    AtomicInteger directoryCount = new AtomicInteger(0);
-    Map<String, AtomicLong> extensionStats = new ConcurrentHashMap<>();
+    EntryAttributes.Source attributeSource = EntryAttributes.Source.of(root.getFileSystem());
+    EntryAttributes rootAttrs = EntryAttributes.read(root, true, attributeSource);
+    ColumnarScanStore store = options.getStorageMode() == ScanOptions.StorageMode.COLUMNAR
+        ? new ColumnarScanStore(root)
+        : null;
 
-    try {
-      pool.submit(() -> {
-        try {
-          Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
-            @Override
-            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
-              try {
-                boolean isHidden = Files.isHidden(file);
-                FileNode fileNode = new FileNode(
-                    file,
-                    attrs.size(),
-                    attrs.lastModifiedTime(),
-                    false,
-                    isHidden);
-
-                results.add(fileNode);
-                totalSize.addAndGet(attrs.size());
-                fileCount.incrementAndGet();
-
-                // 拡張子統計
-                String ext = fileNode.getExtension();
-                if (!ext.isEmpty()) {
-                  extensionStats.computeIfAbsent(ext, k -> new AtomicLong(0))
-                      .addAndGet(attrs.size());
-                }
-
-              } catch (IOException e) {
-                logger.warn("ファイルアクセスエラー: {}", file, e);
-              }
-              return FileVisitResult.CONTINUE;
-            }
-
-            @Override
-            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
-              try {
-                boolean isHidden = Files.isHidden(dir);
-                FileNode dirNode = new FileNode(
-                    dir,
-                    0,
-                    attrs.lastModifiedTime(),
-                    true,
-                    isHidden);
-
-                results.add(dirNode);
-                directoryCount.incrementAndGet();
-
-              } catch (IOException e) {
-                logger.warn("ディレクトリアクセスエラー: {}", dir, e);
-              }
-              return FileVisitResult.CONTINUE;
-            }
-
-            @Override
-            public FileVisitResult visitFileFailed(Path file, IOException exc) {
-              logger.warn("ファイルアクセス失敗: {}", file, exc);
-              return FileVisitResult.CONTINUE;
-            }
-          });
-        } catch (IOException e) {
-          logger.error("スキャン中にエラーが発生", e);
+    CheckpointJournal checkpoint = options.isCheckpointEnabled() && rootAttrs.isDirectory()
+        ? getCheckpointService().openJournal(root, options)
+        : null;
+
+    MetricsRegistry metrics = runtime.getMetrics();
+    try (MetricsRegistry.Run run = metrics.startRun("scan", root);
+        ExecutionRuntime.Job job = runtime.openJob(ExecutionRuntime.JobType.SCAN);
+        BatchPublisher publisher = listener != null ? new BatchPublisher(listener, metrics) : null;
+        CheckpointJournal journal = checkpoint) {
+      ScanContext context = new ScanContext(root, options, attributeSource, job, publisher, store, journal,
+          runtime.getIoThrottle(), runtime.getDeviceRegistry(), metrics, cancellation);
+      WorkerBatch rootBatch = context.currentBatch();
+      boolean rootHidden = rootAttrs.isHidden();
+      if (rootAttrs.isDirectory()) {
+        int rootId = rootBatch.addDirectoryEntry(ColumnarScanStore.NO_PARENT, root,
+            rootAttrs.lastModifiedTime(), rootHidden);
+        if (journal != null) {
+          journal.markPending(root);
         }
-      }).join();
+        DeviceRegistry.Device rootDevice = context.devices.resolve(rootAttrs.device(), root);
+        context.enterDirectory(root, rootAttrs);
+        runtime.invoke(new DirectoryScanTask(root, rootAttrs, rootHidden, rootId, 0, rootDevice, context));
+      } else {
+        rootBatch.addFile(ColumnarScanStore.NO_PARENT, root, rootAttrs.size(), rootAttrs.lastModifiedTime(),
+            rootHidden, null, true);
+      }
+      boolean cancelled = cancellation.isCancelled();
+      if (journal != null && !cancelled) {
+        // 最後まで完了したので再開用の記録は不要
+        journal.discard();
+      }
+      context.flush(root);
+      if (publisher != null) {
+        publisher.awaitDelivery();
+      }
+      ScanResult result = buildResult(root, context, startTime);
+      recordRun(run, metrics, context, result, cancelled);
+      if (cancelled) {
+        logger.info("スキャンが中止されました: {} (走査済み {} ファイル)", root, result.getTotalFiles());
+        return result.asIncomplete();
+      }
+      return result;
+    }
+  }
 
-    } finally {
-      pool.shutdown();
+  /**
+   * チェックポイントの保存先を取得する（未設定の場合は既定の ~/.lumidisk/checkpoints を使う）
+   */
+  public synchronized ScanCheckpointService getCheckpointService() {
+    if (checkpointService == null) {
+      checkpointService = new ScanCheckpointService();
     }
+    return checkpointService;
+  }
+
+  public synchronized void setCheckpointService(ScanCheckpointService checkpointService) {
+    this.checkpointService = checkpointService;
+  }
+
+  /**
+   * スキャン全体の集計値を計測サマリーに記録する
+   */
+  private void recordRun(MetricsRegistry.Run run, MetricsRegistry metrics, ScanContext context, ScanResult result,
+      boolean cancelled) {
+    run.record("files", result.getTotalFiles());
+    run.record("directories", result.getTotalDirectories());
+    run.record("totalSize", result.getTotalSize());
+    run.record("nativeReader", context.nativeReader != null);
+    if (context.store != null && context.store.size() > 0) {
+      long memoryBytes = context.store.estimateMemoryBytes();
+      long bytesPerNode = memoryBytes / context.store.size();
+      run.record("storeMemoryBytes", memoryBytes);
+      run.record("heapBytesPerNode", bytesPerNode);
+      metrics.setValue("scan.heapBytesPerNode", bytesPerNode);
+    }
+    if (cancelled) {
+      run.markIncomplete();
+    }
+  }
+
+  /**
+   * ワーカーごとのバッチを集約してスキャン結果を作成する
+   */
+  private ScanResult buildResult(Path root, ScanContext context, long startTime) {
+    WorkerBatch merged = context.merge();
 
     long endTime = System.currentTimeMillis();
     long scanDuration = endTime - startTime;
 
-    // 拡張子統計を通常のMapに変換
-    Map<String, Long> finalExtensionStats = new HashMap<>();
-    extensionStats.forEach((ext, size) -> finalExtensionStats.put(ext, size.get()));
-
     logger.info("スキャン完了: {} ファイル, {} ディレクトリ, 総サイズ: {}, 所要時間: {} ms",
-        fileCount.get(), directoryCount.get(),
-        formatSize(totalSize.get()), scanDuration);
+        merged.fileCount, merged.directoryCount,
+        formatSize(merged.totalSize), scanDuration);
+    if (context.excludedCount.sum() > 0) {
+      logger.info("除外ルールにより {} エントリをスキップしました", context.excludedCount.sum());
+    }
+    if (context.skippedMountCount.sum() > 0) {
+      logger.info("マウントポイント {} 件の配下をスキップしました（{}）",
+          context.skippedMountCount.sum(), context.mountPolicy);
+    }
+    if (merged.apparentSize != merged.totalSize) {
+      logger.info("ハードリンク等の重複を除いたサイズ: {} (見かけ上のサイズ: {}, 重複リンク {} 件)",
+          formatSize(merged.totalSize), formatSize(merged.apparentSize), context.duplicateLinkCount.sum());
+    }
+    if (context.revisitedDirectoryCount.sum() > 0) {
+      logger.info("循環または走査済みのディレクトリ {} 件をスキップしました", context.revisitedDirectoryCount.sum());
+    }
+
+    if (context.store != null) {
+      logger.info("列指向ストア使用量: 約 {} ({} エントリ)",
+          formatSize(context.store.estimateMemoryBytes()), context.store.size());
+      return new ScanResult(
+          context.store,
+          merged.extensionStats,
+          merged.totalSize,
+          merged.apparentSize,
+          merged.fileCount,
+          merged.directoryCount,
+          scanDuration);
+    }
 
     return new ScanResult(
-        new ArrayList<>(results),
-        finalExtensionStats,
-        totalSize.get(),
-        fileCount.get(),
-        directoryCount.get(),
+        root,
+        merged.nodes,
+        merged.extensionStats,
+        merged.totalSize,
+        merged.apparentSize,
+        merged.fileCount,
+        merged.directoryCount,
         scanDuration);
   }
 
+  private static String nameOf(Path path) {
+    Path fileName = path.getFileName();
+    return fileName != null ? fileName.toString() : path.toString();
+  }
+
+
+  /**
+   * 1ディレクトリを1サブタスクとして処理するFork/Joinタスク
+   * 直下のファイルはその場で処理し、サブディレクトリは新たなタスクとしてforkする。
+   * サブディレクトリの完了後（ポストビジット）に配下の集計値を確定させて返す
+   */
+  private static class DirectoryScanTask extends RecursiveTask<DirectoryRollup> {
+    private final Path dir;
+    private final EntryAttributes attrs;
+    private final boolean hidden;
+    private final int id; // 列指向ストア上のID（オブジェクト形式では未使用）
+    private final int depth; // ルートを0とする深さ
+    private final DeviceRegistry.Device device; // このディレクトリが属するデバイス
+    private final ScanContext context;
+    private boolean reserved; // forkのためにデバイスの枠を確保したか
+
+    DirectoryScanTask(Path dir, EntryAttributes attrs, boolean hidden, int id, int depth,
+        DeviceRegistry.Device device, ScanContext context) {
+      this.dir = dir;
+      this.attrs = attrs;
+      this.hidden = hidden;
+      this.id = id;
+      this.depth = depth;
+      this.device = device;
+      this.context = context;
+    }
+
+    @Override
+    protected DirectoryRollup compute() {
+      ExecutionRuntime.Job previous = context.job.enter();
+      try {
+        return scanDirectory();
+      } finally {
+        context.job.exit(previous);
+        if (reserved) {
+          device.releaseTask();
+        }
+      }
+    }
+
+    private DirectoryRollup scanDirectory() {
+      WorkerBatch batch = context.currentBatch();
+      CheckpointJournal checkpoint = context.checkpoint;
+      DirectoryRollup rollup = new DirectoryRollup(attrs.lastModifiedTime());
+      if (depth >= context.maxDepth || context.cancellation.isCancelled()) {
+        // 最大の深さに達したディレクトリや中止後のディレクトリはエントリのみ記録し、一覧は取得しない
+        batch.completeDirectory(id, dir, attrs.lastModifiedTime(), hidden, rollup);
+        return rollup;
+      }
+      if (checkpoint != null && checkpoint.findCompleted(dir, attrs.lastModifiedTime()) != null
+          && checkpoint.getListing(dir) != null) {
+        // 前回のスキャンで配下まで完了し、更新日時も変わっていない場合は直下の一覧をジャーナルから復元する
+        return restoreDirectory(batch, rollup, checkpoint.getListing(dir));
+      }
+
+      CheckpointJournal.ListingWriter listing = checkpoint != null
+          ? checkpoint.beginListing(dir, attrs.lastModifiedTime(), hidden)
+          : null;
+
+      List<DirectoryScanTask> subtasks = new ArrayList<>();
+      // 一覧の取得と属性の読み込みの間はデバイスの枠を占有する（サブディレクトリの処理前に返す）
+      device.acquire();
+      context.throttle.acquireOperation();
+      long listStart = System.nanoTime();
+      try {
+        if (context.nativeReader != null) {
+          listNative(batch, rollup, subtasks, listing);
+        } else {
+          listNio(batch, rollup, subtasks, listing);
+        }
+      } catch (IOException | DirectoryIteratorException e) {
+        logger.warn("ディレクトリアクセスエラー: {}", dir, e);
+      } finally {
+        device.release();
+        context.listLatency.recordSince(listStart);
+      }
+      context.directoryCounter.increment();
+      // 一覧の途中で中止された場合は不完全なため記録しない
+      if (listing != null && !context.cancellation.isCancelled()) {
+        checkpoint.recordListing(listing);
+      }
+      context.publishIfFull(batch, dir);
+
+      runSubtasks(subtasks, rollup);
+
+      // ポストビジット: 配下の集計が確定したのでディレクトリノードを作成する
+      return complete(batch, rollup);
+    }
+
+    /**
+     * 配下の集計値を確定させ、ジャーナルに完了を記録する
+     */
+    private DirectoryRollup complete(WorkerBatch batch, DirectoryRollup rollup) {
+      batch.completeDirectory(id, dir, attrs.lastModifiedTime(), hidden, rollup);
+      // 中止により配下の一部を走査していない可能性がある場合は完了として記録しない
+      CheckpointJournal checkpoint = context.checkpoint;
+      if (checkpoint != null && !context.cancellation.isCancelled()) {
+        checkpoint.recordCompleted(dir, attrs.lastModifiedTime(), rollup.getSize(), rollup.getFileCount(),
+            rollup.getNewestModified());
+      }
+      return rollup;
+    }
+
+    /**
+     * DirectoryStream でディレクトリ直下を読み込む
+     */
+    private void listNio(WorkerBatch batch, DirectoryRollup rollup, List<DirectoryScanTask> subtasks,
+        CheckpointJournal.ListingWriter listing) throws IOException {
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+        for (Path entry : stream) {
+          if (context.cancellation.isCancelled()) {
+            break;
+          }
+          // 種別によらず除外されるエントリは属性を読む前に除く
+          Path relative = context.relativeForRules(entry);
+          if (relative != null && context.isExcludedBeforeStat(relative, NativeDirectoryReader.TYPE_UNKNOWN)) {
+            continue;
+          }
+
+          EntryAttributes entryAttrs;
+          try {
+            context.throttle.acquireOperation();
+            long statStart = System.nanoTime();
+            entryAttrs = context.readEntry(entry);
+            context.statLatency.recordSince(statStart);
+          } catch (IOException e) {
+            logger.warn("ファイルアクセス失敗: {}", entry, e);
+            continue;
+          }
+          addEntry(entry, relative, entryAttrs, batch, rollup, subtasks, listing);
+        }
+      }
+    }
+
+    /**
+     * getdents64/statx でディレクトリ直下を読み込む
+     * d_type で種類が分かるエントリは、ディレクトリ限定の除外ルールも属性を読む前に判定できる
+     */
+    private void listNative(WorkerBatch batch, DirectoryRollup rollup, List<DirectoryScanTask> subtasks,
+        CheckpointJournal.ListingWriter listing) throws IOException {
+      context.nativeReader.readDirectory(dir, context.followLinks, new NativeDirectoryReader.EntryVisitor() {
+        private Path relative;
+        private long statStart;
+
+        @Override
+        public boolean accept(String name, int type) {
+          if (context.cancellation.isCancelled()) {
+            return false;
+          }
+          relative = context.exclusionRules.isEmpty() ? null : context.root.relativize(dir.resolve(name));
+          if (relative != null && context.isExcludedBeforeStat(relative, type)) {
+            return false;
+          }
+          context.throttle.acquireOperation();
+          statStart = System.nanoTime();
+          return true;
+        }
+
+        @Override
+        public void visit(String name, EntryAttributes entryAttrs) {
+          context.statLatency.recordSince(statStart);
+          addEntry(dir.resolve(name), relative, entryAttrs, batch, rollup, subtasks, listing);
+        }
+
+        @Override
+        public void failed(String name, IOException e) {
+          logger.warn("ファイルアクセス失敗: {}", dir.resolve(name), e);
+        }
+      });
+    }
+
+    /**
+     * 属性を読み込んだエントリを登録する（ディレクトリはサブタスクとして追加する）
+     */
+    private void addEntry(Path entry, Path relative, EntryAttributes entryAttrs, WorkerBatch batch,
+        DirectoryRollup rollup, List<DirectoryScanTask> subtasks, CheckpointJournal.ListingWriter listing) {
+      if (relative != null && context.isExcludedAfterStat(relative, entryAttrs)) {
+        return;
+      }
+      context.entryCounter.increment();
+
+      CheckpointJournal checkpoint = context.checkpoint;
+      boolean entryHidden = entryAttrs.isHidden();
+      if (entryAttrs.isDirectory()) {
+        int childId = batch.addDirectoryEntry(id, entry, entryAttrs.lastModifiedTime(), entryHidden);
+        DeviceRegistry.Device childDevice = context.deviceOf(entry, entryAttrs.device(), device);
+        if (childDevice == null || !context.enterDirectory(entry, entryAttrs)) {
+          // 対象外のマウントポイントや循環しているディレクトリはエントリのみ記録する
+          batch.completeDirectory(childId, entry, entryAttrs.lastModifiedTime(), entryHidden,
+              new DirectoryRollup(entryAttrs.lastModifiedTime()));
+          return;
+        }
+        subtasks.add(new DirectoryScanTask(entry, entryAttrs, entryHidden, childId, depth + 1, childDevice,
+            context));
+        if (listing != null) {
+          listing.addDirectory(nameOf(entry));
+          checkpoint.markPending(entry);
+        }
+      } else {
+        boolean unique = context.countsUniquely(entryAttrs);
+        long[] link = context.tracksInode(entryAttrs) ? new long[] {entryAttrs.device(), entryAttrs.inode()} : null;
+        batch.addFile(id, entry, entryAttrs.size(), entryAttrs.lastModifiedTime(), entryHidden, link, unique);
+        rollup.addFile(unique ? entryAttrs.size() : 0, entryAttrs.lastModifiedTime());
+        context.fileCounter.increment();
+        if (unique) {
+          context.byteCounter.add(entryAttrs.size());
+        }
+        if (listing != null) {
+          if (link != null) {
+            listing.addLinkedFile(nameOf(entry), entryAttrs.size(), entryAttrs.lastModifiedTime(), entryHidden,
+                entryAttrs.device(), entryAttrs.inode());
+          } else {
+            listing.addFile(nameOf(entry), entryAttrs.size(), entryAttrs.lastModifiedTime(), entryHidden);
+          }
+        }
+      }
+    }
+
+    /**
+     * サブディレクトリのタスクを実行し、配下の集計値を rollup に加える
+     * 公平な割り当てやデバイスの並列度を超える場合はforkせず、このワーカー内で処理する
+     */
+    private void runSubtasks(List<DirectoryScanTask> subtasks, DirectoryRollup rollup) {
+      List<DirectoryScanTask> forked = new ArrayList<>();
+      for (DirectoryScanTask subtask : subtasks) {
+        if (context.job.canFork() && subtask.device.tryReserveTask()) {
+          subtask.reserved = true;
+          subtask.fork();
+          forked.add(subtask);
+        } else {
+          rollup.add(subtask.invoke());
+        }
+      }
+      for (int i = forked.size() - 1; i >= 0; i--) {
+        rollup.add(forked.get(i).join());
+      }
+    }
+
+    /**
+     * ジャーナルに記録済みの直下の一覧からディレクトリを復元する（直下のファイルへのアクセスなし）
+     * サブディレクトリは属性のみ読み直し、現在のオプション（除外ルール・マウントポリシー・最大の深さ）を適用した上で
+     * 通常と同じサブタスクとして処理する。サブタスクは自身の更新日時が記録と一致する場合のみ復元し、
+     * 変更されていれば実際にスキャンする
+     */
+    private DirectoryRollup restoreDirectory(WorkerBatch batch, DirectoryRollup rollup,
+        CheckpointJournal.Listing listing) {
+      for (CheckpointJournal.FileEntry file : listing.files) {
+        FileTime fileModified = CheckpointJournal.fromNanos(file.modifiedNanos);
+        boolean unique = !file.linked || context.linkedFiles.add(file.device, file.inode);
+        long[] link = file.linked ? new long[] {file.device, file.inode} : null;
+        batch.addFile(id, dir.resolve(file.name), file.size, fileModified, file.hidden, link, unique);
+        rollup.addFile(unique ? file.size : 0, fileModified);
+      }
+      context.restoredCounter.add(listing.files.size());
+      context.publishIfFull(batch, dir);
+
+      List<DirectoryScanTask> subtasks = new ArrayList<>();
+      for (String name : listing.directories) {
+        if (context.cancellation.isCancelled()) {
+          break;
+        }
+        Path child = dir.resolve(name);
+        Path relative = context.relativeForRules(child);
+        if (relative != null && context.isExcludedBeforeStat(relative, NativeDirectoryReader.TYPE_DIRECTORY)) {
+          continue;
+        }
+        EntryAttributes childAttrs;
+        try {
+          context.throttle.acquireOperation();
+          childAttrs = context.readEntry(child);
+        } catch (IOException e) {
+          logger.warn("ファイルアクセス失敗: {}", child, e);
+          continue;
+        }
+        addEntry(child, relative, childAttrs, batch, rollup, subtasks, null);
+      }
+      for (DirectoryScanTask subtask : subtasks) {
+        context.checkpoint.markPending(subtask.dir);
+      }
+      runSubtasks(subtasks, rollup);
+      // 再開中にさらに中断された場合に備え、復元したディレクトリも完了として記録し直す
+      return complete(batch, rollup);
+    }
+  }
+
+  /**
+   * 1回のスキャンで共有する状態
+   * ワーカースレッドごとにバッチを割り当て、共有コレクションへの競合を避ける
+   */
+  private static class ScanContext {
+    private final Path root;
+    private final ExclusionRules exclusionRules;
+    private final int maxDepth;
+    private final LongAdder excludedCount = new LongAdder();
+    private final ScanOptions.MountPolicy mountPolicy;
+    private final DeviceRegistry devices;
+    private final LongAdder skippedMountCount = new LongAdder();
+    private final boolean followLinks;
+    private final EntryAttributes.Source attributeSource;
+    private final NativeDirectoryReader nativeReader; // 使用しない・使用できない場合は null
+    private final InodeSet linkedFiles = new InodeSet(); // 2回目以降のリンクを数えないためのinode
+    private final InodeSet visitedDirectories = new InodeSet(); // シンボリックリンクを辿る場合の循環検出用
+    private final Set<Object> visitedDirectoryKeys = ConcurrentHashMap.newKeySet(); // inode を取得できない場合
+    private final LongAdder duplicateLinkCount = new LongAdder();
+    private final LongAdder revisitedDirectoryCount = new LongAdder();
+    private final CancellationToken cancellation;
+    private final ExecutionRuntime.Job job;
+    private final BatchPublisher publisher;
+    private final ColumnarScanStore store;
+    private final CheckpointJournal checkpoint;
+    private final IoThrottle throttle;
+    private final MetricsRegistry.Counter entryCounter; // 属性を読み込んだエントリ（除外されたものを除く）
+    private final MetricsRegistry.Counter fileCounter;
+    private final MetricsRegistry.Counter byteCounter; // ハードリンクの重複を除いたファイルサイズ
+    private final MetricsRegistry.Counter directoryCounter; // 一覧を取得したディレクトリ
+    private final MetricsRegistry.Counter restoredCounter; // チェックポイントから復元したエントリ
+    private final MetricsRegistry.Histogram statLatency;
+    private final MetricsRegistry.Histogram listLatency; // 1ディレクトリの一覧と属性の読み込みにかかった時間
+    private final ExtensionDictionary extensions;
+    private final ConcurrentLinkedQueue<WorkerBatch> batches = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<WorkerBatch> localBatch;
+
+    ScanContext(Path root, ScanOptions options, EntryAttributes.Source attributeSource,
+        ExecutionRuntime.Job job, BatchPublisher publisher, ColumnarScanStore store, CheckpointJournal checkpoint,
+        IoThrottle throttle, DeviceRegistry devices, MetricsRegistry metrics, CancellationToken cancellation) {
+      this.root = root;
+      this.cancellation = cancellation;
+      this.followLinks = options.isFollowLinks();
+      this.attributeSource = attributeSource;
+      this.nativeReader = options.isNativeReaderEnabled() && attributeSource == EntryAttributes.Source.UNIX
+          && root.getFileSystem() == FileSystems.getDefault()
+          ? NativeDirectoryReader.load()
+          : null;
+      this.exclusionRules = options.getExclusionRules();
+      this.maxDepth = options.getMaxDepth();
+      this.mountPolicy = options.getMountPolicy();
+      this.devices = devices;
+      this.job = job;
+      this.throttle = throttle;
+      this.entryCounter = metrics.counter("scan.entries");
+      this.fileCounter = metrics.counter("scan.files");
+      this.byteCounter = metrics.counter("scan.bytes");
+      this.directoryCounter = metrics.counter("scan.directories");
+      this.restoredCounter = metrics.counter("scan.restoredEntries");
+      this.statLatency = metrics.histogram("scan.stat", "ns");
+      this.listLatency = metrics.histogram("scan.list", "ns");
+      this.publisher = publisher;
+      this.store = store;
+      this.checkpoint = checkpoint;
+      this.extensions = store != null ? store.getExtensionDictionary() : new ExtensionDictionary();
+      // 列指向形式ではリスナーへ渡す分だけビューを一時的に保持する
+      boolean retainNodes = store == null || publisher != null;
+      this.localBatch = ThreadLocal.withInitial(() -> {
+        WorkerBatch batch = new WorkerBatch(store, extensions, retainNodes);
+        batches.add(batch);
+        return batch;
+      });
+    }
+
+    WorkerBatch currentBatch() {
+      return localBatch.get();
+    }
+
+    /**
+     * 除外ルールの判定に使うルートからの相対パス（ルールがない場合は null）
+     */
+    Path relativeForRules(Path entry) {
+      return exclusionRules.isEmpty() ? null : root.relativize(entry);
+    }
+
+    /**
+     * 属性を読む前に除外を判定する
+     * 種類が分からない場合は、ファイルとしてもディレクトリとしても除外されるときのみ除外する
+     */
+    boolean isExcludedBeforeStat(Path relative, int type) {
+      boolean excluded;
+      if (type == NativeDirectoryReader.TYPE_UNKNOWN) {
+        excluded = exclusionRules.isExcluded(relative, false)
+            && (!exclusionRules.hasDirectoryOnlyRules() || exclusionRules.isExcluded(relative, true));
+      } else {
+        excluded = exclusionRules.isExcluded(relative, type == NativeDirectoryReader.TYPE_DIRECTORY);
+      }
+      if (excluded) {
+        excludedCount.increment();
+      }
+      return excluded;
+    }
+
+    /**
+     * 属性を読んだ後、種類が確定してから除外を判定する（ディレクトリ限定のルールがある場合のみ）
+     */
+    boolean isExcludedAfterStat(Path relative, EntryAttributes attrs) {
+      if (!exclusionRules.hasDirectoryOnlyRules() || !exclusionRules.isExcluded(relative, attrs.isDirectory())) {
+        return false;
+      }
+      excludedCount.increment();
+      return true;
+    }
+
+    /**
+     * エントリの属性を読み込む
+     * シンボリックリンクを辿る設定でリンク先がない場合は、リンク自体の属性を返す
+     */
+    EntryAttributes readEntry(Path entry) throws IOException {
+      if (!followLinks) {
+        // walkFileTree と同様にシンボリックリンクは辿らない
+        return EntryAttributes.read(entry, false, attributeSource);
+      }
+      try {
+        return EntryAttributes.read(entry, true, attributeSource);
+      } catch (IOException e) {
+        logger.debug("リンク先を読み込めないためリンク自体を記録: {}", entry, e);
+        return EntryAttributes.read(entry, false, attributeSource);
+      }
+    }
+
+    /**
+     * inode を記録して重複を判定する対象か
+     * 通常はリンク数が2以上のファイルのみ、シンボリックリンクを辿る場合はすべてのファイルが対象
+     */
+    boolean tracksInode(EntryAttributes attrs) {
+      return attrs.hasInode() && (followLinks || attrs.linkCount() > 1);
+    }
+
+    /**
+     * ファイルのサイズを合計に含めるか（同じinodeの2回目以降のリンクは含めない）
+     */
+    boolean countsUniquely(EntryAttributes attrs) {
+      if (!tracksInode(attrs) || linkedFiles.add(attrs.device(), attrs.inode())) {
+        return true;
+      }
+      duplicateLinkCount.increment();
+      return false;
+    }
+
+    /**
+     * ディレクトリを走査してよいか判定する
+     * シンボリックリンクを辿る場合のみ、同じディレクトリを2回以上走査しない（循環の検出）
+     */
+    boolean enterDirectory(Path directory, EntryAttributes attrs) {
+      if (!followLinks) {
+        return true;
+      }
+      boolean first;
+      if (attrs.hasInode()) {
+        first = visitedDirectories.add(attrs.device(), attrs.inode());
+      } else {
+        Object key = attrs.fileKey();
+        if (key == null) {
+          try {
+            key = directory.toRealPath();
+          } catch (IOException e) {
+            key = directory.toAbsolutePath().normalize();
+          }
+        }
+        first = visitedDirectoryKeys.add(key);
+      }
+      if (!first) {
+        logger.debug("循環または走査済みのディレクトリをスキップ: {}", directory);
+        revisitedDirectoryCount.increment();
+      }
+      return first;
+    }
+
+    /**
+     * サブディレクトリが属するデバイスを判定する
+     * 親と異なるデバイス（マウントポイント）でマウントポリシーにより対象外となる場合は null を返す
+     */
+    DeviceRegistry.Device deviceOf(Path directory, long deviceId, DeviceRegistry.Device parent) {
+      if (parent.getId() == DeviceRegistry.UNKNOWN_DEVICE || deviceId == parent.getId()) {
+        return parent;
+      }
+
+      DeviceRegistry.Device device = devices.resolve(deviceId, directory);
+      boolean skip = mountPolicy == ScanOptions.MountPolicy.SAME_FILESYSTEM
+          || (mountPolicy == ScanOptions.MountPolicy.SKIP_PSEUDO && device.isPseudo());
+      if (skip) {
+        logger.debug("マウントポイントをスキップ: {} ({})", directory, device.getType());
+        skippedMountCount.increment();
+        return null;
+      }
+      return device;
+    }
+
+    /**
+     * 未通知のエントリが一定数たまっていればリスナーへ通知する
+     */
+    void publishIfFull(WorkerBatch batch, Path currentDirectory) {
+      if (publisher != null && batch.unpublishedCount() >= PUBLISH_BATCH_SIZE) {
+        publisher.publish(batch, currentDirectory);
+      }
+    }
+
+    /**
+     * 全ワーカーの未通知エントリを通知する（スキャン完了後に呼び出す）
+     */
+    void flush(Path root) {
+      if (publisher == null) {
+        return;
+      }
+      for (WorkerBatch batch : batches) {
+        if (batch.unpublishedCount() > 0) {
+          publisher.publish(batch, root);
+        }
+      }
+    }
+
+    /**
+     * 全ワーカーのバッチを1つに集約する（スキャン完了後に呼び出す）
+     */
+    WorkerBatch merge() {
+      int totalNodes = 0;
+      for (WorkerBatch batch : batches) {
+        totalNodes += batch.nodes.size();
+      }
+
+      WorkerBatch merged = new WorkerBatch(totalNodes, extensions);
+      for (WorkerBatch batch : batches) {
+        merged.nodes.addAll(batch.nodes);
+        merged.totalSize += batch.totalSize;
+        merged.apparentSize += batch.apparentSize;
+        merged.fileCount += batch.fileCount;
+        merged.directoryCount += batch.directoryCount;
+        merged.extensionStats.merge(batch.extensionStats);
+        batch.nodes.clear();
+      }
+      batches.clear();
+      return merged;
+    }
+  }
+
+  /**
+   * ワーカースレッド専用の結果バッファ
+   * 単一スレッドからのみ更新されるため同期は不要
+   */
+  private static class WorkerBatch {
+    private final ColumnarScanStore store;
+    private final boolean retainNodes;
+    private final ExtensionDictionary extensions;
+    private final List<FileNode> nodes;
+    private final ExtensionStatistics extensionStats;
+    private long totalSize; // 同じinodeを1回だけ数えたサイズ
+    private long apparentSize; // パスごとのサイズの合計
+    private int fileCount;
+    private int directoryCount;
+    private int publishedIndex;
+    private long publishedSize;
+    private int publishedFileCount;
+    private int publishedDirectoryCount;
+
+    WorkerBatch(ColumnarScanStore store, ExtensionDictionary extensions, boolean retainNodes) {
+      this.store = store;
+      this.extensions = extensions;
+      this.retainNodes = retainNodes;
+      this.nodes = new ArrayList<>();
+      this.extensionStats = new ExtensionStatistics(extensions);
+    }
+
+    WorkerBatch(int initialCapacity, ExtensionDictionary extensions) {
+      this.store = null;
+      this.extensions = extensions;
+      this.retainNodes = true;
+      this.nodes = new ArrayList<>(initialCapacity);
+      this.extensionStats = new ExtensionStatistics(extensions);
+    }
+
+    /**
+     * ファイルを登録する
+     *
+     * @param link ハードリンクの重複判定に使う [デバイス, inode]（対象外の場合は null）
+     * @param unique 同じinodeの最初のリンクか（false の場合はサイズを合計に含めない）
+     */
+    void addFile(int parentId, Path file, long size, FileTime modified, boolean hidden, long[] link,
+        boolean unique) {
+      FileNode fileNode;
+      int extensionId;
+      if (store != null) {
+        int id = store.addEntry(parentId, nameOf(file), size, modified, false, hidden);
+        if (link != null) {
+          store.setLink(id, link);
+        }
+        if (!unique) {
+          store.markSharedLink(id);
+        }
+        extensionId = store.getExtensionId(id);
+        fileNode = store.getNode(id);
+      } else {
+        extensionId = extensions.idOf(nameOf(file));
+        fileNode = new FileNode(
+            file,
+            size,
+            modified,
+            false,
+            hidden,
+            1,
+            modified,
+            extensions.get(extensionId));
+        fileNode.setLink(link);
+      }
+
+      if (retainNodes) {
+        nodes.add(fileNode);
+      }
+      long countedSize = unique ? size : 0;
+      totalSize += countedSize;
+      apparentSize += size;
+      fileCount++;
+
+      // 拡張子統計（IDで引く配列への加算のみ）
+      extensionStats.add(extensionId, countedSize);
+    }
+
+    /**
+     * ディレクトリのエントリを走査前に登録する（列指向形式のみ。子の親IDとして使う）
+     */
+    int addDirectoryEntry(int parentId, Path dir, FileTime modified, boolean hidden) {
+      if (store == null) {
+        return ColumnarScanStore.NO_PARENT;
+      }
+      int id = store.addEntry(parentId, nameOf(dir), 0, modified, true, hidden);
+      if (retainNodes) {
+        nodes.add(store.getNode(id));
+      }
+      return id;
+    }
+
+    /**
+     * 配下の走査完了後にディレクトリの集計値を確定する
+     */
+    void completeDirectory(int id, Path dir, FileTime modified, boolean hidden, DirectoryRollup rollup) {
+      directoryCount++;
+      if (store != null) {
+        store.setDirectoryRollup(id, rollup.getSize(), rollup.getFileCount(), rollup.getNewestModified());
+        return;
+      }
+
+      FileNode dirNode = new FileNode(
+          dir,
+          rollup.getSize(),
+          modified,
+          true,
+          hidden,
+          rollup.getFileCount(),
+          rollup.getNewestModified());
+
+      nodes.add(dirNode);
+    }
+
+    int unpublishedCount() {
+      return nodes.size() - publishedIndex;
+    }
+
+  }
+
+  /**
+   * ワーカーのバッチをリスナーへ配信するパブリッシャー
+   * SubmissionPublisher の有限バッファにより、リスナーが遅い場合はワーカー側が待機する
+   */
+  private static class BatchPublisher implements AutoCloseable {
+    private final ExecutorService deliveryExecutor;
+    private final SubmissionPublisher<PublishedBatch> publisher;
+    private final CompletableFuture<Void> delivery;
+    private final AtomicLong totalFiles = new AtomicLong(0);
+    private final AtomicLong totalDirectories = new AtomicLong(0);
+    private final AtomicLong totalSize = new AtomicLong(0);
+    private final MetricsRegistry.Histogram queueDepth; // 配信待ちのバッチ数（リスナーの遅れ）
+
+    BatchPublisher(ScanListener listener, MetricsRegistry metrics) {
+      this.queueDepth = metrics.histogram("scan.publishQueue", "batches");
+      this.deliveryExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "lumidisk-scan-publisher");
+        thread.setDaemon(true);
+        return thread;
+      });
+      this.publisher = new SubmissionPublisher<>(deliveryExecutor, PUBLISH_BUFFER_CAPACITY);
+      this.delivery = publisher.consume(published -> {
+        try {
+          listener.onBatch(published.nodes, published.progress);
+        } catch (RuntimeException e) {
+          logger.warn("スキャンリスナーでエラーが発生", e);
+        }
+      });
+    }
+
+    /**
+     * ワーカーの未通知分を切り出して配信する（ワーカー自身のスレッドから呼び出す）
+     */
+    void publish(WorkerBatch batch, Path currentDirectory) {
+      List<FileNode> nodes = new ArrayList<>(batch.nodes.subList(batch.publishedIndex, batch.nodes.size()));
+      if (batch.store != null) {
+        // 列指向形式では通知済みのビューを保持し続ける必要はない
+        batch.nodes.clear();
+      }
+      batch.publishedIndex = batch.nodes.size();
+
+      long files = totalFiles.addAndGet(batch.fileCount - batch.publishedFileCount);
+      long directories = totalDirectories.addAndGet(batch.directoryCount - batch.publishedDirectoryCount);
+      long size = totalSize.addAndGet(batch.totalSize - batch.publishedSize);
+      batch.publishedFileCount = batch.fileCount;
+      batch.publishedDirectoryCount = batch.directoryCount;
+      batch.publishedSize = batch.totalSize;
+
+      publisher.submit(new PublishedBatch(nodes, new ScanProgress(files, directories, size, currentDirectory)));
+      queueDepth.record(publisher.estimateMaximumLag());
+    }
+
+    /**
+     * 配信済みのバッチがすべてリスナーに届くまで待機する
+     */
+    void awaitDelivery() {
+      publisher.close();
+      delivery.join();
+    }
+
+    @Override
+    public void close() {
+      publisher.close();
+      deliveryExecutor.shutdown();
+    }
+  }
+
+  private static class PublishedBatch {
+    private final List<FileNode> nodes;
+    private final ScanProgress progress;
+
+    PublishedBatch(List<FileNode> nodes, ScanProgress progress) {
+      this.nodes = nodes;
+      this.progress = progress;
+    }
+  }
+
+  /**
+   * リソースを解放する
+   * 共有ランタイムを使用している場合は何もしない
+   */
+  public void shutdown() {
+    if (ownsRuntime) {
+      runtime.shutdown();
+    }
+  }
+
   private String formatSize(long bytes) {
     if (bytes < 1024) {
       return bytes + " B";
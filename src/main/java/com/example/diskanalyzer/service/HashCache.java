@@ -0,0 +1,257 @@
+package com.example.diskanalyzer.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ファイル内容のハッシュ値を保存する永続キャッシュ（SQLite）
+ * パスごとに、ハッシュを計算した時点のデバイス・inode・サイズ・更新日時を保存し、
+ * すべて一致する場合のみ保存済みの値を使う。ファイルが変更・置き換えされていれば一致しないため読み直す。
+ * 既定の保存先は ~/.lumidisk/hashes.db。システムプロパティ lumidisk.hashCache=false で無効になる
+ */
+public class HashCache implements AutoCloseable {
+  private static final Logger logger = LoggerFactory.getLogger(HashCache.class);
+  private static final String DATABASE_FILE = "hashes.db";
+  private static final int SCHEMA_VERSION = 1;
+  private static final int BATCH_SIZE = 1000; // 1トランザクションで書き込む件数
+  private static final long RETENTION_DAYS = 180; // これより前に計算した値は開いたときに削除する
+
+  private final Path databaseFile;
+  private final MetricsRegistry.Counter hits;
+  private final MetricsRegistry.Counter misses;
+  private final MetricsRegistry.Counter stored;
+  private final MetricsRegistry.Histogram lookupLatency;
+  private final MetricsRegistry.Histogram writeLatency;
+  private Connection connection;
+  private boolean unavailable; // 開けなかった・エラーになった場合は以降使わない
+
+  /**
+   * 遅延初期化される共有インスタンス（無効にされている場合は null）
+   */
+  private static class DefaultHolder {
+    private static final HashCache INSTANCE =
+        Boolean.parseBoolean(System.getProperty("lumidisk.hashCache", "true")) ? new HashCache() : null;
+  }
+
+  public HashCache() {
+    this(Paths.get(System.getProperty("user.home"), ".lumidisk", DATABASE_FILE),
+        ExecutionRuntime.getDefault().getMetrics());
+  }
+
+  /**
+   * @param databaseFile SQLite のデータベースファイル（最初に使うときに作成する）
+   * @param metrics ヒット数と所要時間を記録する先
+   */
+  public HashCache(Path databaseFile, MetricsRegistry metrics) {
+    this.databaseFile = databaseFile;
+    this.hits = metrics.counter("hashCache.hits");
+    this.misses = metrics.counter("hashCache.misses");
+    this.stored = metrics.counter("hashCache.stored");
+    this.lookupLatency = metrics.histogram("hashCache.lookup", "ns");
+    this.writeLatency = metrics.histogram("hashCache.write", "ns");
+  }
+
+  /**
+   * アプリケーション共通のキャッシュを取得する（無効にされている場合は null）
+   */
+  public static HashCache getDefault() {
+    return DefaultHolder.INSTANCE;
+  }
+
+  public Path getDatabaseFile() {
+    return databaseFile;
+  }
+
+  /**
+   * 保存済みのハッシュ値を検索し、見つかったものを digests の同じ位置に設定する
+   * 属性が null の位置と、すでに値がある位置は検索しない
+   *
+   * @param kind ハッシュの種類（ハッシュ関数と部分・全体の区別）
+   * @return 見つかった件数
+   */
+  synchronized int lookup(String kind, List<Path> paths, EntryAttributes[] attributes, byte[][] digests) {
+    Connection db = connection();
+    if (db == null) {
+      return 0;
+    }
+    long lookupStart = System.nanoTime();
+    int found = 0;
+    try (PreparedStatement select = db.prepareStatement(
+        "SELECT device, inode, size, mtime, digest FROM file_hashes WHERE path = ? AND kind = ?")) {
+      // 読み込みも1つのトランザクションにまとめるとロックの取得が1回で済む
+      db.setAutoCommit(false);
+      for (int i = 0; i < paths.size(); i++) {
+        EntryAttributes attrs = attributes[i];
+        if (attrs == null || digests[i] != null) {
+          continue;
+        }
+        select.setString(1, paths.get(i).toString());
+        select.setString(2, kind);
+        try (ResultSet rs = select.executeQuery()) {
+          if (rs.next() && rs.getLong(1) == attrs.device() && rs.getLong(2) == attrs.inode()
+              && rs.getLong(3) == attrs.size() && rs.getLong(4) == modifiedNanos(attrs)) {
+            digests[i] = rs.getBytes(5);
+            found++;
+          }
+        }
+      }
+      db.commit();
+    } catch (SQLException e) {
+      disable("ハッシュキャッシュの検索に失敗", e);
+    }
+    lookupLatency.recordSince(lookupStart);
+    hits.add(found);
+    int searched = 0;
+    for (EntryAttributes attrs : attributes) {
+      if (attrs != null) {
+        searched++;
+      }
+    }
+    misses.add(searched - found);
+    return found;
+  }
+
+  /**
+   * 計算したハッシュ値を保存する（BATCH_SIZE 件ごとに1トランザクションで書き込む）
+   * 属性が null の位置、値が null の位置、cached が true の位置（キャッシュから取得した値）は保存しない
+   */
+  synchronized void store(String kind, List<Path> paths, EntryAttributes[] attributes, byte[][] digests,
+      boolean[] cached) {
+    Connection db = connection();
+    if (db == null) {
+      return;
+    }
+    long writeStart = System.nanoTime();
+    long now = System.currentTimeMillis();
+    int count = 0;
+    try (PreparedStatement insert = db.prepareStatement(
+        "INSERT OR REPLACE INTO file_hashes (path, kind, device, inode, size, mtime, digest, updated)"
+            + " VALUES (?, ?, ?, ?, ?, ?, ?, ?)")) {
+      db.setAutoCommit(false);
+      int pending = 0;
+      for (int i = 0; i < paths.size(); i++) {
+        EntryAttributes attrs = attributes[i];
+        if (attrs == null || digests[i] == null || cached[i]) {
+          continue;
+        }
+        insert.setString(1, paths.get(i).toString());
+        insert.setString(2, kind);
+        insert.setLong(3, attrs.device());
+        insert.setLong(4, attrs.inode());
+        insert.setLong(5, attrs.size());
+        insert.setLong(6, modifiedNanos(attrs));
+        insert.setBytes(7, digests[i]);
+        insert.setLong(8, now);
+        insert.addBatch();
+        count++;
+        if (++pending == BATCH_SIZE) {
+          insert.executeBatch();
+          db.commit();
+          pending = 0;
+        }
+      }
+      if (pending > 0) {
+        insert.executeBatch();
+        db.commit();
+      }
+    } catch (SQLException e) {
+      disable("ハッシュキャッシュの保存に失敗", e);
+      return;
+    }
+    writeLatency.recordSince(writeStart);
+    stored.add(count);
+  }
+
+  /**
+   * 保存済みのハッシュ値をすべて削除する
+   */
+  public synchronized void clear() {
+    Connection db = connection();
+    if (db == null) {
+      return;
+    }
+    try (Statement statement = db.createStatement()) {
+      db.setAutoCommit(true);
+      statement.executeUpdate("DELETE FROM file_hashes");
+      logger.info("ハッシュキャッシュを削除しました: {}", databaseFile);
+    } catch (SQLException e) {
+      disable("ハッシュキャッシュの削除に失敗", e);
+    }
+  }
+
+  private static long modifiedNanos(EntryAttributes attrs) {
+    return attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * 接続を取得する（初回はデータベースを開き、テーブルを作成する）
+   */
+  private Connection connection() {
+    if (connection != null || unavailable) {
+      return connection;
+    }
+    try {
+      Files.createDirectories(databaseFile.toAbsolutePath().getParent());
+      Connection db = DriverManager.getConnection("jdbc:sqlite:" + databaseFile);
+      try (Statement statement = db.createStatement()) {
+        // 並列に実行された別のプロセスが読み込み中でも書き込めるようにする
+        statement.execute("PRAGMA journal_mode = WAL");
+        statement.execute("PRAGMA synchronous = NORMAL");
+        statement.execute("CREATE TABLE IF NOT EXISTS file_hashes ("
+            + "path TEXT NOT NULL, kind TEXT NOT NULL, device INTEGER NOT NULL, inode INTEGER NOT NULL,"
+            + " size INTEGER NOT NULL, mtime INTEGER NOT NULL, digest BLOB NOT NULL, updated INTEGER NOT NULL,"
+            + " PRIMARY KEY (path, kind)) WITHOUT ROWID");
+        statement.execute("PRAGMA user_version = " + SCHEMA_VERSION);
+        long expired = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(RETENTION_DAYS);
+        int removed = statement.executeUpdate("DELETE FROM file_hashes WHERE updated < " + expired);
+        if (removed > 0) {
+          logger.info("古いハッシュキャッシュを削除しました: {} 件", removed);
+        }
+      }
+      connection = db;
+      logger.info("ハッシュキャッシュを開きました: {}", databaseFile);
+    } catch (IOException | SQLException e) {
+      disable("ハッシュキャッシュを開けません: " + databaseFile, e);
+    }
+    return connection;
+  }
+
+  private void disable(String message, Exception e) {
+    logger.warn("{}（以降はキャッシュを使用しません）", message, e);
+    unavailable = true;
+    closeConnection();
+  }
+
+  private void closeConnection() {
+    if (connection == null) {
+      return;
+    }
+    try {
+      connection.close();
+    } catch (SQLException e) {
+      logger.debug("ハッシュキャッシュを閉じる際のエラー", e);
+    }
+    connection = null;
+  }
+
+  /**
+   * データベースを閉じる（再び使用した場合は開き直す）
+   */
+  @Override
+  public synchronized void close() {
+    closeConnection();
+  }
+}
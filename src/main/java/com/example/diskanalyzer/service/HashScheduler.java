@@ -0,0 +1,237 @@
+package com.example.diskanalyzer.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+/**
+ * ハッシュを計算するファイルをデバイスごとの待ち行列に分け、読み込む順序と同時に読み込むワーカー数を決める
+ * 各デバイスではデバイスの並列度（回転ディスクは2）以内のワーカーが1つの待ち行列から順に1ファイルずつ取り出すため、
+ * 大きなファイルを読んでいるワーカーがいても、他のワーカーは残りのファイルを処理し続ける（バイト数で均される）。
+ * 待ち行列は、ページキャッシュに載っているファイルを先にし、回転ディスクでは inode の順（ディスク上の配置に近い）、
+ * それ以外では大きいファイルから並べる
+ */
+class HashScheduler {
+  private static final Logger logger = LoggerFactory.getLogger(HashScheduler.class);
+  // これより小さいファイルはページキャッシュを確認しない（確認の負荷に見合わない）
+  private static final long CACHE_PROBE_MIN_SIZE = FileContentReader.BUFFER_SIZE;
+  // ファイルの中央のこの範囲（1ページ）がメモリ上にあればキャッシュ済みとみなす
+  // 部分ハッシュで読んだ先頭・末尾・等間隔のブロックとは重ならない位置を確認する
+  private static final long CACHE_PROBE_LENGTH = 4096;
+  // 1回の実行で確認するファイル数の上限（マップはGCまで残るため、マップ数の上限に近づかないようにする）
+  private static final int CACHE_PROBE_MAX_FILES = 1024;
+
+  private final ExecutionRuntime runtime;
+  private final MetricsRegistry.Counter cachedFiles;
+
+  HashScheduler(ExecutionRuntime runtime, MetricsRegistry metrics) {
+    this.runtime = runtime;
+    this.cachedFiles = metrics.counter("hash.schedule.cachedFiles");
+  }
+
+  /**
+   * すべてのファイルに action を並列に実行する（中止された場合は残りのファイルを処理しない）
+   * 複数のファイルをまとめて処理する場合は、代表のファイルの位置・大きさ・属性を渡す
+   *
+   * @param attributes paths と同じ位置の属性（null の位置はデバイス不明として扱う）
+   * @param probeCache ページキャッシュに載っているファイルを先に処理する場合は true（ファイル全体を読む場合）
+   * @param action ファイルの位置を受け取って処理する
+   */
+  void execute(ExecutionRuntime.Job job, List<Path> paths, long[] sizes, EntryAttributes[] attributes,
+      boolean probeCache, CancellationToken cancellation, IntConsumer action) {
+    List<DeviceQueue> queues = plan(paths, sizes, attributes, probeCache);
+    runtime.invoke(new RootTask(job, queues, cancellation, action));
+  }
+
+  /**
+   * デバイスごとの待ち行列を作成する
+   */
+  private List<DeviceQueue> plan(List<Path> paths, long[] sizes, EntryAttributes[] attributes, boolean probeCache) {
+    DeviceRegistry registry = runtime.getDeviceRegistry();
+    Map<DeviceRegistry.Device, List<Integer>> byDevice = new LinkedHashMap<>();
+    for (int i = 0; i < paths.size(); i++) {
+      long deviceId = attributes[i] != null ? attributes[i].device() : DeviceRegistry.UNKNOWN_DEVICE;
+      byDevice.computeIfAbsent(registry.resolve(deviceId, paths.get(i)), device -> new ArrayList<>()).add(i);
+    }
+
+    List<DeviceQueue> queues = new ArrayList<>(byDevice.size());
+    boolean[] cached = new boolean[paths.size()];
+    int[] probesLeft = {CACHE_PROBE_MAX_FILES};
+    byDevice.forEach((device, members) -> {
+      int cachedCount = 0;
+      if (probeCache && device.getKind() != DeviceRegistry.DeviceKind.MEMORY) {
+        for (int index : members) {
+          if (sizes[index] < CACHE_PROBE_MIN_SIZE || probesLeft[0] <= 0) {
+            continue;
+          }
+          probesLeft[0]--;
+          if (isCached(paths.get(index), sizes[index])) {
+            cached[index] = true;
+            cachedCount++;
+          }
+        }
+        cachedFiles.add(cachedCount);
+      }
+
+      Comparator<Integer> order = Comparator.comparing((Integer index) -> !cached[index]);
+      if (device.getKind() == DeviceRegistry.DeviceKind.ROTATIONAL
+          || device.getKind() == DeviceRegistry.DeviceKind.UNKNOWN) {
+        // シークを減らすため、ディスク上の配置に近い inode の順に読む
+        order = order.thenComparingLong(index -> attributes[index] != null ? attributes[index].inode() : 0);
+      } else {
+        // 大きいファイルを先に始め、終盤に1つのワーカーだけが残らないようにする
+        order = order.thenComparing(index -> sizes[index], Comparator.reverseOrder());
+      }
+      members.sort(order);
+
+      int[] indices = new int[members.size()];
+      long bytes = 0;
+      for (int i = 0; i < indices.length; i++) {
+        indices[i] = members.get(i);
+        bytes += sizes[indices[i]];
+      }
+      int workers = Math.min(device.getBudget(), indices.length);
+      logger.debug("ハッシュ計算の割り当て: デバイス {} ({}), {} ファイル, {} バイト, キャッシュ済み {}, ワーカー {}",
+          device.getId(), device.getKind(), indices.length, bytes, cachedCount, workers);
+      queues.add(new DeviceQueue(device, indices, workers));
+    });
+    return queues;
+  }
+
+  /**
+   * ファイルの中央のページがページキャッシュに載っているか（読み込みは発生しない）
+   * マップは1ページだけなので、解除をGCに任せてもアドレス空間をほとんど消費しない
+   */
+  private static boolean isCached(Path path, long size) {
+    long offset = (size / 2) & -CACHE_PROBE_LENGTH;
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      return channel.map(FileChannel.MapMode.READ_ONLY, offset, CACHE_PROBE_LENGTH).isLoaded();
+    } catch (IOException | UnsupportedOperationException e) {
+      logger.debug("ページキャッシュを確認できません: {}", path, e);
+      return false;
+    }
+  }
+
+  /**
+   * 1つのデバイスの待ち行列（ワーカーは先頭から順に取り出す）
+   */
+  private static class DeviceQueue {
+    private final DeviceRegistry.Device device;
+    private final int[] indices;
+    private final int workers;
+    private final AtomicInteger next = new AtomicInteger(0);
+
+    DeviceQueue(DeviceRegistry.Device device, int[] indices, int workers) {
+      this.device = device;
+      this.indices = indices;
+      this.workers = workers;
+    }
+
+    /**
+     * 次に処理するファイルの位置（空の場合は -1）
+     */
+    int poll() {
+      int position = next.getAndIncrement();
+      return position < indices.length ? indices[position] : -1;
+    }
+  }
+
+  /**
+   * デバイスごとのワーカーを起動し、すべて終わるまで待つ
+   */
+  private static class RootTask extends RecursiveTask<Void> {
+    private final ExecutionRuntime.Job job;
+    private final List<DeviceQueue> queues;
+    private final CancellationToken cancellation;
+    private final IntConsumer action;
+
+    RootTask(ExecutionRuntime.Job job, List<DeviceQueue> queues, CancellationToken cancellation,
+        IntConsumer action) {
+      this.job = job;
+      this.queues = queues;
+      this.cancellation = cancellation;
+      this.action = action;
+    }
+
+    @Override
+    protected Void compute() {
+      ExecutionRuntime.Job previous = job.enter();
+      try {
+        // 公平な割り当てやデバイスの並列度を超える分はforkしない。各デバイスの1つはこのワーカー内で処理する
+        List<WorkerTask> forked = new ArrayList<>();
+        List<WorkerTask> inline = new ArrayList<>();
+        for (DeviceQueue queue : queues) {
+          inline.add(new WorkerTask(job, queue, cancellation, action));
+          for (int i = 1; i < queue.workers && job.canFork() && queue.device.tryReserveTask(); i++) {
+            WorkerTask worker = new WorkerTask(job, queue, cancellation, action);
+            worker.reserved = true;
+            worker.fork();
+            forked.add(worker);
+          }
+        }
+        for (WorkerTask worker : inline) {
+          worker.invoke();
+        }
+        for (int i = forked.size() - 1; i >= 0; i--) {
+          forked.get(i).join();
+        }
+      } finally {
+        job.exit(previous);
+      }
+      return null;
+    }
+  }
+
+  /**
+   * 1つのデバイスの待ち行列からファイルを取り出して処理するワーカー
+   */
+  private static class WorkerTask extends RecursiveTask<Void> {
+    private final ExecutionRuntime.Job job;
+    private final DeviceQueue queue;
+    private final CancellationToken cancellation;
+    private final IntConsumer action;
+    private boolean reserved; // デバイスのタスク枠を確保してforkした場合は true
+
+    WorkerTask(ExecutionRuntime.Job job, DeviceQueue queue, CancellationToken cancellation, IntConsumer action) {
+      this.job = job;
+      this.queue = queue;
+      this.cancellation = cancellation;
+      this.action = action;
+    }
+
+    @Override
+    protected Void compute() {
+      ExecutionRuntime.Job previous = job.enter();
+      try {
+        int index;
+        while (!cancellation.isCancelled() && (index = queue.poll()) >= 0) {
+          // 読み込み中はデバイスの枠を占有し、同じデバイスを走査中のスキャンとも同時アクセス数を共有する
+          queue.device.acquire();
+          try {
+            action.accept(index);
+          } finally {
+            queue.device.release();
+          }
+        }
+      } finally {
+        job.exit(previous);
+        if (reserved) {
+          queue.device.releaseTask();
+        }
+      }
+      return null;
+    }
+  }
+}
@@ -1,6 +1,9 @@
 package com.example.diskanalyzer.service;
 
+import com.example.diskanalyzer.model.ColumnarScanStore;
+import com.example.diskanalyzer.model.ExtensionStatistics;
 import com.example.diskanalyzer.model.FileNode;
+import com.example.diskanalyzer.model.ScanOptions;
 import com.example.diskanalyzer.model.ScanResult;
 import com.example.diskanalyzer.model.ScanSnapshot;
 import org.slf4j.Logger;
@@ -8,15 +11,14 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.time.LocalDateTime;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ForkJoinPool;
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 増分スキャンサービス
@@ -27,18 +29,44 @@ public class IncrementalScanService {
 
   private final FileScanner fileScanner;
   private final ScanCacheService cacheService;
-  private final ForkJoinPool pool;
+  private final ExecutionRuntime runtime;
 
   public IncrementalScanService() {
-    this.fileScanner = new FileScanner();
-    this.cacheService = new ScanCacheService();
-    this.pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    this(ExecutionRuntime.getDefault());
+  }
+
+  public IncrementalScanService(ExecutionRuntime runtime) {
+    this.runtime = runtime;
+    this.fileScanner = new FileScanner(runtime);
+    this.cacheService = new ScanCacheService(runtime.getMetrics());
   }
 
   /**
    * 増分スキャンを実行する
    */
   public ScanResult incrementalScan(Path rootPath) throws IOException {
+    return incrementalScan(rootPath, new CancellationToken());
+  }
+
+  /**
+   * 中止可能な増分スキャンを実行する
+   * 中止された場合は、それまでに検出・再スキャンした変更だけを前回の結果に反映した未完了の結果を返す。
+   * 未完了の結果はスナップショットとして保存しない
+   */
+  public ScanResult incrementalScan(Path rootPath, CancellationToken cancellation) throws IOException {
+    try (MetricsRegistry.Run run = runtime.getMetrics().startRun("incremental", rootPath)) {
+      ScanResult result = incrementalScan(rootPath, cancellation, run);
+      run.record("files", result.getTotalFiles());
+      run.record("directories", result.getTotalDirectories());
+      if (!result.isComplete()) {
+        run.markIncomplete();
+      }
+      return result;
+    }
+  }
+
+  private ScanResult incrementalScan(Path rootPath, CancellationToken cancellation, MetricsRegistry.Run run)
+      throws IOException {
     logger.info("増分スキャン開始: {}", rootPath);
     long startTime = System.currentTimeMillis();
 
@@ -47,26 +75,37 @@ public class IncrementalScanService {
 
     if (lastSnapshot.isEmpty()) {
       logger.info("前回のスナップショットが見つからないため、フルスキャンを実行");
-      return performFullScan(rootPath);
+      run.record("fullScan", true);
+      return performFullScan(rootPath, cancellation);
     }
 
     ScanSnapshot previousSnapshot = lastSnapshot.get();
     logger.info("前回のスナップショットを発見: {}", previousSnapshot.getScanTime());
 
     // 変更されたファイルを検出
-    Set<Path> changedFiles = detectChangedFiles(rootPath, previousSnapshot);
+    long detectStart = System.currentTimeMillis();
+    Set<Path> changedFiles = detectChangedFiles(rootPath, previousSnapshot, cancellation);
     logger.info("変更されたファイル数: {}", changedFiles.size());
+    run.record("fullScan", false);
+    run.record("previousEntries", previousSnapshot.getFiles().size());
+    run.record("changedEntries", changedFiles.size());
+    run.record("detectMillis", System.currentTimeMillis() - detectStart);
 
     if (changedFiles.isEmpty()) {
       logger.info("変更が検出されませんでした");
-      return previousSnapshot.toScanResult();
+      ScanResult unchanged = previousSnapshot.toScanResult();
+      return cancellation.isCancelled() ? unchanged.asIncomplete() : unchanged;
     }
 
     // 変更されたファイルのみを再スキャン
-    List<FileNode> newFiles = rescanChangedFiles(rootPath, changedFiles, previousSnapshot);
+    List<FileNode> newFiles = rescanChangedFiles(rootPath, changedFiles, previousSnapshot, cancellation);
 
     // 新しいスナップショットを作成
     ScanResult result = createUpdatedScanResult(previousSnapshot, newFiles, changedFiles);
+    if (cancellation.isCancelled()) {
+      logger.info("増分スキャンが中止されました: {} (反映済みの変更 {} 件)", rootPath, changedFiles.size());
+      return result.asIncomplete();
+    }
 
     // スナップショットを保存
     ScanSnapshot newSnapshot = new ScanSnapshot(
@@ -91,10 +130,20 @@ public class IncrementalScanService {
    * フルスキャンを実行する
    */
   public ScanResult performFullScan(Path rootPath) throws IOException {
+    return performFullScan(rootPath, new CancellationToken());
+  }
+
+  /**
+   * 中止可能なフルスキャンを実行する（中止された場合はスナップショットを保存しない）
+   */
+  public ScanResult performFullScan(Path rootPath, CancellationToken cancellation) throws IOException {
     logger.info("フルスキャン実行: {}", rootPath);
     long startTime = System.currentTimeMillis();
 
-    ScanResult result = fileScanner.scan(rootPath);
+    ScanResult result = fileScanner.scan(rootPath, new ScanOptions(), null, cancellation);
+    if (!result.isComplete()) {
+      return result;
+    }
 
     // スナップショットを保存
     ScanSnapshot snapshot = new ScanSnapshot(
@@ -114,10 +163,16 @@ public class IncrementalScanService {
 
   /**
    * 変更されたファイルを検出する
+   * 中止された場合は走査済みの範囲で検出した変更のみを返す（削除の判定は行わない）
    */
-  private Set<Path> detectChangedFiles(Path rootPath, ScanSnapshot previousSnapshot) {
+  private Set<Path> detectChangedFiles(Path rootPath, ScanSnapshot previousSnapshot,
+      CancellationToken cancellation) {
     Set<Path> changedFiles = new HashSet<>();
     Map<Path, FileNode> previousFiles = new HashMap<>();
+    Set<Path> visitedPaths = new HashSet<>();
+    boolean[] walkIncomplete = {false};
+    IoThrottle throttle = runtime.getIoThrottle();
+    MetricsRegistry.Counter walked = runtime.getMetrics().counter("incremental.walked");
 
     // 前回のファイル情報をマップに変換
     for (FileNode file : previousSnapshot.getFiles()) {
@@ -128,6 +183,9 @@ public class IncrementalScanService {
       Files.walkFileTree(rootPath, new java.nio.file.SimpleFileVisitor<Path>() {
         @Override
         public java.nio.file.FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+          throttle.acquireOperation();
+          walked.increment();
+          visitedPaths.add(file);
           FileNode previousFile = previousFiles.get(file);
 
           if (previousFile == null) {
@@ -145,6 +203,12 @@ public class IncrementalScanService {
 
         @Override
         public java.nio.file.FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+          if (cancellation.isCancelled()) {
+            return java.nio.file.FileVisitResult.TERMINATE;
+          }
+          throttle.acquireOperation();
+          walked.increment();
+          visitedPaths.add(dir);
           FileNode previousDir = previousFiles.get(dir);
 
           if (previousDir == null) {
@@ -162,18 +226,42 @@ public class IncrementalScanService {
         @Override
         public java.nio.file.FileVisitResult visitFileFailed(Path file, IOException exc) {
           logger.warn("ファイルアクセス失敗: {}", file, exc);
+          walkIncomplete[0] = true;
+          return java.nio.file.FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public java.nio.file.FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+          if (exc != null) {
+            logger.warn("ディレクトリアクセスエラー: {}", dir, exc);
+            walkIncomplete[0] = true;
+          }
           return java.nio.file.FileVisitResult.CONTINUE;
         }
       });
     } catch (IOException e) {
       logger.error("ファイル変更検出中にエラーが発生", e);
+      walkIncomplete[0] = true;
+    }
+
+    if (cancellation.isCancelled()) {
+      // 訪れなかったパスが削除されたかは分からないため、前回の情報をそのまま残す
+      return changedFiles;
     }
 
     // 削除されたファイルも検出
+    // 走査で訪れなかったパスは削除済み。走査が途中で失敗した場合のみ存在を個別に確認する
     for (Path previousPath : previousFiles.keySet()) {
-      if (!Files.exists(previousPath)) {
-        changedFiles.add(previousPath);
+      if (visitedPaths.contains(previousPath)) {
+        continue;
+      }
+      if (walkIncomplete[0]) {
+        throttle.acquireOperation();
+        if (Files.exists(previousPath, LinkOption.NOFOLLOW_LINKS)) {
+          continue;
+        }
       }
+      changedFiles.add(previousPath);
     }
 
     return changedFiles;
@@ -181,9 +269,16 @@ public class IncrementalScanService {
 
   /**
    * 変更されたファイルを再スキャンする
+   * 中止された場合、未処理のパスは changedFiles から取り除き、前回の情報を残す
    */
-  private List<FileNode> rescanChangedFiles(Path rootPath, Set<Path> changedFiles, ScanSnapshot previousSnapshot) {
+  private List<FileNode> rescanChangedFiles(Path rootPath, Set<Path> changedFiles, ScanSnapshot previousSnapshot,
+      CancellationToken cancellation) {
     ConcurrentLinkedQueue<FileNode> newFiles = new ConcurrentLinkedQueue<>();
+    Set<Path> processed = ConcurrentHashMap.newKeySet();
+    IoThrottle throttle = runtime.getIoThrottle();
+    MetricsRegistry.Counter rescanned = runtime.getMetrics().counter("incremental.rescanned");
+    MetricsRegistry.Histogram statLatency = runtime.getMetrics().histogram("incremental.stat", "ns");
+    EntryAttributes.Source attributeSource = EntryAttributes.Source.of(rootPath.getFileSystem());
 
     // 前回のファイル情報をマップに変換
     Map<Path, FileNode> previousFiles = new HashMap<>();
@@ -191,34 +286,53 @@ public class IncrementalScanService {
       previousFiles.put(file.getPath(), file);
     }
 
-    // 変更されたファイルを並列処理
-    pool.submit(() -> {
-      changedFiles.parallelStream().forEach(path -> {
+    // 変更されたファイルを共有ランタイム上で並列処理
+    try (ExecutionRuntime.Job job = runtime.openJob(ExecutionRuntime.JobType.INCREMENTAL_SCAN)) {
+      runtime.invoke(() -> changedFiles.parallelStream().forEach(path -> {
+        if (cancellation.isCancelled()) {
+          return;
+        }
+        processed.add(path);
+        ExecutionRuntime.Job previous = job.enter();
         try {
-          if (Files.exists(path)) {
-            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
-            boolean isHidden = Files.isHidden(path);
-
-            FileNode fileNode = new FileNode(
-                path,
-                attrs.size(),
-                attrs.lastModifiedTime(),
-                attrs.isDirectory(),
-                isHidden);
-
-            newFiles.add(fileNode);
+          // 存在確認・属性・隠し属性を1回の読み込みで取得する（存在しなければ削除済み）
+          throttle.acquireOperation();
+          rescanned.increment();
+          long statStart = System.nanoTime();
+          EntryAttributes attrs = EntryAttributes.read(path, false, attributeSource);
+          statLatency.recordSince(statStart);
+
+          FileNode fileNode = new FileNode(
+              path,
+              attrs.size(),
+              attrs.lastModifiedTime(),
+              attrs.isDirectory(),
+              attrs.isHidden());
+          if (!attrs.isDirectory() && attrs.hasInode() && attrs.linkCount() > 1) {
+            fileNode.setLink(new long[] {attrs.device(), attrs.inode()});
           }
+
+          newFiles.add(fileNode);
+        } catch (NoSuchFileException e) {
+          logger.debug("削除済みのファイル: {}", path);
         } catch (IOException e) {
           logger.warn("ファイル再スキャンエラー: {}", path, e);
+        } finally {
+          job.exit(previous);
         }
-      });
-    }).join();
+      }));
+    }
 
+    if (cancellation.isCancelled()) {
+      changedFiles.retainAll(processed);
+    }
     return new ArrayList<>(newFiles);
   }
 
   /**
    * 更新されたスキャン結果を作成する
+   * 同じinodeのリンクはフルスキャンと同様に最初の1つだけをサイズの合計・ディレクトリの集計値に含める
+   * （リンクの情報を持たない古いスナップショットのファイルはそれぞれ別のファイルとして数える）
    */
   private ScanResult createUpdatedScanResult(ScanSnapshot previousSnapshot, List<FileNode> newFiles,
       Set<Path> changedFiles) {
@@ -236,28 +350,76 @@ public class IncrementalScanService {
       updatedFiles.put(file.getPath(), file);
     }
 
+    // 親ID＋名前の形式に詰め直し、ディレクトリの集計値を再計算する
+    // （変更のあったディレクトリは属性のサイズしか持たないため）
+    ColumnarScanStore store = buildStore(previousSnapshot.getRootPath(), updatedFiles.values());
+
     // 統計情報を再計算
-    List<FileNode> allFiles = new ArrayList<>(updatedFiles.values());
-    Map<String, Long> extensionStats = new HashMap<>();
+    ExtensionStatistics extensionStats = new ExtensionStatistics(store.getExtensionDictionary());
+    InodeSet linkedFiles = new InodeSet();
     long totalSize = 0;
+    long apparentSize = 0;
     int totalFiles = 0;
     int totalDirectories = 0;
 
-    for (FileNode file : allFiles) {
-      if (file.isDirectory()) {
+    for (int id = 0; id < store.size(); id++) {
+      if (store.isDirectory(id)) {
         totalDirectories++;
-      } else {
-        totalFiles++;
-        totalSize += file.getSize();
+        continue;
+      }
+      long[] link = store.getLink(id);
+      boolean unique = link == null || linkedFiles.add(link[0], link[1]);
+      if (!unique) {
+        store.markSharedLink(id);
+      }
+      long countedSize = unique ? store.getSize(id) : 0;
+      totalFiles++;
+      totalSize += countedSize;
+      apparentSize += store.getSize(id);
+      extensionStats.add(store.getExtensionId(id), countedSize);
+    }
+    store.recomputeDirectoryRollups();
+
+    return new ScanResult(store, extensionStats, totalSize, apparentSize, totalFiles, totalDirectories, 0);
+  }
 
-        String ext = file.getExtension();
-        if (!ext.isEmpty()) {
-          extensionStats.merge(ext, file.getSize(), Long::sum);
+  /**
+   * ノードを浅い階層から順に列指向ストアへ追加する
+   * 親が先に追加されるため、パスから親IDを引くのは各ノード1回だけで済む
+   */
+  private ColumnarScanStore buildStore(Path rootPath, Collection<FileNode> nodes) {
+    List<FileNode> ordered = new ArrayList<>(nodes);
+    ordered.sort(Comparator.comparingInt(node -> node.getPath().getNameCount()));
+
+    ColumnarScanStore store = new ColumnarScanStore(rootPath);
+    Map<Path, Integer> directoryIds = new HashMap<>();
+    for (FileNode node : ordered) {
+      Path path = node.getPath();
+      int parentId;
+      if (path.equals(rootPath)) {
+        parentId = ColumnarScanStore.NO_PARENT;
+      } else {
+        Integer id = directoryIds.get(path.getParent());
+        if (id == null) {
+          logger.warn("親ディレクトリが見つからないため除外: {}", path);
+          continue;
         }
+        parentId = id;
       }
-    }
 
-    return new ScanResult(allFiles, extensionStats, totalSize, totalFiles, totalDirectories, 0);
+      int id = store.addEntry(parentId, node.getName(), node.getSize(), node.getModified(),
+          node.isDirectory(), node.isHidden());
+      if (node.getDigest() != null) {
+        store.setDigest(id, node.getDigest());
+      }
+      if (node.getLink() != null) {
+        store.setLink(id, node.getLink());
+      }
+      if (node.isDirectory()) {
+        directoryIds.put(path, id);
+      }
+    }
+    return store;
   }
 
   /**
@@ -269,8 +431,9 @@ public class IncrementalScanService {
 
   /**
    * リソースを解放する
+   * 実行ランタイムは共有されているため、ここでは停止しない
    */
   public void shutdown() {
-    pool.shutdown();
+    fileScanner.shutdown();
   }
 }
@@ -0,0 +1,111 @@
+package com.example.diskanalyzer.service;
+
+/**
+ * (デバイス, inode) の組を保持するスレッドセーフな集合
+ * オブジェクトを作らずに long 配列のオープンアドレス法で保持し、1件あたり約32バイトで済む。
+ * ロックは64分割し、並列スキャン中のワーカー間の競合を抑える
+ */
+class InodeSet {
+  private static final int STRIPE_BITS = 6;
+  private static final int STRIPE_COUNT = 1 << STRIPE_BITS;
+  private static final int INITIAL_CAPACITY = 64; // ストライプごとのスロット数（2のべき乗）
+
+  private final Stripe[] stripes = new Stripe[STRIPE_COUNT];
+
+  InodeSet() {
+    for (int i = 0; i < STRIPE_COUNT; i++) {
+      stripes[i] = new Stripe();
+    }
+  }
+
+  /**
+   * 組を追加する
+   *
+   * @return 初めて追加された場合 true、既に含まれていた場合 false
+   */
+  boolean add(long device, long inode) {
+    long hash = mix(device, inode);
+    Stripe stripe = stripes[(int) (hash & (STRIPE_COUNT - 1))];
+    synchronized (stripe) {
+      return stripe.add(device, inode, hash >>> STRIPE_BITS);
+    }
+  }
+
+  /**
+   * 保持している件数
+   */
+  long size() {
+    long size = 0;
+    for (Stripe stripe : stripes) {
+      synchronized (stripe) {
+        size += stripe.size;
+      }
+    }
+    return size;
+  }
+
+  private static long mix(long device, long inode) {
+    long h = inode * 0x9E3779B97F4A7C15L + device;
+    h ^= h >>> 33;
+    h *= 0xFF51AFD7ED558CCDL;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  /**
+   * 1ストライプ分のハッシュ表（[device, inode] を連続して格納し、(0, 0) を空きとみなす）
+   */
+  private static class Stripe {
+    private long[] slots = new long[INITIAL_CAPACITY * 2];
+    private int size;
+    private boolean containsZero; // 空きと区別できない (0, 0) は別に保持する
+
+    boolean add(long device, long inode, long hash) {
+      if (device == 0 && inode == 0) {
+        if (containsZero) {
+          return false;
+        }
+        containsZero = true;
+        size++;
+        return true;
+      }
+      if ((size + 1) * 2 > slots.length / 2) {
+        grow();
+      }
+      if (!insert(slots, device, inode, hash)) {
+        return false;
+      }
+      size++;
+      return true;
+    }
+
+    private void grow() {
+      long[] grown = new long[slots.length * 2];
+      for (int i = 0; i < slots.length; i += 2) {
+        if (slots[i] != 0 || slots[i + 1] != 0) {
+          insert(grown, slots[i], slots[i + 1], mix(slots[i], slots[i + 1]) >>> STRIPE_BITS);
+        }
+      }
+      slots = grown;
+    }
+
+    private static boolean insert(long[] table, long device, long inode, long hash) {
+      int mask = table.length / 2 - 1;
+      int index = (int) (hash & mask);
+      while (true) {
+        int slot = index * 2;
+        long existingDevice = table[slot];
+        long existingInode = table[slot + 1];
+        if (existingDevice == 0 && existingInode == 0) {
+          table[slot] = device;
+          table[slot + 1] = inode;
+          return true;
+        }
+        if (existingDevice == device && existingInode == inode) {
+          return false;
+        }
+        index = (index + 1) & mask;
+      }
+    }
+  }
+}
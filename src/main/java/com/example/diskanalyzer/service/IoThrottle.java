@@ -0,0 +1,137 @@
+package com.example.diskanalyzer.service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * ファイルシステムへのアクセス量を制限するスロットル
+ * 1秒あたりの操作数（stat・ディレクトリ読み込み・ファイルオープン）と読み込みバイト数の上限を
+ * トークンバケットで管理する。上限は実行中でも変更でき、待機中のスレッドにも反映される。
+ * 上限が {@link #UNLIMITED} の場合はロックを取らずに即座に戻る
+ */
+public class IoThrottle {
+  /** 制限なし */
+  public static final long UNLIMITED = 0;
+
+  private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+  private final TokenBucket operations = new TokenBucket();
+  private final TokenBucket bytes = new TokenBucket();
+
+  public IoThrottle() {
+  }
+
+  public IoThrottle(long operationsPerSecond, long bytesPerSecond) {
+    setOperationsPerSecond(operationsPerSecond);
+    setBytesPerSecond(bytesPerSecond);
+  }
+
+  /**
+   * システムプロパティ（lumidisk.io.opsPerSecond / lumidisk.io.bytesPerSecond）から作成する
+   */
+  static IoThrottle fromSystemProperties() {
+    return new IoThrottle(
+        Long.getLong("lumidisk.io.opsPerSecond", UNLIMITED),
+        Long.getLong("lumidisk.io.bytesPerSecond", UNLIMITED));
+  }
+
+  public long getOperationsPerSecond() {
+    return operations.rate;
+  }
+
+  /**
+   * 1秒あたりのファイルシステム操作数の上限を設定する（0で制限なし）
+   */
+  public final void setOperationsPerSecond(long operationsPerSecond) {
+    operations.setRate(operationsPerSecond);
+  }
+
+  public long getBytesPerSecond() {
+    return bytes.rate;
+  }
+
+  /**
+   * 1秒あたりの読み込みバイト数の上限を設定する（0で制限なし）
+   */
+  public final void setBytesPerSecond(long bytesPerSecond) {
+    bytes.setRate(bytesPerSecond);
+  }
+
+  /**
+   * ファイルシステム操作1回分の許可を得る（上限を超えている場合は待機する）
+   */
+  public void acquireOperation() {
+    operations.acquire(1);
+  }
+
+  /**
+   * 読み込み済みのバイト数を計上する（上限を超えている場合は待機する）
+   */
+  public void acquireBytes(long count) {
+    bytes.acquire(count);
+  }
+
+  /**
+   * 1秒分までのバーストを許すトークンバケット
+   * 不足分は前借りして待機時間に換算するため、大きな要求でも1回の待機で済む
+   */
+  private static class TokenBucket {
+    private volatile long rate = UNLIMITED;
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+
+    synchronized void setRate(long newRate) {
+      if (newRate < 0) {
+        throw new IllegalArgumentException("rate must not be negative: " + newRate);
+      }
+      refill();
+      rate = newRate;
+      tokens = Math.min(tokens, newRate);
+    }
+
+    void acquire(long permits) {
+      if (rate == UNLIMITED || permits <= 0) {
+        return;
+      }
+
+      long deadline;
+      long waitRate;
+      synchronized (this) {
+        waitRate = rate;
+        if (waitRate == UNLIMITED) {
+          return;
+        }
+        refill();
+        tokens -= permits;
+        if (tokens >= 0) {
+          return;
+        }
+        deadline = System.nanoTime() + (long) (-tokens / waitRate * TimeUnit.SECONDS.toNanos(1));
+      }
+
+      // 短い間隔で起きて、上限の解除・変更を待機中にも反映する
+      // 上限が変わった場合は、残りの待ち時間（未返済のトークン）を新しい上限で換算し直す
+      long remaining;
+      while ((remaining = deadline - System.nanoTime()) > 0) {
+        long currentRate = rate;
+        if (currentRate == UNLIMITED) {
+          return;
+        }
+        if (currentRate != waitRate) {
+          remaining = (long) (remaining * ((double) waitRate / currentRate));
+          deadline = System.nanoTime() + remaining;
+          waitRate = currentRate;
+        }
+        LockSupport.parkNanos(Math.min(remaining, MAX_PARK_NANOS));
+      }
+    }
+
+    private void refill() {
+      long now = System.nanoTime();
+      if (rate != UNLIMITED) {
+        tokens = Math.min(rate, tokens + (now - lastRefill) * (double) rate / TimeUnit.SECONDS.toNanos(1));
+      }
+      lastRefill = now;
+    }
+  }
+}
@@ -0,0 +1,334 @@
+package com.example.diskanalyzer.service;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.foreign.SymbolLookup;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.FileSystemException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+import static java.lang.foreign.ValueLayout.JAVA_SHORT;
+
+/**
+ * getdents64 と statx による Linux 向けのディレクトリ読み込み
+ * ディレクトリの一覧は大きなバッファで一括取得し、属性は statx でディレクトリのfdからの相対名で
+ * 必要な項目（種類・サイズ・更新日時・inode・リンク数）だけを読む。
+ * エントリ名は getdents64 のバッファ上のものをそのまま statx に渡すため、Path や文字列を
+ * 作るのは走査結果に残すエントリのみになる
+ */
+class LinuxDirectoryReader implements NativeDirectoryReader {
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final int STATX_SIZE = 256;
+
+  private static final int AT_SYMLINK_NOFOLLOW = 0x100;
+  private static final int STATX_TYPE = 0x1;
+  private static final int STATX_MODE = 0x2;
+  private static final int STATX_NLINK = 0x4;
+  private static final int STATX_MTIME = 0x40;
+  private static final int STATX_INO = 0x100;
+  private static final int STATX_SIZE_FIELD = 0x200;
+  private static final int STATX_MASK = STATX_TYPE | STATX_MODE | STATX_NLINK | STATX_MTIME | STATX_INO
+      | STATX_SIZE_FIELD;
+
+  private static final int O_RDONLY = 0;
+  private static final int O_CLOEXEC = 0x80000;
+  private static final int S_IFMT = 0xf000;
+  private static final int S_IFDIR = 0x4000;
+
+  private static final int DT_UNKNOWN = 0;
+  private static final int DT_DIR = 4;
+  private static final int DT_LNK = 10;
+
+  private static final int ENOENT = 2;
+  private static final int EACCES = 13;
+  private static final int ENOTDIR = 20;
+
+  // struct linux_dirent64 のオフセット
+  private static final int DIRENT_RECLEN = 16;
+  private static final int DIRENT_TYPE = 18;
+  private static final int DIRENT_NAME = 19;
+
+  // struct statx のオフセット
+  private static final int STX_NLINK = 16;
+  private static final int STX_MODE = 28;
+  private static final int STX_INO = 32;
+  private static final int STX_SIZE = 40;
+  private static final int STX_MTIME = 112;
+  private static final int STX_DEV_MAJOR = 136;
+  private static final int STX_DEV_MINOR = 140;
+
+  private static final StructLayout CAPTURE_LAYOUT = Linker.Option.captureStateLayout();
+  private static final VarHandle ERRNO =
+      CAPTURE_LAYOUT.varHandle(MemoryLayout.PathElement.groupElement("errno"));
+
+  private final int directoryFlag; // O_DIRECTORY はアーキテクチャにより値が異なる
+  private final MethodHandle open;
+  private final MethodHandle close;
+  private final MethodHandle getdents64;
+  private final MethodHandle statx;
+  private final ThreadLocal<Buffers> buffers = ThreadLocal.withInitial(Buffers::new);
+
+  LinuxDirectoryReader() {
+    // エントリ名のバイト列をUTF-8として Path に変換するため、JVMのパス名エンコーディングも UTF-8 に限る
+    String pathEncoding = System.getProperty("sun.jnu.encoding", "");
+    if (!pathEncoding.equalsIgnoreCase("UTF-8") && !pathEncoding.equalsIgnoreCase("UTF8")) {
+      throw new UnsupportedOperationException("path encoding is not UTF-8: " + pathEncoding);
+    }
+
+    String arch = System.getProperty("os.arch");
+    if ("amd64".equals(arch) || "x86_64".equals(arch)) {
+      directoryFlag = 0x10000;
+    } else if ("aarch64".equals(arch)) {
+      directoryFlag = 0x4000;
+    } else {
+      throw new UnsupportedOperationException("unsupported architecture: " + arch);
+    }
+
+    Linker linker = Linker.nativeLinker();
+    SymbolLookup libc = linker.defaultLookup();
+    Linker.Option errno = Linker.Option.captureCallState("errno");
+    open = linker.downcallHandle(find(libc, "open"),
+        FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_INT, JAVA_INT),
+        errno, Linker.Option.firstVariadicArg(2));
+    close = linker.downcallHandle(find(libc, "close"),
+        FunctionDescriptor.of(JAVA_INT, JAVA_INT));
+    getdents64 = linker.downcallHandle(find(libc, "getdents64"),
+        FunctionDescriptor.of(JAVA_LONG, JAVA_INT, ADDRESS, JAVA_LONG), errno);
+    statx = linker.downcallHandle(find(libc, "statx"),
+        FunctionDescriptor.of(JAVA_INT, JAVA_INT, ADDRESS, JAVA_INT, JAVA_INT, ADDRESS), errno);
+  }
+
+  private static MemorySegment find(SymbolLookup lookup, String name) {
+    return lookup.find(name).orElseThrow(() -> new UnsupportedOperationException("symbol not found: " + name));
+  }
+
+  /**
+   * ワーカースレッドごとに使い回すネイティブメモリ
+   */
+  private static class Buffers {
+    private final MemorySegment entries;
+    private final MemorySegment stat;
+    private final MemorySegment callState;
+    private final CharsetDecoder nameDecoder = StandardCharsets.UTF_8.newDecoder(); // 不正なバイト列はエラーにする
+    private byte[] name = new byte[256];
+
+    Buffers() {
+      Arena arena = Arena.ofAuto();
+      this.entries = arena.allocate(BUFFER_SIZE, 8);
+      this.stat = arena.allocate(STATX_SIZE, 8);
+      this.callState = arena.allocate(CAPTURE_LAYOUT);
+    }
+  }
+
+  @Override
+  public void readDirectory(Path directory, boolean followLinks, EntryVisitor visitor) throws IOException {
+    Buffers local = buffers.get();
+    int fd;
+    try (Arena arena = Arena.ofConfined()) {
+      MemorySegment path = arena.allocateUtf8String(directory.toString());
+      fd = (int) open.invokeExact(local.callState, path, O_RDONLY | directoryFlag | O_CLOEXEC, 0);
+    } catch (Throwable t) {
+      throw rethrow(t);
+    }
+    if (fd < 0) {
+      throw errnoException(directory, errno(local));
+    }
+
+    try {
+      MemorySegment entries = local.entries;
+      while (true) {
+        long length;
+        try {
+          length = (long) getdents64.invokeExact(local.callState, fd, entries, (long) BUFFER_SIZE);
+        } catch (Throwable t) {
+          throw rethrow(t);
+        }
+        if (length == 0) {
+          return;
+        }
+        if (length < 0) {
+          throw errnoException(directory, errno(local));
+        }
+
+        for (long offset = 0; offset < length; ) {
+          int recordLength = Short.toUnsignedInt(entries.get(JAVA_SHORT, offset + DIRENT_RECLEN));
+          long nameOffset = offset + DIRENT_NAME;
+          if (!isDotOrDotDot(entries, nameOffset)) {
+            readEntry(fd, entries, nameOffset, entries.get(JAVA_BYTE, offset + DIRENT_TYPE), followLinks,
+                local, directory, visitor);
+          }
+          offset += recordLength;
+        }
+      }
+    } finally {
+      try {
+        int ignored = (int) close.invokeExact(fd);
+      } catch (Throwable t) {
+        throw rethrow(t);
+      }
+    }
+  }
+
+  private void readEntry(int fd, MemorySegment entries, long nameOffset, int direntType, boolean followLinks,
+      Buffers local, Path directory, EntryVisitor visitor) {
+    String name = decodeName(entries, nameOffset, local);
+    if (name == null) {
+      // UTF-8 として不正な名前は Path で元のバイト列を表せないため、属性を読まずに失敗として通知する
+      visitor.failed(entries.getUtf8String(nameOffset),
+          new FileSystemException(directory.toString(), null, "undecodable file name"));
+      return;
+    }
+    int type;
+    if (direntType == DT_DIR) {
+      type = TYPE_DIRECTORY;
+    } else if (direntType == DT_UNKNOWN || (direntType == DT_LNK && followLinks)) {
+      type = TYPE_UNKNOWN;
+    } else {
+      type = TYPE_FILE;
+    }
+    if (!visitor.accept(name, type)) {
+      return;
+    }
+
+    MemorySegment nameSegment = entries.asSlice(nameOffset);
+    int errno = stat(fd, nameSegment, followLinks ? 0 : AT_SYMLINK_NOFOLLOW, local);
+    if (errno == ENOENT && followLinks && direntType == DT_LNK) {
+      // リンク先がない場合はリンク自体を記録する
+      errno = stat(fd, nameSegment, AT_SYMLINK_NOFOLLOW, local);
+    }
+    if (errno != 0) {
+      visitor.failed(name, errnoException(directory.resolve(name), errno));
+      return;
+    }
+
+    MemorySegment stat = local.stat;
+    int mode = Short.toUnsignedInt(stat.get(JAVA_SHORT, STX_MODE));
+    long seconds = stat.get(JAVA_LONG, STX_MTIME);
+    int nanos = stat.get(JAVA_INT, STX_MTIME + 8);
+    long device = makeDevice(stat.get(JAVA_INT, STX_DEV_MAJOR), stat.get(JAVA_INT, STX_DEV_MINOR));
+    visitor.visit(name, EntryAttributes.of(
+        stat.get(JAVA_LONG, STX_SIZE),
+        toFileTime(seconds, nanos),
+        (mode & S_IFMT) == S_IFDIR,
+        name.startsWith("."),
+        device,
+        stat.get(JAVA_LONG, STX_INO),
+        stat.get(JAVA_INT, STX_NLINK)));
+  }
+
+  /**
+   * NUL終端のエントリ名を文字列にする（UTF-8 として不正な場合は null）
+   */
+  private static String decodeName(MemorySegment entries, long nameOffset, Buffers local) {
+    byte[] bytes = local.name;
+    int length = 0;
+    boolean ascii = true;
+    for (byte b = entries.get(JAVA_BYTE, nameOffset); b != 0; b = entries.get(JAVA_BYTE, nameOffset + length)) {
+      if (length == bytes.length) {
+        bytes = local.name = Arrays.copyOf(bytes, bytes.length * 2);
+      }
+      bytes[length++] = b;
+      ascii &= b >= 0;
+    }
+    if (ascii) {
+      return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+    }
+    try {
+      return local.nameDecoder.decode(ByteBuffer.wrap(bytes, 0, length)).toString();
+    } catch (CharacterCodingException e) {
+      return null;
+    }
+  }
+
+  /**
+   * statx を呼び出す（成功時は0、失敗時は errno を返す）
+   */
+  private int stat(int fd, MemorySegment name, int flags, Buffers local) {
+    int result;
+    try {
+      result = (int) statx.invokeExact(local.callState, fd, name, flags, STATX_MASK, local.stat);
+    } catch (Throwable t) {
+      throw rethrow(t);
+    }
+    return result == 0 ? 0 : errno(local);
+  }
+
+  private static boolean isDotOrDotDot(MemorySegment entries, long nameOffset) {
+    if (entries.get(JAVA_BYTE, nameOffset) != '.') {
+      return false;
+    }
+    byte second = entries.get(JAVA_BYTE, nameOffset + 1);
+    return second == 0 || (second == '.' && entries.get(JAVA_BYTE, nameOffset + 2) == 0);
+  }
+
+  private static int errno(Buffers local) {
+    return (int) ERRNO.get(local.callState);
+  }
+
+  /**
+   * glibc の makedev と同じ規則で st_dev を組み立てる（NIO の unix:dev と一致させる）
+   */
+  private static long makeDevice(int major, int minor) {
+    long majorBits = Integer.toUnsignedLong(major);
+    long minorBits = Integer.toUnsignedLong(minor);
+    return ((majorBits & 0xfffff000L) << 32) | ((majorBits & 0xfffL) << 8)
+        | ((minorBits & 0xffffff00L) << 12) | (minorBits & 0xffL);
+  }
+
+  /**
+   * NIO の lastModifiedTime と同じ精度の FileTime を作る
+   */
+  private static FileTime toFileTime(long seconds, int nanos) {
+    if (nanos == 0) {
+      return FileTime.from(seconds, TimeUnit.SECONDS);
+    }
+    try {
+      return FileTime.from(Math.addExact(nanos, Math.multiplyExact(seconds, 1_000_000_000L)), TimeUnit.NANOSECONDS);
+    } catch (ArithmeticException e) {
+      return FileTime.from(seconds * 1_000_000L + nanos / 1_000, TimeUnit.MICROSECONDS);
+    }
+  }
+
+  private static IOException errnoException(Path path, int errno) {
+    switch (errno) {
+      case ENOENT:
+        return new NoSuchFileException(path.toString());
+      case EACCES:
+        return new AccessDeniedException(path.toString());
+      case ENOTDIR:
+        return new NotDirectoryException(path.toString());
+      default:
+        return new FileSystemException(path.toString(), null, "errno " + errno);
+    }
+  }
+
+  private static RuntimeException rethrow(Throwable t) {
+    if (t instanceof RuntimeException) {
+      return (RuntimeException) t;
+    }
+    if (t instanceof Error) {
+      throw (Error) t;
+    }
+    return new IllegalStateException(t);
+  }
+}
@@ -0,0 +1,530 @@
+package com.example.diskanalyzer.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
+
+/**
+ * スキャン・増分スキャン・重複検出・キャッシュ・エクスポートの計測値を集める
+ * カウンター・ヒストグラム（レイテンシ・キュー長）・ゲージを名前で管理し、JMX で公開する。
+ * ジョブごとに {@link #startRun} で計測区間を開き、終了時に区間内の増分とレートを
+ * ~/.lumidisk/metrics にJSONで書き出して、実行ごとの比較や性能劣化の検出に使う
+ */
+public class MetricsRegistry {
+  private static final Logger logger = LoggerFactory.getLogger(MetricsRegistry.class);
+  private static final String JMX_DOMAIN = "com.example.diskanalyzer";
+  private static final int MAX_SUMMARY_FILES = 200; // 保持するサマリーの最大数
+  private static final DateTimeFormatter FILE_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS");
+
+  private final String name;
+  private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+  private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+  private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+  private final Map<String, AtomicLong> values = new ConcurrentHashMap<>();
+  private volatile Path summaryDirectory;
+  private ObjectName objectName;
+
+  /**
+   * @param name JMX のオブジェクト名に使う名前（ランタイムごとに一意にする）
+   */
+  public MetricsRegistry(String name) {
+    this.name = name;
+    this.summaryDirectory = Boolean.parseBoolean(System.getProperty("lumidisk.metrics.summary", "true"))
+        ? Paths.get(System.getProperty("user.home"), ".lumidisk", "metrics")
+        : null;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * 名前に対応するカウンターを取得する（初回は作成する）
+   */
+  public Counter counter(String name) {
+    return counters.computeIfAbsent(name, key -> new Counter());
+  }
+
+  /**
+   * 名前に対応するヒストグラムを取得する（初回は作成する）
+   *
+   * @param unit 記録する値の単位（"ns"・"count" など。サマリーとJMXの表示に使う）
+   */
+  public Histogram histogram(String name, String unit) {
+    return histograms.computeIfAbsent(name, key -> new Histogram(unit));
+  }
+
+  /**
+   * 読み出し時に値を計算するゲージを登録する（同じ名前で登録し直すと置き換える）
+   */
+  public void gauge(String name, LongSupplier supplier) {
+    gauges.put(name, supplier);
+  }
+
+  /**
+   * 最後に設定した値を保持するゲージに値を設定する
+   */
+  public void setValue(String name, long value) {
+    values.computeIfAbsent(name, key -> new AtomicLong()).set(value);
+  }
+
+  /**
+   * サマリーの書き出し先（null の場合は書き出さない）
+   * 既定は ~/.lumidisk/metrics。システムプロパティ lumidisk.metrics.summary=false で無効になる
+   */
+  public Path getSummaryDirectory() {
+    return summaryDirectory;
+  }
+
+  public void setSummaryDirectory(Path summaryDirectory) {
+    this.summaryDirectory = summaryDirectory;
+  }
+
+  /**
+   * 現在の全計測値を名前順に取得する（ヒストグラムは件数・平均・パーセンタイル・最大値に展開する）
+   */
+  public Map<String, Long> snapshot() {
+    Map<String, Long> snapshot = new TreeMap<>();
+    counters.forEach((key, counter) -> snapshot.put(key, counter.sum()));
+    histograms.forEach((key, histogram) -> histogram.snapshot().putInto(snapshot, key));
+    gauges.forEach((key, gauge) -> snapshot.put(key, readGauge(key, gauge)));
+    values.forEach((key, value) -> snapshot.put(key, value.get()));
+    return snapshot;
+  }
+
+  private static long readGauge(String name, LongSupplier gauge) {
+    try {
+      return gauge.getAsLong();
+    } catch (RuntimeException e) {
+      logger.debug("ゲージの読み出しに失敗: {}", name, e);
+      return -1;
+    }
+  }
+
+  /**
+   * ジョブの計測区間を開始する
+   * close() で区間内の増分・レート・ヒストグラムをサマリーとして書き出す
+   *
+   * @param job    ジョブの種類（"scan"・"hash" など。サマリーのファイル名に使う）
+   * @param target 対象のパス（不明な場合は null）
+   */
+  public Run startRun(String job, Path target) {
+    return new Run(job, target);
+  }
+
+  /**
+   * JMX（プラットフォームMBeanサーバー）に登録する
+   */
+  synchronized void registerMBean() {
+    try {
+      ObjectName candidate = new ObjectName(JMX_DOMAIN + ":type=Metrics,runtime=" + ObjectName.quote(name));
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      if (!server.isRegistered(candidate)) {
+        server.registerMBean(new MetricsMBean(), candidate);
+        objectName = candidate;
+      }
+    } catch (JMException | RuntimeException e) {
+      logger.warn("計測値をJMXに登録できません: {}", name, e);
+    }
+  }
+
+  synchronized void unregisterMBean() {
+    if (objectName == null) {
+      return;
+    }
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+    } catch (JMException e) {
+      logger.debug("JMXの登録解除に失敗: {}", objectName, e);
+    }
+    objectName = null;
+  }
+
+  /**
+   * 件数・バイト数などを数えるカウンター（複数スレッドからの加算で競合しにくい）
+   */
+  public static class Counter {
+    private final LongAdder adder = new LongAdder();
+
+    public void increment() {
+      adder.increment();
+    }
+
+    public void add(long amount) {
+      adder.add(amount);
+    }
+
+    public long sum() {
+      return adder.sum();
+    }
+  }
+
+  /**
+   * 値の分布を記録するヒストグラム
+   * 2のべき乗ごとの区間をさらに4分割した区間（相対誤差25%以内）で数える。
+   * 区間ごとに LongAdder を持ち、ワーカー間の競合を避ける
+   */
+  public static class Histogram {
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final String unit;
+    private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    Histogram(String unit) {
+      this.unit = unit;
+      for (int i = 0; i < BUCKET_COUNT; i++) {
+        buckets[i] = new LongAdder();
+      }
+    }
+
+    public String getUnit() {
+      return unit;
+    }
+
+    /**
+     * 値を1件記録する（負の値は0として扱う）
+     */
+    public void record(long value) {
+      long clamped = Math.max(0, value);
+      buckets[bucketOf(clamped)].increment();
+      sum.add(clamped);
+      max.accumulate(clamped);
+    }
+
+    /**
+     * System.nanoTime() で取得した開始時刻からの経過時間を記録する
+     */
+    public void recordSince(long startNanos) {
+      record(System.nanoTime() - startNanos);
+    }
+
+    static int bucketOf(long value) {
+      if (value < SUB_BUCKETS) {
+        return (int) value;
+      }
+      int exponent = 63 - Long.numberOfLeadingZeros(value);
+      int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+      return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * 区間に入る値の上限
+     */
+    static long upperBoundOf(int bucket) {
+      if (bucket < SUB_BUCKETS) {
+        return bucket;
+      }
+      int exponent = (bucket - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+      int sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+      long width = 1L << (exponent - SUB_BUCKET_BITS);
+      long lower = (long) (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+      return lower + width - 1;
+    }
+
+    HistogramSnapshot snapshot() {
+      long[] counts = new long[BUCKET_COUNT];
+      for (int i = 0; i < BUCKET_COUNT; i++) {
+        counts[i] = buckets[i].sum();
+      }
+      return new HistogramSnapshot(unit, counts, sum.sum(), max.get());
+    }
+  }
+
+  /**
+   * ヒストグラムのある時点の値（2時点の差から計測区間内の分布を求める）
+   */
+  static class HistogramSnapshot {
+    private final String unit;
+    private final long[] counts;
+    private final long sum;
+    private final long max; // 区間の差では求められないため、差分では区間の上限から推定する
+
+    HistogramSnapshot(String unit, long[] counts, long sum, long max) {
+      this.unit = unit;
+      this.counts = counts;
+      this.sum = sum;
+      this.max = max;
+    }
+
+    HistogramSnapshot minus(HistogramSnapshot earlier) {
+      long[] delta = new long[counts.length];
+      int highest = -1;
+      for (int i = 0; i < counts.length; i++) {
+        delta[i] = counts[i] - earlier.counts[i];
+        if (delta[i] > 0) {
+          highest = i;
+        }
+      }
+      long estimatedMax = highest < 0 ? 0 : Math.min(max, Histogram.upperBoundOf(highest));
+      return new HistogramSnapshot(unit, delta, sum - earlier.sum, estimatedMax);
+    }
+
+    long count() {
+      long count = 0;
+      for (long c : counts) {
+        count += c;
+      }
+      return count;
+    }
+
+    /**
+     * パーセンタイル（0〜100）に対応する値の上限
+     */
+    long percentile(double percentile) {
+      long count = count();
+      if (count == 0) {
+        return 0;
+      }
+      long rank = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= rank) {
+          return Math.min(max, Histogram.upperBoundOf(i));
+        }
+      }
+      return max;
+    }
+
+    Map<String, Object> toMap() {
+      long count = count();
+      Map<String, Object> map = new LinkedHashMap<>();
+      map.put("unit", unit);
+      map.put("count", count);
+      map.put("mean", count > 0 ? sum / count : 0);
+      map.put("p50", percentile(50));
+      map.put("p90", percentile(90));
+      map.put("p99", percentile(99));
+      map.put("max", max);
+      return map;
+    }
+
+    void putInto(Map<String, Long> snapshot, String name) {
+      long count = count();
+      snapshot.put(name + ".count", count);
+      snapshot.put(name + ".mean", count > 0 ? sum / count : 0);
+      snapshot.put(name + ".p50", percentile(50));
+      snapshot.put(name + ".p99", percentile(99));
+      snapshot.put(name + ".max", max);
+    }
+  }
+
+  /**
+   * 1回のジョブの計測区間
+   * 開始時点のカウンターとヒストグラムを控えておき、終了時に差分を書き出す。
+   * 同じランタイムで同時に走った他のジョブの計測値も区間内の差分に含まれる
+   */
+  public class Run implements AutoCloseable {
+    private final String job;
+    private final Path target;
+    private final LocalDateTime startedAt = LocalDateTime.now();
+    private final long startNanos = System.nanoTime();
+    private final Map<String, Long> startCounters = new TreeMap<>();
+    private final Map<String, HistogramSnapshot> startHistograms = new TreeMap<>();
+    private final Map<String, Object> results = new LinkedHashMap<>();
+    private boolean complete = true;
+    private boolean closed;
+
+    private Run(String job, Path target) {
+      this.job = job;
+      this.target = target;
+      counters.forEach((key, counter) -> startCounters.put(key, counter.sum()));
+      histograms.forEach((key, histogram) -> startHistograms.put(key, histogram.snapshot()));
+    }
+
+    /**
+     * このジョブ固有の値（ノードあたりのヒープ使用量など）を記録する
+     */
+    public void record(String name, Object value) {
+      results.put(name, value);
+    }
+
+    /**
+     * 中止されたジョブとして記録する
+     */
+    public void markIncomplete() {
+      complete = false;
+    }
+
+    /**
+     * 区間内の計測値をまとめる
+     */
+    public Map<String, Object> summarize() {
+      long elapsedNanos = System.nanoTime() - startNanos;
+      double elapsedSeconds = Math.max(elapsedNanos, 1) / 1_000_000_000.0;
+
+      Map<String, Long> counterDeltas = new TreeMap<>();
+      Map<String, Long> rates = new TreeMap<>();
+      counters.forEach((key, counter) -> {
+        long delta = counter.sum() - startCounters.getOrDefault(key, 0L);
+        if (delta != 0) {
+          counterDeltas.put(key, delta);
+          rates.put(key + ".perSecond", Math.round(delta / elapsedSeconds));
+        }
+      });
+
+      Map<String, Object> histogramDeltas = new TreeMap<>();
+      histograms.forEach((key, histogram) -> {
+        HistogramSnapshot current = histogram.snapshot();
+        HistogramSnapshot start = startHistograms.get(key);
+        HistogramSnapshot delta = start != null ? current.minus(start) : current;
+        if (delta.count() > 0) {
+          histogramDeltas.put(key, delta.toMap());
+        }
+      });
+
+      Map<String, Long> gaugeValues = new TreeMap<>();
+      gauges.forEach((key, gauge) -> gaugeValues.put(key, readGauge(key, gauge)));
+      values.forEach((key, value) -> gaugeValues.put(key, value.get()));
+
+      Map<String, Object> summary = new LinkedHashMap<>();
+      summary.put("job", job);
+      summary.put("target", target != null ? target.toString() : null);
+      summary.put("runtime", name);
+      summary.put("startedAt", startedAt.toString());
+      summary.put("durationMillis", elapsedNanos / 1_000_000);
+      summary.put("complete", complete);
+      summary.put("results", results);
+      summary.put("counters", counterDeltas);
+      summary.put("rates", rates);
+      summary.put("histograms", histogramDeltas);
+      summary.put("gauges", gaugeValues);
+      return summary;
+    }
+
+    /**
+     * サマリーを書き出す（書き出せない場合は警告のみ）
+     */
+    @Override
+    public void close() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      Path directory = summaryDirectory;
+      if (directory == null) {
+        return;
+      }
+      Map<String, Object> summary = summarize();
+      // 割り込まれたスレッドからでも書き出せるよう、書き出しの間だけ割り込み状態を解除する
+      boolean interrupted = Thread.interrupted();
+      try {
+        Files.createDirectories(directory);
+        Path file = directory.resolve(startedAt.format(FILE_TIME_FORMAT) + "-" + job + ".json");
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.enable(SerializationFeature.INDENT_OUTPUT);
+        mapper.writeValue(file.toFile(), summary);
+        logger.debug("計測サマリーを保存しました: {}", file);
+        cleanupOldSummaries(directory);
+      } catch (IOException e) {
+        logger.warn("計測サマリーの保存に失敗: {}", directory, e);
+      } finally {
+        if (interrupted) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+  }
+
+  /**
+   * 古いサマリーを削除する（ファイル名が開始時刻順になっていることを利用する）
+   */
+  private static void cleanupOldSummaries(Path directory) throws IOException {
+    List<Path> summaries = new ArrayList<>();
+    try (Stream<Path> files = Files.list(directory)) {
+      files.filter(file -> file.getFileName().toString().endsWith(".json")).forEach(summaries::add);
+    }
+    if (summaries.size() <= MAX_SUMMARY_FILES) {
+      return;
+    }
+    summaries.sort(null);
+    for (Path old : summaries.subList(0, summaries.size() - MAX_SUMMARY_FILES)) {
+      Files.deleteIfExists(old);
+    }
+  }
+
+  /**
+   * 計測値を属性として公開するMBean（属性は計測値の追加に応じて増える）
+   */
+  private class MetricsMBean implements DynamicMBean {
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+      Long value = snapshot().get(attribute);
+      if (value == null) {
+        throw new AttributeNotFoundException(attribute);
+      }
+      return value;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+      throw new AttributeNotFoundException("計測値は読み取り専用です: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+      Map<String, Long> snapshot = snapshot();
+      AttributeList list = new AttributeList();
+      for (String attribute : attributes) {
+        Long value = snapshot.get(attribute);
+        if (value != null) {
+          list.add(new Attribute(attribute, value));
+        }
+      }
+      return list;
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+      return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) {
+      throw new UnsupportedOperationException(actionName);
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+      List<MBeanAttributeInfo> attributes = new ArrayList<>();
+      for (String key : snapshot().keySet()) {
+        attributes.add(new MBeanAttributeInfo(key, Long.class.getName(), key, true, false, false));
+      }
+      return new MBeanInfo(MetricsRegistry.class.getName(), "LumiDisk metrics (" + name + ")",
+          attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+    }
+  }
+}
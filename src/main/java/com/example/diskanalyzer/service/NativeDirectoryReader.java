@@ -0,0 +1,79 @@
+package com.example.diskanalyzer.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * OSのシステムコールを直接呼び出すディレクトリ読み込み
+ * 実装（{@link LinuxDirectoryReader}）は Foreign Function &amp; Memory API を使うため、
+ * 実行時に利用できない場合（Linux 以外・--enable-preview なし等）は {@link #load()} が null を返し、
+ * 呼び出し側は NIO の DirectoryStream で走査する
+ */
+interface NativeDirectoryReader {
+  /** d_type が取得できない、またはシンボリックリンクで種類が確定しない */
+  int TYPE_UNKNOWN = 0;
+  int TYPE_FILE = 1;
+  int TYPE_DIRECTORY = 2;
+
+  /**
+   * ディレクトリ直下のエントリを読み込み、属性とともに通知する
+   *
+   * @throws IOException ディレクトリを開けない・読み込めない場合
+   */
+  void readDirectory(Path directory, boolean followLinks, EntryVisitor visitor) throws IOException;
+
+  /**
+   * エントリの通知先
+   */
+  interface EntryVisitor {
+    /**
+     * 属性を読む前に呼び出す（false を返したエントリは属性を読まない）
+     *
+     * @param type getdents の d_type から分かる種類（TYPE_UNKNOWN の場合は不明）
+     */
+    boolean accept(String name, int type);
+
+    void visit(String name, EntryAttributes attrs);
+
+    void failed(String name, IOException e);
+  }
+
+  /**
+   * 現在の環境で使える実装を読み込む（使えない場合は null）
+   */
+  static NativeDirectoryReader load() {
+    return Holder.INSTANCE;
+  }
+
+  /**
+   * 実装クラスの読み込みは初回のみ行う
+   * プレビュー機能を有効にせずに起動した場合はクラスの読み込み自体が失敗するため、リフレクションで読み込む
+   */
+  final class Holder {
+    private static final Logger logger = LoggerFactory.getLogger(NativeDirectoryReader.class);
+    private static final NativeDirectoryReader INSTANCE = create();
+
+    private Holder() {
+    }
+
+    private static NativeDirectoryReader create() {
+      String os = System.getProperty("os.name", "").toLowerCase(Locale.ROOT);
+      if (!os.contains("linux")) {
+        return null;
+      }
+      try {
+        Class<?> type = Class.forName("com.example.diskanalyzer.service.LinuxDirectoryReader");
+        NativeDirectoryReader reader = (NativeDirectoryReader) type.getDeclaredConstructor().newInstance();
+        logger.info("ネイティブのディレクトリ読み込み（getdents64/statx）を使用します");
+        return reader;
+      } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+        logger.info("ネイティブのディレクトリ読み込みは使用できません（NIOで走査します）: {}", e.toString());
+        return null;
+      }
+    }
+  }
+}
@@ -0,0 +1,15 @@
+package com.example.diskanalyzer.service;
+
+/**
+ * 重複検出でファイル全体を読み込む方法
+ */
+public enum ReadBackend {
+  /** ファイルサイズとデバイスの種類から自動で選択する（既定） */
+  AUTO,
+  /** FileChannel で大きなダイレクトバッファに順に読み込む */
+  CHANNEL,
+  /** ファイルをメモリにマップし、ページキャッシュから直接ハッシュを計算する */
+  MAPPED,
+  /** AsynchronousFileChannel で複数の読み込みを先行して発行する（同時に発行する数は上限あり） */
+  ASYNC
+}
@@ -30,10 +30,26 @@ public class ScanCacheService {
 
   private final ObjectMapper objectMapper;
   private final Path cacheDirectory;
+  private final MetricsRegistry.Counter bytesSerialized;
+  private final MetricsRegistry.Counter bytesDeserialized;
+  private final MetricsRegistry.Histogram saveLatency;
+  private final MetricsRegistry.Histogram loadLatency;
 
   public ScanCacheService() {
+    this(ExecutionRuntime.getDefault().getMetrics());
+  }
+
+  /**
+   * @param metrics 保存・読み込みのバイト数と所要時間を記録する先
+   */
+  public ScanCacheService(MetricsRegistry metrics) {
+    this.bytesSerialized = metrics.counter("cache.bytesSerialized");
+    this.bytesDeserialized = metrics.counter("cache.bytesDeserialized");
+    this.saveLatency = metrics.histogram("cache.save", "ns");
+    this.loadLatency = metrics.histogram("cache.load", "ns");
     this.objectMapper = new ObjectMapper();
     this.objectMapper.registerModule(new JavaTimeModule());
+    this.objectMapper.registerModule(new SnapshotJsonModule());
     this.objectMapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
     this.objectMapper.enable(SerializationFeature.INDENT_OUTPUT);
 
@@ -56,7 +72,10 @@ public class ScanCacheService {
       String fileName = generateFileName(snapshot.getRootPath(), snapshot.getScanTime());
       Path filePath = cacheDirectory.resolve(fileName);
 
+      long saveStart = System.nanoTime();
       objectMapper.writeValue(filePath.toFile(), snapshot);
+      saveLatency.recordSince(saveStart);
+      bytesSerialized.add(Files.size(filePath));
       logger.info("スナップショットを保存しました: {}", filePath);
 
       // 古いキャッシュを削除
@@ -99,7 +118,10 @@ public class ScanCacheService {
           .filter(path -> path.getFileName().toString().endsWith(SNAPSHOT_EXTENSION))
           .forEach(path -> {
             try {
+              long loadStart = System.nanoTime();
               ScanSnapshot snapshot = objectMapper.readValue(path.toFile(), ScanSnapshot.class);
+              loadLatency.recordSince(loadStart);
+              bytesDeserialized.add(Files.size(path));
               snapshots.add(snapshot);
             } catch (IOException e) {
               logger.warn("スナップショットの読み込みに失敗: {}", path, e);
@@ -0,0 +1,109 @@
+package com.example.diskanalyzer.service;
+
+import com.example.diskanalyzer.model.ScanOptions;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HexFormat;
+
+/**
+ * スキャンのチェックポイント管理サービス
+ * 中断されたスキャンを途中から再開するためのジャーナルを ~/.lumidisk/checkpoints に保持する
+ */
+public class ScanCheckpointService {
+  private static final Logger logger = LoggerFactory.getLogger(ScanCheckpointService.class);
+  private static final String CHECKPOINT_DIR = "checkpoints";
+  private static final String JOURNAL_EXTENSION = ".journal";
+  private static final String MANIFEST_EXTENSION = ".manifest.json";
+
+  private final ObjectMapper objectMapper;
+  private final Path checkpointDirectory;
+
+  public ScanCheckpointService() {
+    this(Paths.get(System.getProperty("user.home"), ".lumidisk", CHECKPOINT_DIR));
+  }
+
+  public ScanCheckpointService(Path checkpointDirectory) {
+    this.objectMapper = new ObjectMapper();
+    this.objectMapper.enable(SerializationFeature.INDENT_OUTPUT);
+    this.checkpointDirectory = checkpointDirectory;
+
+    try {
+      Files.createDirectories(checkpointDirectory);
+    } catch (IOException e) {
+      logger.error("チェックポイントディレクトリの作成に失敗", e);
+    }
+  }
+
+  /**
+   * 指定パスに再開可能なチェックポイントがあるか
+   */
+  public boolean hasCheckpoint(Path rootPath) {
+    return Files.exists(journalFile(rootPath));
+  }
+
+  /**
+   * 指定パスのチェックポイントを削除する（次回は最初からスキャンする）
+   */
+  public void deleteCheckpoint(Path rootPath) {
+    try {
+      Files.deleteIfExists(journalFile(rootPath));
+      Files.deleteIfExists(manifestFile(rootPath));
+      logger.info("チェックポイントを削除しました: {}", rootPath);
+    } catch (IOException e) {
+      logger.error("チェックポイントの削除に失敗: {}", rootPath, e);
+    }
+  }
+
+  /**
+   * 指定パスのジャーナルを開く（既存のチェックポイントがあれば読み込む）
+   * 走査結果に影響するオプションが前回と異なる場合、既存の記録は破棄される
+   */
+  CheckpointJournal openJournal(Path rootPath, ScanOptions options) throws IOException {
+    return CheckpointJournal.open(rootPath, journalFile(rootPath), manifestFile(rootPath),
+        options.getCheckpointInterval(), optionsFingerprint(options), objectMapper);
+  }
+
+  /**
+   * 走査結果に影響するオプション（除外ルール・最大の深さ・マウントポリシー・シンボリックリンク）の識別値
+   */
+  static String optionsFingerprint(ScanOptions options) {
+    StringBuilder description = new StringBuilder();
+    description.append("maxDepth=").append(options.getMaxDepth()).append('\n');
+    description.append("mountPolicy=").append(options.getMountPolicy()).append('\n');
+    description.append("followLinks=").append(options.isFollowLinks()).append('\n');
+    for (String pattern : options.getExclusionRules().getPatterns()) {
+      description.append("exclude=").append(pattern).append('\n');
+    }
+    return sha256Hex(description.toString());
+  }
+
+  private static String sha256Hex(String text) {
+    DigestAlgorithm.Hasher hasher = DigestAlgorithm.SHA256.newHasher();
+    byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+    hasher.update(bytes, 0, bytes.length);
+    return HexFormat.of().formatHex(hasher.digest());
+  }
+
+  private Path journalFile(Path rootPath) {
+    return checkpointDirectory.resolve(fileNamePrefix(rootPath) + JOURNAL_EXTENSION);
+  }
+
+  private Path manifestFile(Path rootPath) {
+    return checkpointDirectory.resolve(fileNamePrefix(rootPath) + MANIFEST_EXTENSION);
+  }
+
+  /**
+   * ルートのパスごとのファイル名（正規化したパスの SHA-256。異なるルートのジャーナルが同じ名前にならない）
+   */
+  private String fileNamePrefix(Path rootPath) {
+    return sha256Hex(rootPath.toAbsolutePath().normalize().toString());
+  }
+}
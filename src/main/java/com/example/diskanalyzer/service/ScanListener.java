@@ -0,0 +1,23 @@
+package com.example.diskanalyzer.service;
+
+import com.example.diskanalyzer.model.FileNode;
+import com.example.diskanalyzer.model.ScanProgress;
+
+import java.util.List;
+
+/**
+ * スキャン途中の結果を逐次受け取るリスナー
+ * 通知は専用の配信スレッドから1件ずつ順番に行われる。
+ * 処理が追いつかない場合はスキャン側が待機する（バックプレッシャー）
+ */
+@FunctionalInterface
+public interface ScanListener {
+
+  /**
+   * 新たに見つかったファイル・ディレクトリのバッチを受け取る
+   *
+   * @param batch    前回の通知以降に見つかったエントリ
+   * @param progress 通知時点での累計値
+   */
+  void onBatch(List<FileNode> batch, ScanProgress progress);
+}
@@ -0,0 +1,90 @@
+package com.example.diskanalyzer.service;
+
+import com.example.diskanalyzer.model.FileNode;
+import com.example.diskanalyzer.model.ScanSnapshot;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * スナップショットをJSONで保存・復元するための設定
+ * モデルクラスに Jackson の注釈を付けずに、FileTime の変換とコンストラクタによる復元を行う。
+ * FileTime はナノ秒まで保持する ISO-8601 形式で保存し、増分スキャンでの比較が保存前と一致するようにする
+ */
+class SnapshotJsonModule extends SimpleModule {
+
+  SnapshotJsonModule() {
+    super("LumiDiskSnapshot");
+    addSerializer(FileTime.class, new FileTimeSerializer());
+    addDeserializer(FileTime.class, new FileTimeDeserializer());
+    setMixInAnnotation(FileNode.class, FileNodeMixin.class);
+    setMixInAnnotation(ScanSnapshot.class, ScanSnapshotMixin.class);
+  }
+
+  private static class FileTimeSerializer extends JsonSerializer<FileTime> {
+    @Override
+    public void serialize(FileTime value, JsonGenerator generator, SerializerProvider serializers)
+        throws IOException {
+      generator.writeString(value.toInstant().toString());
+    }
+  }
+
+  private static class FileTimeDeserializer extends JsonDeserializer<FileTime> {
+    @Override
+    public FileTime deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+      return FileTime.from(Instant.parse(parser.getValueAsString()));
+    }
+  }
+
+  /**
+   * 表示用に計算される値は保存しない
+   */
+  @JsonIgnoreProperties(value = {"name", "formattedSize", "modifiedDateTime", "hash"}, ignoreUnknown = true)
+  private abstract static class FileNodeMixin {
+    @JsonCreator
+    FileNodeMixin(@JsonProperty("path") Path path,
+        @JsonProperty("size") long size,
+        @JsonProperty("modified") FileTime modified,
+        @JsonProperty("directory") boolean isDirectory,
+        @JsonProperty("hidden") boolean isHidden,
+        @JsonProperty("fileCount") long fileCount,
+        @JsonProperty("newestModified") FileTime newestModified,
+        @JsonProperty("extension") String extension) {
+    }
+
+    // ハードリンクの重複判定用。対象のファイルのみ保存する
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    abstract long[] getLink();
+  }
+
+  @JsonIgnoreProperties(ignoreUnknown = true)
+  private abstract static class ScanSnapshotMixin {
+    @JsonCreator
+    ScanSnapshotMixin(@JsonProperty("rootPath") Path rootPath,
+        @JsonProperty("scanTime") LocalDateTime scanTime,
+        @JsonProperty("files") List<FileNode> files,
+        @JsonProperty("extensionStats") Map<String, Long> extensionStats,
+        @JsonProperty("totalSize") long totalSize,
+        @JsonProperty("totalFiles") int totalFiles,
+        @JsonProperty("totalDirectories") int totalDirectories,
+        @JsonProperty("scanDuration") long scanDuration,
+        @JsonProperty("version") String version) {
+    }
+  }
+}
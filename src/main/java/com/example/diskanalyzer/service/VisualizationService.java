@@ -1,5 +1,8 @@
 package com.example.diskanalyzer.service;
 
+import com.example.diskanalyzer.model.ColumnarScanStore;
+import com.example.diskanalyzer.model.ExtensionDictionary;
+import com.example.diskanalyzer.model.ExtensionStatistics;
 import com.example.diskanalyzer.model.FileNode;
 import com.example.diskanalyzer.model.ScanResult;
 import com.example.diskanalyzer.model.TreeNode;
@@ -19,23 +22,40 @@ public class VisualizationService {
 
   /**
    * ファイルリストからツリーマップ用のノード構造を作成する
+   * ディレクトリのサイズはスキャン時に集計済みの値をそのまま使用する
    */
   public TreeNode createTreeMap(ScanResult scanResult) {
     logger.info("ツリーマップ作成開始: {} ファイル", scanResult.getFiles().size());
 
-    // ルートノードを作成
-    TreeNode root = new TreeNode("Root", "", 0, true);
+    // 列指向ストアの場合は親IDの索引をたどるだけで構築できる
+    ColumnarScanStore store = scanResult.getStore();
+    if (store != null && store.getRootId() != ColumnarScanStore.NO_PARENT) {
+      int rootId = store.getRootId();
+      TreeNode root = new TreeNode(store.getName(rootId), store.getRootPath().toString(), store.getSize(rootId), true);
+      buildTreeStructure(root, rootId, store);
+      logger.info("ツリーマップ作成完了");
+      return root;
+    }
 
     // ファイルをパスでグループ化
     Map<String, List<FileNode>> pathGroups = new HashMap<>();
+    FileNode rootEntry = null;
     for (FileNode file : scanResult.getFiles()) {
       Path path = file.getPath();
+      if (file.isDirectory() && path.equals(scanResult.getRootPath())) {
+        rootEntry = file;
+      }
       String parentPath = path.getParent() != null ? path.getParent().toString() : "";
       pathGroups.computeIfAbsent(parentPath, k -> new ArrayList<>()).add(file);
     }
 
+    // ルートノードを作成
+    TreeNode root = rootEntry != null
+        ? new TreeNode(rootEntry.getName(), rootEntry.getPath().toString(), rootEntry.getSize(), true)
+        : new TreeNode("Root", "", scanResult.getTotalSize(), true);
+
     // ツリー構造を構築
-    buildTreeStructure(root, pathGroups, scanResult.getTotalSize());
+    buildTreeStructure(root, pathGroups);
 
     logger.info("ツリーマップ作成完了");
     return root;
@@ -44,41 +64,20 @@ public class VisualizationService {
   /**
    * ツリー構造を再帰的に構築する
    */
-  private void buildTreeStructure(TreeNode parent, Map<String, List<FileNode>> pathGroups, long totalSize) {
-    String parentPath = parent.getPath();
-    List<FileNode> files = pathGroups.get(parentPath);
+  private void buildTreeStructure(TreeNode parent, Map<String, List<FileNode>> pathGroups) {
+    List<FileNode> files = pathGroups.get(parent.getPath());
 
     if (files == null) {
       return;
     }
 
-    // ディレクトリとファイルを分離
-    List<FileNode> directories = files.stream()
-        .filter(FileNode::isDirectory)
-        .collect(Collectors.toList());
-
-    List<FileNode> fileNodes = files.stream()
-        .filter(file -> !file.isDirectory())
-        .collect(Collectors.toList());
-
-    // ディレクトリノードを作成
-    for (FileNode dir : directories) {
-      TreeNode dirNode = new TreeNode(dir.getName(), dir.getPath().toString(), 0, true);
-      parent.addChild(dirNode);
-
-      // 再帰的に子ノードを構築
-      buildTreeStructure(dirNode, pathGroups, totalSize);
-
-      // ディレクトリサイズを計算（子ノードの合計）
-      long dirSize = calculateDirectorySize(dirNode);
-      dirNode = new TreeNode(dir.getName(), dir.getPath().toString(), dirSize, true);
-      parent.getChildren().set(parent.getChildren().size() - 1, dirNode);
-    }
-
-    // ファイルノードを作成
-    for (FileNode file : fileNodes) {
-      TreeNode fileNode = new TreeNode(file.getName(), file.getPath().toString(), file.getSize(), false);
-      parent.addChild(fileNode);
+    for (FileNode file : files) {
+      TreeNode node = new TreeNode(file.getName(), file.getPath().toString(), file.getSize(), file.isDirectory());
+      parent.addChild(node);
+      if (file.isDirectory()) {
+        // 再帰的に子ノードを構築
+        buildTreeStructure(node, pathGroups);
+      }
     }
 
     // サイズ順でソート
@@ -86,28 +85,58 @@ public class VisualizationService {
   }
 
   /**
-   * ディレクトリサイズを計算する
+   * 列指向ストアの親子索引からツリー構造を再帰的に構築する
    */
-  private long calculateDirectorySize(TreeNode node) {
-    if (!node.isDirectory()) {
-      return node.getSize();
+  private void buildTreeStructure(TreeNode parent, int parentId, ColumnarScanStore store) {
+    for (int id : store.getChildren(parentId)) {
+      boolean isDirectory = store.isDirectory(id);
+      TreeNode node = new TreeNode(store.getName(id), store.getPath(id).toString(), store.getSize(id), isDirectory);
+      parent.addChild(node);
+      if (isDirectory) {
+        buildTreeStructure(node, id, store);
+      }
     }
 
-    long totalSize = 0;
-    for (TreeNode child : node.getChildren()) {
-      totalSize += calculateDirectorySize(child);
-    }
-    return totalSize;
+    // サイズ順でソート
+    parent.getChildren().sort((a, b) -> Long.compare(b.getSize(), a.getSize()));
+  }
+
+  /**
+   * 容量の大きいディレクトリを検出する
+   * サイズはスキャン時の集計値を使うため、ツリーの再構築は不要
+   */
+  public List<FileNode> findLargeDirectories(ScanResult scanResult, int limit) {
+    return scanResult.getFiles().stream()
+        .filter(FileNode::isDirectory)
+        .filter(dir -> !dir.getPath().equals(scanResult.getRootPath()))
+        .sorted((a, b) -> Long.compare(b.getSize(), a.getSize()))
+        .limit(limit)
+        .collect(Collectors.toList());
   }
 
   /**
    * 拡張子別統計を作成する
+   * スキャン時に集計済みの拡張子ID別統計があればそれを変換するだけで、ファイル一覧は走査しない
    */
   public Map<String, ExtensionStats> createExtensionStats(ScanResult scanResult) {
     logger.info("拡張子統計作成開始");
 
     Map<String, ExtensionStats> stats = new HashMap<>();
 
+    ExtensionStatistics statistics = scanResult.getExtensionStatistics();
+    if (statistics != null) {
+      for (int id = 0; id < statistics.getIdLimit(); id++) {
+        if (statistics.getCount(id) == 0) {
+          continue;
+        }
+        String extension = id == ExtensionDictionary.NONE ? "その他" : statistics.getExtension(id);
+        stats.put(extension, new ExtensionStats(extension, (int) statistics.getCount(id),
+            statistics.getTotalSize(id), statistics.getMinSize(id), statistics.getMaxSize(id)));
+      }
+      logger.info("拡張子統計作成完了: {} 種類", stats.size());
+      return stats;
+    }
+
     for (FileNode file : scanResult.getFiles()) {
       if (!file.isDirectory()) {
         String extension = file.getExtension();
@@ -133,7 +162,6 @@ public class VisualizationService {
     private long totalSize;
     private long minSize;
     private long maxSize;
-    private final List<FileNode> files;
 
     public ExtensionStats(String extension) {
       this.extension = extension;
@@ -141,11 +169,20 @@ public class VisualizationService {
       this.totalSize = 0;
       this.minSize = Long.MAX_VALUE;
       this.maxSize = 0;
-      this.files = new ArrayList<>();
+    }
+
+    /**
+     * 集計済みの値から作成する
+     */
+    public ExtensionStats(String extension, int fileCount, long totalSize, long minSize, long maxSize) {
+      this.extension = extension;
+      this.fileCount = fileCount;
+      this.totalSize = totalSize;
+      this.minSize = fileCount > 0 ? minSize : Long.MAX_VALUE;
+      this.maxSize = maxSize;
     }
 
     public void addFile(FileNode file) {
-      files.add(file);
       fileCount++;
       totalSize += file.getSize();
       minSize = Math.min(minSize, file.getSize());
@@ -192,10 +229,6 @@ public class VisualizationService {
       return formatSize((long) getAverageSize());
     }
 
-    public List<FileNode> getFiles() {
-      return files;
-    }
-
     private String formatSize(long bytes) {
       if (bytes < 1024) {
         return bytes + " B";
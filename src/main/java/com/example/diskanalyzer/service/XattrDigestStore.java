@@ -0,0 +1,169 @@
+package com.example.diskanalyzer.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ファイル内容のハッシュ値をファイル自身の拡張属性（user.lumidisk.*）に保存する
+ * 計算した時点のサイズと更新日時を一緒に保存し、どちらかが変わっていれば使わない。
+ * デバイス・inode は照合しないため、ファイルを別のホストへ（更新日時を保ったまま）コピーしても再利用できる。
+ * 拡張属性を書き込んでも更新日時は変わらない。拡張属性に対応していないファイルシステムでは何もしない
+ */
+class XattrDigestStore {
+  private static final Logger logger = LoggerFactory.getLogger(XattrDigestStore.class);
+  private static final String NAME_PREFIX = "lumidisk."; // UserDefinedFileAttributeView が "user." を付ける
+  private static final byte FORMAT_VERSION = 1;
+  private static final int HEADER_LENGTH = 1 + Long.BYTES * 2; // バージョン・サイズ・更新日時（ナノ秒）
+  private static final int MAX_VALUE_LENGTH = 256;
+
+  private final Map<Long, Boolean> supportByDevice = new ConcurrentHashMap<>();
+  private final MetricsRegistry.Counter hits;
+  private final MetricsRegistry.Counter stored;
+  private final MetricsRegistry.Counter failures;
+
+  XattrDigestStore(MetricsRegistry metrics) {
+    this.hits = metrics.counter("xattr.hits");
+    this.stored = metrics.counter("xattr.stored");
+    this.failures = metrics.counter("xattr.failures");
+  }
+
+  /**
+   * 拡張属性から有効なハッシュ値を読み込み、digests の同じ位置に設定する
+   * 属性が null の位置と、すでに値がある位置は読み込まない
+   *
+   * @return 見つかった件数
+   */
+  int lookup(String kind, List<Path> paths, EntryAttributes[] attributes, byte[][] digests) {
+    String name = attributeName(kind);
+    ByteBuffer buffer = ByteBuffer.allocate(MAX_VALUE_LENGTH);
+    int found = 0;
+    for (int i = 0; i < paths.size(); i++) {
+      EntryAttributes attrs = attributes[i];
+      if (attrs == null || digests[i] != null || !isSupported(paths.get(i), attrs)) {
+        continue;
+      }
+      byte[] digest = read(paths.get(i), name, attrs, buffer);
+      if (digest != null) {
+        digests[i] = digest;
+        found++;
+      }
+    }
+    hits.add(found);
+    return found;
+  }
+
+  /**
+   * 計算したハッシュ値を拡張属性に書き込み、書き込めた位置の handled を true にする
+   * 属性が null の位置、値が null の位置、handled が true の位置は書き込まない
+   */
+  void store(String kind, List<Path> paths, EntryAttributes[] attributes, byte[][] digests, boolean[] handled) {
+    String name = attributeName(kind);
+    for (int i = 0; i < paths.size(); i++) {
+      EntryAttributes attrs = attributes[i];
+      if (attrs == null || digests[i] == null || handled[i] || !isSupported(paths.get(i), attrs)) {
+        continue;
+      }
+      handled[i] = write(paths.get(i), name, attrs, digests[i]);
+    }
+  }
+
+  /**
+   * ファイルに有効なハッシュ値が保存されているか
+   */
+  boolean hasValid(String kind, Path path, EntryAttributes attrs) {
+    return isSupported(path, attrs)
+        && read(path, attributeName(kind), attrs, ByteBuffer.allocate(MAX_VALUE_LENGTH)) != null;
+  }
+
+  /**
+   * ファイルが置かれたファイルシステムが拡張属性に対応しているか（デバイスごとに初回のみ判定する）
+   */
+  boolean isSupported(Path path, EntryAttributes attrs) {
+    if (attrs.device() == DeviceRegistry.UNKNOWN_DEVICE) {
+      return probe(path);
+    }
+    return supportByDevice.computeIfAbsent(attrs.device(), device -> {
+      boolean supported = probe(path);
+      if (!supported) {
+        logger.info("拡張属性に対応していないファイルシステムのため、ハッシュ値を拡張属性に保存しません: {}", path);
+      }
+      return supported;
+    });
+  }
+
+  private static boolean probe(Path path) {
+    try {
+      return Files.getFileStore(path).supportsFileAttributeView(UserDefinedFileAttributeView.class);
+    } catch (IOException | SecurityException e) {
+      logger.debug("拡張属性への対応を判定できません: {}", path, e);
+      return false;
+    }
+  }
+
+  private byte[] read(Path path, String name, EntryAttributes attrs, ByteBuffer buffer) {
+    UserDefinedFileAttributeView view = Files.getFileAttributeView(path, UserDefinedFileAttributeView.class);
+    if (view == null) {
+      return null;
+    }
+    try {
+      buffer.clear();
+      view.read(name, buffer);
+      buffer.flip();
+    } catch (IOException | SecurityException e) {
+      // 属性がない場合も例外になる
+      return null;
+    }
+    if (buffer.remaining() <= HEADER_LENGTH || buffer.get() != FORMAT_VERSION) {
+      return null;
+    }
+    long size = buffer.getLong();
+    long modified = buffer.getLong();
+    if (size != attrs.size() || modified != modifiedNanos(attrs)) {
+      return null;
+    }
+    byte[] digest = new byte[buffer.remaining()];
+    buffer.get(digest);
+    return digest;
+  }
+
+  private boolean write(Path path, String name, EntryAttributes attrs, byte[] digest) {
+    UserDefinedFileAttributeView view = Files.getFileAttributeView(path, UserDefinedFileAttributeView.class);
+    if (view == null) {
+      return false;
+    }
+    ByteBuffer value = ByteBuffer.allocate(HEADER_LENGTH + digest.length);
+    value.put(FORMAT_VERSION).putLong(attrs.size()).putLong(modifiedNanos(attrs)).put(digest).flip();
+    try {
+      view.write(name, value);
+      stored.increment();
+      return true;
+    } catch (NoSuchFileException e) {
+      return false;
+    } catch (IOException | SecurityException e) {
+      // 書き込み権限のないファイルなど
+      logger.debug("拡張属性を書き込めません: {}", path, e);
+      failures.increment();
+      return false;
+    }
+  }
+
+  private static String attributeName(String kind) {
+    return NAME_PREFIX + kind.toLowerCase(Locale.ROOT).replace(':', '.');
+  }
+
+  private static long modifiedNanos(EntryAttributes attrs) {
+    return attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+  }
+}